@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Request to run the same workflow transition on many documents at once, in a background job.
+ *
+ * @version $Id$
+ * @since 1.6
+ */
+public class BulkTransitionRequest extends AbstractRequest
+{
+    /**
+     * The property holding the transition to run, one of the transitions of {@link WorkflowTransitionEvent}.
+     */
+    public static final String PROPERTY_TRANSITION = "transition";
+
+    /**
+     * The property holding the documents on which to run the transition.
+     */
+    public static final String PROPERTY_DOCUMENTS = "documents";
+
+    /**
+     * The property holding the user on behalf of whom the transition is run.
+     */
+    public static final String PROPERTY_USER = "user";
+
+    /**
+     * The property holding whether to check that the user has the role needed to run the transition, on each document.
+     */
+    public static final String PROPERTY_CHECK_RIGHTS = "checkRights";
+
+    /**
+     * The first element of the identifiers of the bulk transition jobs.
+     */
+    private static final String ID_PREFIX = "workflowpublication";
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param transition the transition to run, one of the transitions of {@link WorkflowTransitionEvent}
+     * @param documents the documents on which to run the transition
+     * @param user the user on behalf of whom the transition is run
+     */
+    public BulkTransitionRequest(String transition, Collection<DocumentReference> documents, DocumentReference user)
+    {
+        setId(getId(transition, user));
+        setProperty(PROPERTY_TRANSITION, transition);
+        setProperty(PROPERTY_DOCUMENTS, new ArrayList<DocumentReference>(documents));
+        setProperty(PROPERTY_USER, user);
+        setCheckRights(false);
+    }
+
+    /**
+     * The identifier of the bulk transition jobs of a user for a transition. Only the status of the last job of a user
+     * for a transition is kept.
+     *
+     * @param transition the transition
+     * @param user the user running the transition
+     * @return the identifier of the job
+     */
+    public static List<String> getId(String transition, DocumentReference user)
+    {
+        return Arrays.asList(ID_PREFIX, "bulk", transition, String.valueOf(user));
+    }
+
+    /**
+     * @return the transition to run, one of the transitions of {@link WorkflowTransitionEvent}
+     */
+    public String getTransition()
+    {
+        return getProperty(PROPERTY_TRANSITION);
+    }
+
+    /**
+     * @return the documents on which to run the transition
+     */
+    public List<DocumentReference> getDocuments()
+    {
+        return getProperty(PROPERTY_DOCUMENTS);
+    }
+
+    /**
+     * @return the user on behalf of whom the transition is run
+     */
+    public DocumentReference getUserReference()
+    {
+        return getProperty(PROPERTY_USER);
+    }
+
+    /**
+     * @return whether to check that the user has the role needed to run the transition, on each document
+     */
+    public boolean isCheckRights()
+    {
+        return Boolean.TRUE.equals(getProperty(PROPERTY_CHECK_RIGHTS));
+    }
+
+    /**
+     * @param checkRights whether to check that the user has the role needed to run the transition, on each document.
+     *            The documents on which the user doesn't have the role are reported as failed
+     */
+    public void setCheckRights(boolean checkRights)
+    {
+        setProperty(PROPERTY_CHECK_RIGHTS, checkRights);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Status of a bulk transition job, holding the result of the transition for each document as soon as it is known. It
+ * is a view on the status of the job, which keeps being updated while the job runs.
+ *
+ * @version $Id$
+ * @since 1.6
+ */
+public class BulkTransitionStatus
+{
+    /**
+     * The status of the job.
+     */
+    private final JobStatus jobStatus;
+
+    /**
+     * Whether the transition succeeded, by document, updated by the job.
+     */
+    private final Map<DocumentReference, Boolean> results;
+
+    /**
+     * @param jobStatus the status of the bulk transition job
+     * @param results whether the transition succeeded, by document, updated by the job as it runs
+     */
+    public BulkTransitionStatus(JobStatus jobStatus, Map<DocumentReference, Boolean> results)
+    {
+        this.jobStatus = jobStatus;
+        this.results = results;
+    }
+
+    /**
+     * @return the status of the job, with its progress and its log
+     */
+    public JobStatus getJobStatus()
+    {
+        return this.jobStatus;
+    }
+
+    /**
+     * @return the state of the job
+     */
+    public JobStatus.State getState()
+    {
+        return this.jobStatus.getState();
+    }
+
+    /**
+     * @return the request of the job
+     */
+    public BulkTransitionRequest getRequest()
+    {
+        return (BulkTransitionRequest) this.jobStatus.getRequest();
+    }
+
+    /**
+     * @return whether the transition succeeded, by document, for the documents already processed
+     */
+    public Map<DocumentReference, Boolean> getResults()
+    {
+        return this.results;
+    }
+
+    /**
+     * @return the documents on which the transition failed so far
+     */
+    public List<DocumentReference> getFailures()
+    {
+        List<DocumentReference> failures = new ArrayList<DocumentReference>();
+        for (Map.Entry<DocumentReference, Boolean> result : this.results.entrySet()) {
+            if (!result.getValue()) {
+                failures.add(result.getKey());
+            }
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication;
+
+import org.xwiki.bridge.event.AbstractDocumentEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.event.filter.EventFilter;
+
+/**
+ * Sent after a document was published through the publication workflow API, once the published document is saved and
+ * the publication is committed, so it is not sent for a publication which fails and is rolled back. The source of the
+ * event is the published document and the data is the xwiki context. As for the
+ * {@link DocumentPublishingEvent}, it is sent both when the first version of the published document is created and when
+ * a new version of an existing published document is saved. <br />
+ * Can be used to react to publications (indexing, notifications, cache invalidation, etc.) without listening to all the
+ * document saves of the farm.
+ * 
+ * @version $Id$
+ */
+public class DocumentPublishedEvent extends AbstractDocumentEvent
+{
+    /**
+     * The version identifier for this Serializable class. Increment only if the <i>serialized</i> form of the class
+     * changes.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor initializing the event filter with an
+     * {@link org.xwiki.observation.event.filter.AlwaysMatchingEventFilter}, meaning that this event will match any
+     * other document published event.
+     */
+    public DocumentPublishedEvent()
+    {
+        super();
+    }
+
+    /**
+     * Constructor initializing the event filter with a {@link org.xwiki.observation.event.filter.FixedNameEventFilter},
+     * meaning that this event will match only published events affecting the same document.
+     * 
+     * @param documentReference the reference of the document to match
+     */
+    public DocumentPublishedEvent(DocumentReference documentReference)
+    {
+        super(documentReference);
+    }
+
+    /**
+     * Constructor using a custom {@link EventFilter}.
+     * 
+     * @param eventFilter the filter to use for matching events
+     */
+    public DocumentPublishedEvent(EventFilter eventFilter)
+    {
+        super(eventFilter);
+    }
+}
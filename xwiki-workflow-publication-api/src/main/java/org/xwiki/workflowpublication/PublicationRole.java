@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication;
+
+/**
+ * The roles that a user can have in the publication workflow of a document. Roles are effective roles: a validator can
+ * moderate and contribute as well, so a validator has all three workflow roles, and a wiki administrator has all of
+ * them plus {@link #ADMIN}.
+ * 
+ * @version $Id$
+ */
+public enum PublicationRole
+{
+    /**
+     * Can edit drafts and submit them for moderation.
+     */
+    CONTRIBUTOR("contributor"),
+
+    /**
+     * Can accept or refuse the documents submitted for moderation.
+     */
+    MODERATOR("moderator"),
+
+    /**
+     * Can accept or refuse the documents submitted for validation, and publish them.
+     */
+    VALIDATOR("validator"),
+
+    /**
+     * Is an administrator of the wiki.
+     */
+    ADMIN("admin");
+
+    /**
+     * The name of the role, which is also the name of the property holding the group of the role in the workflow
+     * config, for the workflow roles.
+     */
+    private final String name;
+
+    /**
+     * @param name the name of the role
+     */
+    PublicationRole(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of the role, as used in the workflow config and in scripts
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+}
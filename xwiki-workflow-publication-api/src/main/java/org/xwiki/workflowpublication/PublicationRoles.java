@@ -20,6 +20,7 @@
 package org.xwiki.workflowpublication;
 
 import java.util.Collection;
+import java.util.Set;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.DocumentReference;
@@ -51,6 +52,38 @@ public interface PublicationRoles
     boolean canValidate(DocumentReference userRef, XWikiDocument document, XWikiContext context);
     
     boolean canContribute(DocumentReference userRef, XWikiDocument document, XWikiContext context);
+
+    /**
+     * Computes all the roles of the user designated by userRef on the passed document at once, resolving the groups of
+     * the user only once. This is to be used instead of calling {@link #canContribute}, {@link #canModerate} and
+     * {@link #canValidate} one after the other. The roles are effective roles, see {@link PublicationRole}: the user
+     * can moderate if the result contains {@link PublicationRole#MODERATOR}, etc.
+     * 
+     * @param userRef the reference to the user to get the roles of
+     * @param document the workflow document to get the roles on
+     * @param context the context of the request
+     * @return the roles of the user on the passed document, as an unmodifiable set, empty if the user has no role or
+     *         if the roles could not be computed
+     * @since 1.6
+     */
+    Set<PublicationRole> getRoles(DocumentReference userRef, XWikiDocument document, XWikiContext context);
+
+    /**
+     * Computes all the roles of the user designated by userRef on a document which has the passed workflow config,
+     * without needing to load that document. This allows to compute the roles once for all the documents which have
+     * the same workflow config.
+     * 
+     * @param userRef the reference to the user to get the roles of
+     * @param documentRef the reference to the workflow document, to resolve the groups of the config relative to and to
+     *            check the edit right on if there is no workflow config
+     * @param workflowConfig the workflow config of the document, {@code null} if the document has no workflow config
+     * @param context the context of the request
+     * @return the roles of the user on a document with the passed config, as an unmodifiable set, empty if the user has
+     *         no role or if the roles could not be computed
+     * @since 1.6
+     */
+    Set<PublicationRole> getRoles(DocumentReference userRef, DocumentReference documentRef, BaseObject workflowConfig,
+        XWikiContext context);
     
     String getContributors(BaseObject workflowConfig, XWikiContext context);
     
@@ -19,7 +19,11 @@
  */
 package org.xwiki.workflowpublication;
 
+import java.util.Collection;
+import java.util.Map;
+
 import org.xwiki.component.annotation.Role;
+import org.xwiki.job.Job;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
@@ -105,6 +109,22 @@ public interface PublicationWorkflow
     public DocumentReference getDraftDocument(DocumentReference targetRef, String wiki, XWikiContext xcontext)
         throws XWikiException;
 
+    /**
+     * Gets the draft documents corresponding to all the passed targets at once, looking for them in the passed wiki, as
+     * {@link #getDraftDocument(DocumentReference, String, XWikiContext)} does for one target. This function should be
+     * used instead of calling {@link #getDraftDocument(DocumentReference, String, XWikiContext)} for each target when
+     * the drafts of many targets are needed.
+     * 
+     * @param targetRefs the references of the published documents to get the drafts of
+     * @param wiki the wiki where the drafts are expected to be
+     * @param xcontext the context of the current request
+     * @return the draft document of each target which has a draft, by target. Targets without draft are not in the map
+     * @throws XWikiException in case the drafts cannot be looked up
+     * @since 1.6
+     */
+    public Map<DocumentReference, DocumentReference> getDraftDocuments(Collection<DocumentReference> targetRefs,
+        String wiki, XWikiContext xcontext) throws XWikiException;
+
     /**
      * Creates a draft document corresponding to the passed target reference, which will have as a target the passed
      * reference. The draft document is created in the same wiki, the space where the document is created is taken from
@@ -119,6 +139,19 @@ public interface PublicationWorkflow
     public DocumentReference createDraftDocument(DocumentReference targetRef, XWikiContext xcontext)
         throws XWikiException;
 
+    /**
+     * Same as {@link #createDraftDocument(DocumentReference, XWikiContext)}, for a target which is already loaded, to
+     * avoid loading it again.
+     * 
+     * @param targetDocument the published document to create a draft for
+     * @param xcontext the context of the current request
+     * @return the reference of the created draft, or {@code null} if no draft could be created
+     * @throws XWikiException in case the draft cannot be created
+     * @since 1.6
+     */
+    public DocumentReference createDraftDocument(XWikiDocument targetDocument, XWikiContext xcontext)
+        throws XWikiException;
+
     /**
      * Sets up the draft rigths and visibility on the passed XWikiDocument, as a draft document. It's a helper function
      * for the listeners to be able to setup the rights with one function. Workflow groups configuration will be taken
@@ -142,6 +175,17 @@ public interface PublicationWorkflow
      */
     public boolean submitForModeration(DocumentReference document) throws XWikiException;
 
+    /**
+     * Same as {@link #submitForModeration(DocumentReference)}, for a document which is already loaded, to avoid loading
+     * it again.
+     * 
+     * @param document the document to run the transition on
+     * @return see {@link #submitForModeration(DocumentReference)}
+     * @throws XWikiException in case the transition fails
+     * @since 1.6
+     */
+    public boolean submitForModeration(XWikiDocument document) throws XWikiException;
+
     /**
      * moderating -> draft + contributor gets edit rights back
      * 
@@ -152,6 +196,18 @@ public interface PublicationWorkflow
      */
     public boolean refuseModeration(DocumentReference document, String reason) throws XWikiException;
 
+    /**
+     * Same as {@link #refuseModeration(DocumentReference, String)}, for a document which is already loaded, to avoid
+     * loading it again.
+     * 
+     * @param document the document to run the transition on
+     * @param reason see {@link #refuseModeration(DocumentReference, String)}
+     * @return see {@link #refuseModeration(DocumentReference, String)}
+     * @throws XWikiException in case the transition fails
+     * @since 1.6
+     */
+    public boolean refuseModeration(XWikiDocument document, String reason) throws XWikiException;
+
     /**
      * moderating -> validating. + moderator looses edit rights
      * 
@@ -161,6 +217,17 @@ public interface PublicationWorkflow
      */
     public boolean submitForValidation(DocumentReference document) throws XWikiException;
 
+    /**
+     * Same as {@link #submitForValidation(DocumentReference)}, for a document which is already loaded, to avoid loading
+     * it again.
+     * 
+     * @param document the document to run the transition on
+     * @return see {@link #submitForValidation(DocumentReference)}
+     * @throws XWikiException in case the transition fails
+     * @since 1.6
+     */
+    public boolean submitForValidation(XWikiDocument document) throws XWikiException;
+
     /**
      * validating -> draft. + contributor and moderator get back rights
      * 
@@ -171,6 +238,18 @@ public interface PublicationWorkflow
      */
     public boolean refuseValidation(DocumentReference documnet, String reason) throws XWikiException;
 
+    /**
+     * Same as {@link #refuseValidation(DocumentReference, String)}, for a document which is already loaded, to avoid
+     * loading it again.
+     * 
+     * @param document the document to run the transition on
+     * @param reason see {@link #refuseValidation(DocumentReference, String)}
+     * @return see {@link #refuseValidation(DocumentReference, String)}
+     * @throws XWikiException in case the transition fails
+     * @since 1.6
+     */
+    public boolean refuseValidation(XWikiDocument document, String reason) throws XWikiException;
+
     /**
      * validating -> validated. Rights stay the same as in validating state. This extra state is needed in order to be
      * able to delay the effective publishing of the document (making it available to users as a published document).
@@ -181,6 +260,16 @@ public interface PublicationWorkflow
      */
     public boolean validate(DocumentReference document) throws XWikiException;
 
+    /**
+     * Same as {@link #validate(DocumentReference)}, for a document which is already loaded, to avoid loading it again.
+     * 
+     * @param document the document to run the transition on
+     * @return see {@link #validate(DocumentReference)}
+     * @throws XWikiException in case the transition fails
+     * @since 1.6
+     */
+    public boolean validate(XWikiDocument document) throws XWikiException;
+
     /**
      * validated or validating -> published + document gets copied in its final place where it will be readonly anyway
      * 
@@ -190,6 +279,16 @@ public interface PublicationWorkflow
      */
     public DocumentReference publish(DocumentReference document) throws XWikiException;
 
+    /**
+     * Same as {@link #publish(DocumentReference)}, for a document which is already loaded, to avoid loading it again.
+     * 
+     * @param document the document to run the transition on
+     * @return see {@link #publish(DocumentReference)}
+     * @throws XWikiException in case the transition fails
+     * @since 1.6
+     */
+    public DocumentReference publish(XWikiDocument document) throws XWikiException;
+
     /**
      * published -> draft. Published document gets deleted. Content from the published document can be copied to the
      * draft or just ignored, depending on the parameter.
@@ -201,6 +300,18 @@ public interface PublicationWorkflow
      */
     public DocumentReference unpublish(DocumentReference document, boolean forceToDraft) throws XWikiException;
 
+    /**
+     * Same as {@link #unpublish(DocumentReference, boolean)}, for a document which is already loaded, to avoid loading
+     * it again.
+     * 
+     * @param document the document to run the transition on
+     * @param forceToDraft see {@link #unpublish(DocumentReference, boolean)}
+     * @return see {@link #unpublish(DocumentReference, boolean)}
+     * @throws XWikiException in case the transition fails
+     * @since 1.6
+     */
+    public DocumentReference unpublish(XWikiDocument document, boolean forceToDraft) throws XWikiException;
+
     /**
      * To edit back a draft whose status is published
      * 
@@ -210,6 +321,16 @@ public interface PublicationWorkflow
      */
     public boolean editDraft(DocumentReference document) throws XWikiException;
 
+    /**
+     * Same as {@link #editDraft(DocumentReference)}, for a document which is already loaded, to avoid loading it again.
+     * 
+     * @param document the document to run the transition on
+     * @return see {@link #editDraft(DocumentReference)}
+     * @throws XWikiException in case the transition fails
+     * @since 1.6
+     */
+    public boolean editDraft(XWikiDocument document) throws XWikiException;
+
     /**
      * published -> archived. Not yet sure how it would work.
      * 
@@ -219,6 +340,16 @@ public interface PublicationWorkflow
      */
     public boolean archive(DocumentReference document) throws XWikiException;
 
+    /**
+     * Same as {@link #archive(DocumentReference)}, for a document which is already loaded, to avoid loading it again.
+     * 
+     * @param document the document to run the transition on
+     * @return see {@link #archive(DocumentReference)}
+     * @throws XWikiException in case the transition fails
+     * @since 1.6
+     */
+    public boolean archive(XWikiDocument document) throws XWikiException;
+
     /**
      * archived -> draft. Archived document gets deleted. Content from the archived document can be copied to the draft
      * or just ignored, depending on the parameter.
@@ -229,6 +360,18 @@ public interface PublicationWorkflow
      */
     public DocumentReference unarchive(DocumentReference document, boolean forceToDraft) throws XWikiException;
 
+    /**
+     * Same as {@link #unarchive(DocumentReference, boolean)}, for a document which is already loaded, to avoid loading
+     * it again.
+     * 
+     * @param document the document to run the transition on
+     * @param forceToDraft see {@link #unarchive(DocumentReference, boolean)}
+     * @return see {@link #unarchive(DocumentReference, boolean)}
+     * @throws XWikiException in case the transition fails
+     * @since 1.6
+     */
+    public DocumentReference unarchive(XWikiDocument document, boolean forceToDraft) throws XWikiException;
+
     /**
      * archived -> published. Not yet sure how it would work.
      * 
@@ -237,4 +380,78 @@ public interface PublicationWorkflow
      * @throws XWikiException
      */
     public boolean publishFromArchive(DocumentReference document) throws XWikiException;
+
+    /**
+     * Same as {@link #publishFromArchive(DocumentReference)}, for a document which is already loaded, to avoid loading
+     * it again.
+     * 
+     * @param document the document to run the transition on
+     * @return see {@link #publishFromArchive(DocumentReference)}
+     * @throws XWikiException in case the transition fails
+     * @since 1.6
+     */
+    public boolean publishFromArchive(XWikiDocument document) throws XWikiException;
+
+    /**
+     * Starts a background job running the transition of the passed request on all its documents, in parallel. The
+     * progress and the result for each document are available in the status of the returned job.
+     * 
+     * @param request the transition to run and the documents to run it on
+     * @return the started job
+     * @throws XWikiException in case the job cannot be started
+     * @since 1.6
+     */
+    public Job startBulkTransition(BulkTransitionRequest request) throws XWikiException;
+
+    /**
+     * Publishes all the passed drafts in a background job, on behalf of the current user, see
+     * {@link #startBulkTransition(BulkTransitionRequest)}.
+     * 
+     * @param documents the drafts to publish
+     * @return the started job
+     * @throws XWikiException in case the job cannot be started
+     * @since 1.6
+     */
+    public Job publishAll(Collection<DocumentReference> documents) throws XWikiException;
+
+    /**
+     * Marks all the passed drafts as valid in a background job, on behalf of the current user, see
+     * {@link #startBulkTransition(BulkTransitionRequest)}.
+     * 
+     * @param documents the drafts to validate
+     * @return the started job
+     * @throws XWikiException in case the job cannot be started
+     * @since 1.6
+     */
+    public Job validateAll(Collection<DocumentReference> documents) throws XWikiException;
+
+    /**
+     * Submits all the passed drafts for validation in a background job, on behalf of the current user, see
+     * {@link #startBulkTransition(BulkTransitionRequest)}.
+     * 
+     * @param documents the drafts to submit for validation
+     * @return the started job
+     * @throws XWikiException in case the job cannot be started
+     * @since 1.6
+     */
+    public Job submitForValidationAll(Collection<DocumentReference> documents) throws XWikiException;
+
+    /**
+     * Submits all the passed drafts for moderation in a background job, on behalf of the current user, see
+     * {@link #startBulkTransition(BulkTransitionRequest)}.
+     * 
+     * @param documents the drafts to submit for moderation
+     * @return the started job
+     * @throws XWikiException in case the job cannot be started
+     * @since 1.6
+     */
+    public Job submitForModerationAll(Collection<DocumentReference> documents) throws XWikiException;
+
+    /**
+     * @param transition the transition
+     * @param user the user who ran the transition in bulk
+     * @return the status of the last bulk job of the user for the transition, {@code null} if there is none
+     * @since 1.6
+     */
+    public BulkTransitionStatus getBulkTransitionStatus(String transition, DocumentReference user);
 }
@@ -0,0 +1,57 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication;
+
+import java.util.List;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Lists the draft documents a user can act on in the publication workflow, without loading all the workflow documents
+ * of the wiki.
+ * 
+ * @version $Id$
+ * @since 1.6
+ */
+@Role
+public interface WorkflowInbox
+{
+    /**
+     * Gets a page of the draft documents of the current wiki which are in the passed status and on which the passed user
+     * has the role needed to advance them to the next status: contribute for drafts, moderate for documents in
+     * moderation and validate for documents in validation or valid. The drafts are filtered by status in the query and
+     * the roles of the user are computed once per workflow config, so the documents are not loaded.
+     * 
+     * @param userRef the user to get the inbox of
+     * @param status the status of the documents to return, one of the statuses of the workflow
+     * @param offset the number of documents the user can act on to skip
+     * @param limit the maximum number of documents to return, 0 to return all of them
+     * @param xcontext the context of the current request
+     * @return the references of the draft documents, ordered by name. Empty if nobody can act on the documents in the
+     *         passed status, e.g. for published documents
+     * @throws XWikiException in case the workflow documents cannot be queried
+     */
+    List<DocumentReference> getInbox(DocumentReference userRef, String status, int offset, int limit,
+        XWikiContext xcontext) throws XWikiException;
+}
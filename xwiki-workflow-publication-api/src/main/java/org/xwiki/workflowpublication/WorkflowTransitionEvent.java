@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication;
+
+import org.xwiki.bridge.event.AbstractDocumentEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.event.filter.EventFilter;
+
+/**
+ * Sent after a workflow document was moved from a status to another through the publication workflow API and saved.
+ * The source of the event is the document on which the transition happened: the draft, or the published document for
+ * archive and publish from archive. For unpublish, which deletes the published document, it is the draft. The data is
+ * the context. <br />
+ * Can be used to send notifications about the transitions or to perform additional operations, without slowing down the
+ * transition itself if these operations are done asynchronously.
+ * 
+ * @version $Id$
+ * @since 1.6
+ */
+public class WorkflowTransitionEvent extends AbstractDocumentEvent
+{
+    /**
+     * The draft was submitted for moderation.
+     */
+    public static final String SUBMIT_FOR_MODERATION = "submitformoderation";
+
+    /**
+     * The moderators refused the draft.
+     */
+    public static final String REFUSE_MODERATION = "refusemoderation";
+
+    /**
+     * The draft was submitted for validation.
+     */
+    public static final String SUBMIT_FOR_VALIDATION = "submitforvalidation";
+
+    /**
+     * The validators refused the draft.
+     */
+    public static final String REFUSE_VALIDATION = "refusevalidation";
+
+    /**
+     * The validators marked the draft as valid.
+     */
+    public static final String VALIDATE = "validate";
+
+    /**
+     * The draft was published.
+     */
+    public static final String PUBLISH = "publish";
+
+    /**
+     * The published document was unpublished, back to its draft.
+     */
+    public static final String UNPUBLISH = "unpublish";
+
+    /**
+     * The published document was archived.
+     */
+    public static final String ARCHIVE = "archive";
+
+    /**
+     * The archived document was published again.
+     */
+    public static final String PUBLISH_FROM_ARCHIVE = "publishfromarchive";
+
+    /**
+     * The version identifier for this Serializable class. Increment only if the <i>serialized</i> form of the class
+     * changes.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The transition that happened, one of the constants of this class.
+     */
+    private String transition;
+
+    /**
+     * The reason given for the transition, for refusals.
+     */
+    private String reason;
+
+    /**
+     * Constructor initializing the event filter with an
+     * {@link org.xwiki.observation.event.filter.AlwaysMatchingEventFilter}, meaning that this event will match any
+     * other transition event.
+     */
+    public WorkflowTransitionEvent()
+    {
+        super();
+    }
+
+    /**
+     * Constructor initializing the event filter with a {@link org.xwiki.observation.event.filter.FixedNameEventFilter},
+     * meaning that this event will match only transition events affecting the same document.
+     * 
+     * @param documentReference the reference of the document to match
+     */
+    public WorkflowTransitionEvent(DocumentReference documentReference)
+    {
+        super(documentReference);
+    }
+
+    /**
+     * Constructor using a custom {@link EventFilter}.
+     * 
+     * @param eventFilter the filter to use for matching events
+     */
+    public WorkflowTransitionEvent(EventFilter eventFilter)
+    {
+        super(eventFilter);
+    }
+
+    /**
+     * Constructor for the event to send.
+     * 
+     * @param documentReference the reference of the document on which the transition happened
+     * @param transition the transition that happened, one of the constants of this class
+     * @param reason the reason given for the transition, {@code null} if none was given
+     */
+    public WorkflowTransitionEvent(DocumentReference documentReference, String transition, String reason)
+    {
+        super(documentReference);
+        this.transition = transition;
+        this.reason = reason;
+    }
+
+    /**
+     * @return the transition that happened, one of the constants of this class
+     */
+    public String getTransition()
+    {
+        return this.transition;
+    }
+
+    /**
+     * @return the reason given for the transition, {@code null} if none was given
+     */
+    public String getReason()
+    {
+        return this.reason;
+    }
+}
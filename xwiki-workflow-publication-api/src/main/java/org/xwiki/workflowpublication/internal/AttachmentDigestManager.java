@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * Computes the digests of the contents of the attachments, to compare attachments without holding their contents in
+ * memory. The digests are cached per attachment version, so the content of a given version is only read once.
+ *
+ * @version $Id$
+ */
+@Role
+public interface AttachmentDigestManager
+{
+    /**
+     * @param attachment the attachment to get the content digest of. It needs to be the attachment of the document it
+     *            was read from, not of a duplicate of that document, since its reference is used in the cache key
+     * @param xcontext the context of the current request
+     * @return the digest of the content of the attachment, as an hexadecimal string
+     * @throws XWikiException in case the content of the attachment cannot be read
+     */
+    String getDigest(XWikiAttachment attachment, XWikiContext xcontext) throws XWikiException;
+
+    /**
+     * Checks if the two passed attachments have the same content, by comparing their size first and then their
+     * digests.
+     *
+     * @param attachment1 the first attachment to compare
+     * @param attachment2 the second attachment to compare
+     * @param xcontext the context of the current request
+     * @return {@code true} if the two attachments have the same content, {@code false} otherwise
+     * @throws XWikiException in case the content of any of the attachments cannot be read
+     */
+    boolean isSameContent(XWikiAttachment attachment1, XWikiAttachment attachment2, XWikiContext xcontext)
+        throws XWikiException;
+}
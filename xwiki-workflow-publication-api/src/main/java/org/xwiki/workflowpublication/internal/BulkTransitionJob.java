@@ -0,0 +1,221 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.InstantiationStrategy;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.job.internal.AbstractJob;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.workflowpublication.BulkTransitionRequest;
+import org.xwiki.workflowpublication.PublicationRoles;
+import org.xwiki.workflowpublication.PublicationWorkflow;
+import org.xwiki.workflowpublication.WorkflowTransitionEvent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
+/**
+ * Runs a workflow transition on many documents, in parallel on a bounded pool of threads, reporting the progress and
+ * the result of each document in its {@link BulkTransitionJobStatus}. The number of threads is configured in
+ * xwiki.properties with {@value #CONFIG_THREADS}, and defaults to 4.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(BulkTransitionJob.JOBTYPE)
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+public class BulkTransitionJob extends AbstractJob<BulkTransitionRequest, BulkTransitionJobStatus>
+{
+    /**
+     * The type of this job.
+     */
+    public static final String JOBTYPE = "workflowpublication.bulktransition";
+
+    /**
+     * The property configuring the number of threads running the transitions of a job.
+     */
+    public static final String CONFIG_THREADS = "workflowpublication.bulk.threads";
+
+    /**
+     * The key of the xwiki context in the execution context.
+     */
+    private static final String XWIKICONTEXT_KEY = "xwikicontext";
+
+    @Inject
+    protected PublicationWorkflow publicationWorkflow;
+
+    @Inject
+    protected PublicationRoles publicationRoles;
+
+    @Inject
+    @Named("xwikiproperties")
+    protected ConfigurationSource configuration;
+
+    @Override
+    public String getType()
+    {
+        return JOBTYPE;
+    }
+
+    @Override
+    protected BulkTransitionJobStatus createNewStatus(BulkTransitionRequest request)
+    {
+        return new BulkTransitionJobStatus(request, this.observationManager, this.loggerManager);
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        List<DocumentReference> documents = this.request.getDocuments();
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        int threads = Math.min(documents.size(), this.configuration.getProperty(CONFIG_THREADS, 4));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread =
+                    new Thread(runnable, "Publication workflow " + request.getTransition() + " "
+                        + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        notifyPushLevelProgress(documents.size());
+        try {
+            CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(executor);
+            for (final DocumentReference document : documents) {
+                completion.submit(new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call()
+                    {
+                        return runTransition(document);
+                    }
+                });
+            }
+            for (int i = 0; i < documents.size(); i++) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException e) {
+                    // the transitions catch their errors, this should not happen
+                    this.logger.error("Unexpected failure of a workflow transition", e);
+                }
+                notifyStepPropress();
+            }
+        } finally {
+            executor.shutdownNow();
+            notifyPopLevelProgress();
+        }
+    }
+
+    /**
+     * Runs the transition of this job on the passed document, in a new execution context, on behalf of the user of
+     * the request, and stores the result in the status.
+     *
+     * @param document the document to run the transition on
+     * @return whether the transition succeeded
+     */
+    protected boolean runTransition(final DocumentReference document)
+    {
+        final boolean[] success = new boolean[1];
+        new AbstractXWikiRunnable()
+        {
+            @Override
+            protected void runInternal()
+            {
+                XWikiContext xcontext =
+                    (XWikiContext) BulkTransitionJob.this.execution.getContext().getProperty(XWIKICONTEXT_KEY);
+                xcontext.setUserReference(BulkTransitionJob.this.request.getUserReference());
+                xcontext.setDatabase(document.getWikiReference().getName());
+                try {
+                    success[0] = runTransition(document, xcontext);
+                } catch (Exception e) {
+                    BulkTransitionJob.this.logger.error("Failed to run the transition [{}] on document [{}]",
+                        BulkTransitionJob.this.request.getTransition(), document, e);
+                }
+            }
+        }.run();
+
+        getStatus().setResult(document, success[0]);
+        if (!success[0]) {
+            this.logger.warn("Could not run the transition [{}] on document [{}]", this.request.getTransition(),
+                document);
+        }
+        return success[0];
+    }
+
+    /**
+     * Runs the transition of this job on the passed document, checking the role of the user first if the request asks
+     * for it.
+     *
+     * @param document the document to run the transition on
+     * @param xcontext the context of the transition
+     * @return whether the transition succeeded
+     * @throws Exception in case the transition fails
+     */
+    protected boolean runTransition(DocumentReference document, XWikiContext xcontext) throws Exception
+    {
+        String transition = this.request.getTransition();
+        DocumentReference user = this.request.getUserReference();
+        boolean checkRights = this.request.isCheckRights();
+        // the document is loaded once, for the role check and for the transition
+        XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+
+        if (WorkflowTransitionEvent.PUBLISH.equals(transition)) {
+            return (!checkRights || publicationRoles.canValidate(user, documentObject, xcontext))
+                && publicationWorkflow.publish(documentObject) != null;
+        } else if (WorkflowTransitionEvent.VALIDATE.equals(transition)) {
+            return (!checkRights || publicationRoles.canValidate(user, documentObject, xcontext))
+                && publicationWorkflow.validate(documentObject);
+        } else if (WorkflowTransitionEvent.SUBMIT_FOR_VALIDATION.equals(transition)) {
+            return (!checkRights || publicationRoles.canModerate(user, documentObject, xcontext))
+                && publicationWorkflow.submitForValidation(documentObject);
+        } else if (WorkflowTransitionEvent.SUBMIT_FOR_MODERATION.equals(transition)) {
+            return (!checkRights || publicationRoles.canContribute(user, documentObject, xcontext))
+                && publicationWorkflow.submitForModeration(documentObject);
+        }
+
+        this.logger.error("The transition [{}] cannot be run in bulk", transition);
+        return false;
+    }
+}
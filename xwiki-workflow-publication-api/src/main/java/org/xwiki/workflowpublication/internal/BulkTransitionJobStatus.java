@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xwiki.job.internal.DefaultJobStatus;
+import org.xwiki.logging.LoggerManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.workflowpublication.BulkTransitionRequest;
+
+/**
+ * Status of a {@link BulkTransitionJob}, holding the result of the transition for each document as soon as it is
+ * known. It is exposed through {@link org.xwiki.workflowpublication.BulkTransitionStatus}, which only depends on the
+ * public job API.
+ *
+ * @version $Id$
+ */
+public class BulkTransitionJobStatus extends DefaultJobStatus<BulkTransitionRequest>
+{
+    /**
+     * Whether the transition succeeded, by document.
+     */
+    private final Map<DocumentReference, Boolean> results = new ConcurrentHashMap<DocumentReference, Boolean>();
+
+    /**
+     * @param request the request of the job
+     * @param observationManager the observation manager, to notify the progress of the job
+     * @param loggerManager the logger manager, to capture the log of the job
+     */
+    public BulkTransitionJobStatus(BulkTransitionRequest request, ObservationManager observationManager,
+        LoggerManager loggerManager)
+    {
+        super(request, observationManager, loggerManager, false);
+    }
+
+    /**
+     * @return whether the transition succeeded, by document, for the documents already processed
+     */
+    public Map<DocumentReference, Boolean> getResults()
+    {
+        return Collections.unmodifiableMap(this.results);
+    }
+
+    /**
+     * @param document a document processed by the job
+     * @param success whether the transition succeeded on the document
+     */
+    public void setResult(DocumentReference document, boolean success)
+    {
+        this.results.put(document, success);
+    }
+}
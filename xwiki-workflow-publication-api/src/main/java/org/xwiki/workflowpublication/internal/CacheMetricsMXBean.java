@@ -0,0 +1,48 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+/**
+ * The metrics of a cache used by the workflow, as exposed through JMX.
+ * 
+ * @version $Id$
+ */
+public interface CacheMetricsMXBean
+{
+    /**
+     * @return the identifier of the cache
+     */
+    String getName();
+
+    /**
+     * @return the number of lookups which found the value in the cache
+     */
+    long getHits();
+
+    /**
+     * @return the number of lookups which didn't find the value in the cache
+     */
+    long getMisses();
+
+    /**
+     * @return the ratio of lookups which found the value in the cache, between 0 and 1
+     */
+    double getHitRatio();
+}
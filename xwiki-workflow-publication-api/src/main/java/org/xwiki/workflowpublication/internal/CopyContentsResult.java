@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+/**
+ * The result of copying the contents of a document to another, as done by
+ * {@link DefaultPublicationWorkflow#copyContentsToNewVersion(com.xpn.xwiki.doc.XWikiDocument,
+ * com.xpn.xwiki.doc.XWikiDocument, boolean, com.xpn.xwiki.XWikiContext)}: how many attachments and bytes were written
+ * to the destination document and how many were skipped because they were already identical in the destination.
+ *
+ * @version $Id$
+ */
+public class CopyContentsResult
+{
+    /**
+     * The number of attachments written to the destination document.
+     */
+    private int attachmentsWritten;
+
+    /**
+     * The number of attachments skipped because they were identical.
+     */
+    private int attachmentsSkipped;
+
+    /**
+     * The number of attachment bytes written to the destination document.
+     */
+    private long bytesWritten;
+
+    /**
+     * The number of attachment bytes skipped because they were identical.
+     */
+    private long bytesSkipped;
+
+    /**
+     * Records an attachment written to the destination document.
+     *
+     * @param size the size of the attachment
+     */
+    public void addWritten(long size)
+    {
+        this.attachmentsWritten++;
+        this.bytesWritten += size;
+    }
+
+    /**
+     * Records an attachment skipped because it was identical in the destination document.
+     *
+     * @param size the size of the attachment
+     */
+    public void addSkipped(long size)
+    {
+        this.attachmentsSkipped++;
+        this.bytesSkipped += size;
+    }
+
+    /**
+     * @return the number of attachments written to the destination document
+     */
+    public int getAttachmentsWritten()
+    {
+        return this.attachmentsWritten;
+    }
+
+    /**
+     * @return the number of attachments skipped because they were identical
+     */
+    public int getAttachmentsSkipped()
+    {
+        return this.attachmentsSkipped;
+    }
+
+    /**
+     * @return the number of attachment bytes written to the destination document
+     */
+    public long getBytesWritten()
+    {
+        return this.bytesWritten;
+    }
+
+    /**
+     * @return the number of attachment bytes skipped because they were identical
+     */
+    public long getBytesSkipped()
+    {
+        return this.bytesSkipped;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "written " + this.attachmentsWritten + " attachments (" + this.bytesWritten + " bytes), skipped "
+            + this.attachmentsSkipped + " identical attachments (" + this.bytesSkipped + " bytes)";
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.IOUtils;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * Default {@link AttachmentDigestManager}, computing SHA-256 digests by streaming the content of the attachments in
+ * fixed size buffers and keeping them in an LRU cache.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultAttachmentDigestManager implements AttachmentDigestManager, Initializable, Disposable
+{
+    /**
+     * The identifier of the cache.
+     */
+    public static final String CACHE_ID = "workflowpublication.attachmentdigests";
+
+    /**
+     * The maximum number of digests kept in the cache.
+     */
+    public static final int CACHE_SIZE = 10000;
+
+    /**
+     * The digest algorithm.
+     */
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * The size of the buffer used to read the content of the attachments.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The hexadecimal digits, to serialize the digests.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Separator of the parts of the cache keys.
+     */
+    private static final char KEY_SEPARATOR = '@';
+
+    @Inject
+    protected CacheManager cacheManager;
+
+    /**
+     * Reference string serializer.
+     */
+    @Inject
+    protected EntityReferenceSerializer<String> stringSerializer;
+
+    /**
+     * The digests, by attachment version.
+     */
+    private Cache<String> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setConfigurationId(CACHE_ID);
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(CACHE_SIZE);
+        configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+        try {
+            this.cache = this.cacheManager.createNewCache(configuration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the attachment digests cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    @Override
+    public String getDigest(XWikiAttachment attachment, XWikiContext xcontext) throws XWikiException
+    {
+        // an attachment which is not saved yet (or which content was changed in memory) has no stable version, so its
+        // digest cannot be cached
+        boolean cacheable = attachment.getDoc() != null && !attachment.isContentDirty();
+        String key = cacheable ? getKey(attachment) : null;
+        if (cacheable) {
+            String digest = this.cache.get(key);
+            if (digest != null) {
+                return digest;
+            }
+        }
+
+        String digest = computeDigest(attachment, xcontext);
+        if (cacheable) {
+            this.cache.set(key, digest);
+        }
+
+        return digest;
+    }
+
+    @Override
+    public boolean isSameContent(XWikiAttachment attachment1, XWikiAttachment attachment2, XWikiContext xcontext)
+        throws XWikiException
+    {
+        // different sizes means different contents, no need to read anything
+        if (attachment1.getFilesize() != attachment2.getFilesize()) {
+            return false;
+        }
+
+        return getDigest(attachment1, xcontext).equals(getDigest(attachment2, xcontext));
+    }
+
+    /**
+     * @param attachment the attachment to get the key for
+     * @return the key of the current version of the attachment in the cache
+     */
+    private String getKey(XWikiAttachment attachment)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(stringSerializer.serialize(attachment.getDoc().getDocumentReference()));
+        key.append(KEY_SEPARATOR).append(attachment.getFilename());
+        key.append(KEY_SEPARATOR).append(attachment.getVersion());
+        key.append(KEY_SEPARATOR).append(attachment.getDate() != null ? attachment.getDate().getTime() : 0);
+        key.append(KEY_SEPARATOR).append(attachment.getFilesize());
+
+        return key.toString();
+    }
+
+    /**
+     * Reads the content of the passed attachment as a stream to compute its digest. If the content was not loaded
+     * before, it is unloaded after, so that the attachment doesn't keep it in memory.
+     *
+     * @param attachment the attachment to compute the digest of
+     * @param xcontext the context of the current request
+     * @return the digest of the content of the attachment, as an hexadecimal string
+     * @throws XWikiException in case the content of the attachment cannot be read
+     */
+    private String computeDigest(XWikiAttachment attachment, XWikiContext xcontext) throws XWikiException
+    {
+        boolean wasLoaded = attachment.getAttachment_content() != null;
+        InputStream content = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            content = attachment.getContentInputStream(xcontext);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen, SHA-256 is available in all JVMs
+            throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Cannot compute the digest of attachment " + attachment.getFilename(), e);
+        } catch (IOException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_ATTACHMENT,
+                "Cannot read the content of attachment " + attachment.getFilename(), e);
+        } finally {
+            IOUtils.closeQuietly(content);
+            if (!wasLoaded) {
+                attachment.setAttachment_content(null);
+            }
+        }
+    }
+
+    /**
+     * Serializes the digests, also used by {@link DefaultDocumentFingerprinter}.
+     *
+     * @param bytes the bytes to serialize
+     * @return the hexadecimal representation of the passed bytes
+     */
+    static String toHex(byte[] bytes)
+    {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+
+        return new String(hex);
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+
+/**
+ * Default {@link DocumentComparator}, walking the two documents side by side and comparing property values directly,
+ * without cleaning up copies of the documents and without computing diffs. The changes are copied the same way, part by
+ * part, replacing the whole content or object when it differs.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultDocumentComparator implements DocumentComparator
+{
+    @Inject
+    protected AttachmentDigestManager attachmentDigests;
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<EntityReference> explicitReferenceDocRefResolver;
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<String> explicitStringDocRefResolver;
+
+    /**
+     * Local reference string serializer, to find the objects of the same class when the documents are in different
+     * wikis.
+     */
+    @Inject
+    @Named("local")
+    protected EntityReferenceSerializer<String> localStringSerializer;
+
+    @Override
+    public boolean isModified(XWikiDocument fromDoc, XWikiDocument toDoc, XWikiContext xcontext)
+        throws XWikiException
+    {
+        // the hidden flag is not compared: the draft is hidden and the published document is not.
+        // cheapest checks first: content, metadata, then objects and only then attachments, which might need to read
+        // the attachments content
+        return !StringUtils.equals(fromDoc.getContent(), toDoc.getContent()) || hasDifferentMetaData(fromDoc, toDoc)
+            || hasDifferentObjects(fromDoc, toDoc) || hasDifferentObjects(toDoc, fromDoc)
+            || hasDifferentAttachments(fromDoc, toDoc, xcontext);
+    }
+
+    @Override
+    public CopyContentsResult copyChanges(XWikiDocument fromDoc, XWikiDocument toDoc, XWikiContext xcontext)
+        throws XWikiException, IOException
+    {
+        if (!StringUtils.equals(fromDoc.getContent(), toDoc.getContent())) {
+            toDoc.setContent(fromDoc.getContent());
+        }
+        if (!StringUtils.equals(fromDoc.getTitle(), toDoc.getTitle())) {
+            toDoc.setTitle(fromDoc.getTitle());
+        }
+        if (!StringUtils.equals(fromDoc.getParent(), toDoc.getParent())) {
+            toDoc.setParentReference(fromDoc.getRelativeParentReference());
+        }
+        if (!StringUtils.equals(fromDoc.getSyntaxId(), toDoc.getSyntaxId())) {
+            toDoc.setSyntax(fromDoc.getSyntax());
+        }
+        // remove first, the copy can add classes to the objects of the document
+        removeObjects(fromDoc, toDoc);
+        copyObjects(fromDoc, toDoc);
+
+        return copyAttachments(fromDoc, toDoc, xcontext);
+    }
+
+    /**
+     * @param fromDoc the document to compare
+     * @param toDoc the document to compare to
+     * @return {@code true} if the documents have different metadata, besides the author and the hidden flag which are
+     *         different between a draft and its published document
+     */
+    private boolean hasDifferentMetaData(XWikiDocument fromDoc, XWikiDocument toDoc)
+    {
+        return !StringUtils.equals(fromDoc.getTitle(), toDoc.getTitle())
+            || !StringUtils.equals(fromDoc.getParent(), toDoc.getParent())
+            || !StringUtils.equals(fromDoc.getSyntaxId(), toDoc.getSyntaxId())
+            || !ObjectUtils.equals(fromDoc.getDefaultLocale(), toDoc.getDefaultLocale())
+            || !ObjectUtils.equals(fromDoc.getLocale(), toDoc.getLocale());
+    }
+
+    /**
+     * Checks the objects of the first document against the ones of the second document. Since it only walks the
+     * classes of the first document, it needs to be called both ways to find all the differences.
+     *
+     * @param fromDoc the document to walk the objects of
+     * @param toDoc the document to look up the objects in
+     * @return {@code true} if an object of the first document, which is not of an irrelevant class, doesn't exist or
+     *         has different property values in the second document
+     */
+    private boolean hasDifferentObjects(XWikiDocument fromDoc, XWikiDocument toDoc)
+    {
+        for (Map.Entry<DocumentReference, List<BaseObject>> entry : fromDoc.getXObjects().entrySet()) {
+            if (isIrrelevantClass(entry.getKey())) {
+                continue;
+            }
+            List<BaseObject> fromObjects = entry.getValue();
+            List<BaseObject> toObjects = toDoc.getXObjects(getClassReference(entry.getKey(), toDoc));
+            int toObjectsCount = toObjects != null ? toObjects.size() : 0;
+            for (int i = 0; i < fromObjects.size(); i++) {
+                BaseObject fromObject = fromObjects.get(i);
+                // removed objects leave null holes in the list
+                if (fromObject == null) {
+                    continue;
+                }
+                BaseObject toObject = i < toObjectsCount ? toObjects.get(i) : null;
+                if (toObject == null || hasDifferentProperties(fromObject, toObject)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Copies the objects of the first document which don't exist or have different property values in the second
+     * document, with the same class and number.
+     *
+     * @param fromDoc the document to copy the objects from
+     * @param toDoc the document to copy the objects to
+     */
+    private void copyObjects(XWikiDocument fromDoc, XWikiDocument toDoc)
+    {
+        for (Map.Entry<DocumentReference, List<BaseObject>> entry : fromDoc.getXObjects().entrySet()) {
+            if (isIrrelevantClass(entry.getKey())) {
+                continue;
+            }
+            List<BaseObject> toObjects = toDoc.getXObjects(getClassReference(entry.getKey(), toDoc));
+            int toObjectsCount = toObjects != null ? toObjects.size() : 0;
+            List<BaseObject> fromObjects = entry.getValue();
+            for (int i = 0; i < fromObjects.size(); i++) {
+                BaseObject fromObject = fromObjects.get(i);
+                if (fromObject == null) {
+                    continue;
+                }
+                BaseObject toObject = i < toObjectsCount ? toObjects.get(i) : null;
+                if (toObject == null || hasDifferentProperties(fromObject, toObject)) {
+                    BaseObject copy = fromObject.duplicate(toDoc.getDocumentReference());
+                    // the duplicate keeps the class reference in the wiki of the draft, resolve it in the wiki of the
+                    // published document like the removal does
+                    copy.setXClassReference(getClassReference(entry.getKey(), toDoc));
+                    toDoc.setXObject(i, copy);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the objects of the second document which don't exist in the first document.
+     *
+     * @param fromDoc the document to look up the objects in
+     * @param toDoc the document to remove the objects from
+     */
+    private void removeObjects(XWikiDocument fromDoc, XWikiDocument toDoc)
+    {
+        for (Map.Entry<DocumentReference, List<BaseObject>> entry : toDoc.getXObjects().entrySet()) {
+            if (isIrrelevantClass(entry.getKey())) {
+                continue;
+            }
+            List<BaseObject> fromObjects = fromDoc.getXObjects(getClassReference(entry.getKey(), fromDoc));
+            int fromObjectsCount = fromObjects != null ? fromObjects.size() : 0;
+            // removing an object leaves a null hole in the list, but better not walk the list being changed
+            for (BaseObject toObject : new ArrayList<BaseObject>(entry.getValue())) {
+                if (toObject != null
+                    && (toObject.getNumber() >= fromObjectsCount || fromObjects.get(toObject.getNumber()) == null)) {
+                    toDoc.removeXObject(toObject);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the attachments of the first document which don't exist or have a different content in the second
+     * document, and removes the attachments of the second document which don't exist in the first one.
+     *
+     * @param fromDoc the document to copy the attachments from
+     * @param toDoc the document to copy the attachments to
+     * @param xcontext the context of the current request
+     * @return the number of attachment bytes written and skipped
+     * @throws XWikiException in case the content of the attachments cannot be read
+     * @throws IOException in case the content of the attachments cannot be written
+     */
+    private CopyContentsResult copyAttachments(XWikiDocument fromDoc, XWikiDocument toDoc, XWikiContext xcontext)
+        throws XWikiException, IOException
+    {
+        for (XWikiAttachment toAttachment : new ArrayList<XWikiAttachment>(toDoc.getAttachmentList())) {
+            if (fromDoc.getAttachment(toAttachment.getFilename()) == null) {
+                toDoc.removeAttachment(toAttachment);
+            }
+        }
+
+        CopyContentsResult copyResult = new CopyContentsResult();
+        for (XWikiAttachment fromAttachment : fromDoc.getAttachmentList()) {
+            XWikiAttachment toAttachment = toDoc.getAttachment(fromAttachment.getFilename());
+            if (toAttachment != null && attachmentDigests.isSameContent(fromAttachment, toAttachment, xcontext)) {
+                copyResult.addSkipped(fromAttachment.getFilesize());
+                continue;
+            }
+            if (toAttachment == null) {
+                toAttachment = new XWikiAttachment(toDoc, fromAttachment.getFilename());
+                toDoc.addAttachment(toAttachment);
+            }
+            // only the content of the attachments which changed is loaded
+            InputStream content = fromAttachment.getContentInputStream(xcontext);
+            try {
+                toAttachment.setContent(content);
+            } finally {
+                IOUtils.closeQuietly(content);
+            }
+            toAttachment.setAuthor(fromAttachment.getAuthor());
+            copyResult.addWritten(fromAttachment.getFilesize());
+        }
+
+        return copyResult;
+    }
+
+    /**
+     * @param classRef the reference to a class, in the wiki of a document
+     * @param document a document, possibly in another wiki
+     * @return the reference to the same class in the wiki of the passed document
+     */
+    private DocumentReference getClassReference(DocumentReference classRef, XWikiDocument document)
+    {
+        return explicitStringDocRefResolver.resolve(localStringSerializer.serialize(classRef),
+            document.getDocumentReference());
+    }
+
+    /**
+     * @param fromObject the object to compare
+     * @param toObject the object to compare to
+     * @return {@code true} if the objects don't have the same properties or the same property values
+     */
+    private boolean hasDifferentProperties(BaseObject fromObject, BaseObject toObject)
+    {
+        if (fromObject.getPropertyList().size() != toObject.getPropertyList().size()) {
+            return true;
+        }
+        for (String propertyName : fromObject.getPropertyList()) {
+            BaseProperty fromProperty = (BaseProperty) fromObject.safeget(propertyName);
+            BaseProperty toProperty = (BaseProperty) toObject.safeget(propertyName);
+            if (toProperty == null || !isSameValue(fromProperty.getValue(), toProperty.getValue())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Dates are compared on their instant: the values loaded from the database are {@link java.sql.Timestamp}s, which
+     * are never equal to a {@link Date}, even for the same instant.
+     *
+     * @param fromValue the value to compare
+     * @param toValue the value to compare to
+     * @return {@code true} if the values are equal
+     */
+    private boolean isSameValue(Object fromValue, Object toValue)
+    {
+        if (fromValue instanceof Date && toValue instanceof Date) {
+            return ((Date) fromValue).getTime() == ((Date) toValue).getTime();
+        }
+        return ObjectUtils.equals(fromValue, toValue);
+    }
+
+    /**
+     * @param classRef the reference to a class
+     * @return {@code true} if the objects of the passed class are not relevant for the comparison
+     */
+    private boolean isIrrelevantClass(DocumentReference classRef)
+    {
+        for (EntityReference irrelevantClass : DefaultPublicationWorkflow.IRRELEVANT_CLASSES) {
+            if (classRef.equals(explicitReferenceDocRefResolver.resolve(irrelevantClass, classRef))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param fromDoc the document to compare
+     * @param toDoc the document to compare to
+     * @param xcontext the context of the current request
+     * @return {@code true} if an attachment exists only in one of the documents or has a different content
+     * @throws XWikiException in case the content of the attachments cannot be read
+     */
+    private boolean hasDifferentAttachments(XWikiDocument fromDoc, XWikiDocument toDoc, XWikiContext xcontext)
+        throws XWikiException
+    {
+        if (toDoc.getAttachmentList().size() != fromDoc.getAttachmentList().size()) {
+            return true;
+        }
+        // for all common attachments, compare their size and the digest of their content, which is read as a stream
+        // and cached per attachment version
+        for (XWikiAttachment toAttachment : toDoc.getAttachmentList()) {
+            XWikiAttachment fromAttachment = fromDoc.getAttachment(toAttachment.getFilename());
+            if (fromAttachment == null || !attachmentDigests.isSameContent(toAttachment, fromAttachment, xcontext)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+
+/**
+ * Default {@link DocumentFingerprinter}, computing a SHA-256 digest of the content and metadata, of the objects and of
+ * the attachments of the document, each written in a stable order. The attachments contribute with their digests,
+ * which are cached by the {@link AttachmentDigestManager}, so their content is read only once per version.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultDocumentFingerprinter implements DocumentFingerprinter
+{
+    /**
+     * The charset used to turn the parts of the document into bytes.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Separates the parts of the document in the digest, so that moving a string from a part to the next one changes
+     * the fingerprint.
+     */
+    private static final byte SEPARATOR = 0;
+
+    /**
+     * Separates the fingerprints of the content, the objects and the attachments in the stored fingerprint, so that
+     * a new version can reuse the fingerprints of the parts which didn't change.
+     */
+    private static final char PART_SEPARATOR = ':';
+
+    /**
+     * The number of parts in a fingerprint.
+     */
+    private static final int PARTS = 3;
+
+    @Inject
+    protected AttachmentDigestManager attachmentDigests;
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<EntityReference> explicitReferenceDocRefResolver;
+
+    /**
+     * Local reference string serializer, since the draft and the published document can be in different wikis.
+     */
+    @Inject
+    @Named("local")
+    protected EntityReferenceSerializer<String> localStringSerializer;
+
+    @Override
+    public String getFingerprint(XWikiDocument document, XWikiContext xcontext) throws XWikiException
+    {
+        return getMetadataFingerprint(document) + PART_SEPARATOR + getObjectsFingerprint(document) + PART_SEPARATOR
+            + getAttachmentsFingerprint(document, xcontext);
+    }
+
+    @Override
+    public String updateFingerprint(XWikiDocument document, XWikiDocument previousDocument,
+        String previousFingerprint, XWikiContext xcontext) throws XWikiException
+    {
+        String[] previousParts = StringUtils.split(previousFingerprint, PART_SEPARATOR);
+        if (previousDocument == null || previousParts == null || previousParts.length != PARTS) {
+            // no previous version or a fingerprint from before it was split in parts
+            return getFingerprint(document, xcontext);
+        }
+
+        String metadata =
+            isSameMetadata(document, previousDocument) ? previousParts[0] : getMetadataFingerprint(document);
+        String objects =
+            isSameObjects(document, previousDocument) ? previousParts[1] : getObjectsFingerprint(document);
+        String attachments =
+            isSameAttachments(document, previousDocument) ? previousParts[2] : getAttachmentsFingerprint(document,
+                xcontext);
+        return metadata + PART_SEPARATOR + objects + PART_SEPARATOR + attachments;
+    }
+
+    @Override
+    public boolean isUnchanged(XWikiDocument document, XWikiDocument previousDocument)
+    {
+        return isSameMetadata(document, previousDocument) && isSameObjects(document, previousDocument)
+            && isSameAttachments(document, previousDocument);
+    }
+
+    /**
+     * @param document the document to get the fingerprint of
+     * @return the fingerprint of the content and metadata, besides author and hidden which are different between the
+     *         draft and the published document
+     * @throws XWikiException if the digest algorithm is not available
+     */
+    private String getMetadataFingerprint(XWikiDocument document) throws XWikiException
+    {
+        MessageDigest digest = getDigest(document);
+        update(digest, document.getContent());
+        update(digest, document.getTitle());
+        update(digest, document.getParent());
+        update(digest, document.getSyntaxId());
+        update(digest, String.valueOf(document.getDefaultLocale()));
+        return DefaultAttachmentDigestManager.toHex(digest.digest());
+    }
+
+    /**
+     * @param document the document to get the fingerprint of
+     * @return the fingerprint of the relevant objects, sorted by class and by number
+     * @throws XWikiException if the digest algorithm is not available
+     */
+    private String getObjectsFingerprint(XWikiDocument document) throws XWikiException
+    {
+        MessageDigest digest = getDigest(document);
+        Map<String, List<BaseObject>> objectsByClass = new TreeMap<String, List<BaseObject>>();
+        for (Map.Entry<DocumentReference, List<BaseObject>> entry : getRelevantObjects(document).entrySet()) {
+            objectsByClass.put(localStringSerializer.serialize(entry.getKey()), entry.getValue());
+        }
+        for (Map.Entry<String, List<BaseObject>> entry : objectsByClass.entrySet()) {
+            for (BaseObject object : entry.getValue()) {
+                // removed objects leave null holes in the list
+                if (object == null) {
+                    continue;
+                }
+                update(digest, entry.getKey());
+                update(digest, String.valueOf(object.getNumber()));
+                for (String propertyName : new TreeSet<String>(object.getPropertyList())) {
+                    BaseProperty property = (BaseProperty) object.safeget(propertyName);
+                    update(digest, propertyName);
+                    update(digest, toText(property));
+                }
+            }
+        }
+        return DefaultAttachmentDigestManager.toHex(digest.digest());
+    }
+
+    /**
+     * @param property an object property, or {@code null}
+     * @return the text of the property value, dates being written as their instant, so that a date and a timestamp
+     *         for the same instant have the same fingerprint
+     */
+    private String toText(BaseProperty property)
+    {
+        if (property == null) {
+            return null;
+        }
+        Object value = property.getValue();
+        return value instanceof Date ? String.valueOf(((Date) value).getTime()) : property.toText();
+    }
+
+    /**
+     * @param document the document to get the fingerprint of
+     * @param xcontext the context of the current request
+     * @return the fingerprint of the attachments, sorted by name
+     * @throws XWikiException in case the content of the attachments cannot be read
+     */
+    private String getAttachmentsFingerprint(XWikiDocument document, XWikiContext xcontext) throws XWikiException
+    {
+        MessageDigest digest = getDigest(document);
+        List<XWikiAttachment> attachments = new ArrayList<XWikiAttachment>(document.getAttachmentList());
+        Collections.sort(attachments, new Comparator<XWikiAttachment>()
+        {
+            @Override
+            public int compare(XWikiAttachment attachment1, XWikiAttachment attachment2)
+            {
+                return attachment1.getFilename().compareTo(attachment2.getFilename());
+            }
+        });
+        for (XWikiAttachment attachment : attachments) {
+            update(digest, attachment.getFilename());
+            update(digest, String.valueOf(attachment.getFilesize()));
+            update(digest, attachmentDigests.getDigest(attachment, xcontext));
+        }
+        return DefaultAttachmentDigestManager.toHex(digest.digest());
+    }
+
+    /**
+     * @param document the document to check
+     * @param previousDocument the previous version of the document
+     * @return {@code true} if the content and metadata fingerprinted are the same in both versions
+     */
+    private boolean isSameMetadata(XWikiDocument document, XWikiDocument previousDocument)
+    {
+        return StringUtils.equals(document.getContent(), previousDocument.getContent())
+            && StringUtils.equals(document.getTitle(), previousDocument.getTitle())
+            && StringUtils.equals(document.getParent(), previousDocument.getParent())
+            && StringUtils.equals(document.getSyntaxId(), previousDocument.getSyntaxId())
+            && ObjectUtils.equals(document.getDefaultLocale(), previousDocument.getDefaultLocale());
+    }
+
+    /**
+     * The objects are compared with {@link BaseObject#equals(Object)}, which compares the values of the properties, so
+     * that changes made in memory without setting any dirty flag are seen.
+     *
+     * @param document the document to check
+     * @param previousDocument the previous version of the document
+     * @return {@code true} if the relevant objects are the same in both versions
+     */
+    private boolean isSameObjects(XWikiDocument document, XWikiDocument previousDocument)
+    {
+        return getRelevantObjects(document).equals(getRelevantObjects(previousDocument));
+    }
+
+    /**
+     * The attachments are compared on their metadata, an attachment which content was replaced is either dirty or has
+     * a different version.
+     *
+     * @param document the document to check
+     * @param previousDocument the previous version of the document
+     * @return {@code true} if the attachments are the same in both versions
+     */
+    private boolean isSameAttachments(XWikiDocument document, XWikiDocument previousDocument)
+    {
+        List<XWikiAttachment> attachments = document.getAttachmentList();
+        if (attachments.size() != previousDocument.getAttachmentList().size()) {
+            return false;
+        }
+        for (XWikiAttachment attachment : attachments) {
+            XWikiAttachment previousAttachment = previousDocument.getAttachment(attachment.getFilename());
+            if (previousAttachment == null || attachment.isContentDirty()
+                || attachment.getFilesize() != previousAttachment.getFilesize()
+                || !StringUtils.equals(attachment.getVersion(), previousAttachment.getVersion())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param document a document
+     * @return the objects of the document, besides the ones of the classes which don't matter for the workflow
+     */
+    private Map<DocumentReference, List<BaseObject>> getRelevantObjects(XWikiDocument document)
+    {
+        List<DocumentReference> irrelevantClasses = new ArrayList<DocumentReference>();
+        for (EntityReference irrelevantClass : DefaultPublicationWorkflow.IRRELEVANT_CLASSES) {
+            irrelevantClasses.add(explicitReferenceDocRefResolver.resolve(irrelevantClass,
+                document.getDocumentReference()));
+        }
+        Map<DocumentReference, List<BaseObject>> objects = new HashMap<DocumentReference, List<BaseObject>>();
+        for (Map.Entry<DocumentReference, List<BaseObject>> entry : document.getXObjects().entrySet()) {
+            if (!irrelevantClasses.contains(entry.getKey())) {
+                objects.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * @param document the document to compute a fingerprint for, for the error message
+     * @return a new digest
+     * @throws XWikiException if the digest algorithm is not available
+     */
+    private MessageDigest getDigest(XWikiDocument document) throws XWikiException
+    {
+        try {
+            return MessageDigest.getInstance(DefaultAttachmentDigestManager.DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen, SHA-256 is available in all JVMs
+            throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Cannot compute the fingerprint of document " + document.getDocumentReference(), e);
+        }
+    }
+
+    /**
+     * @param digest the digest to update
+     * @param value the value to add to the digest, followed by the separator
+     */
+    private void update(MessageDigest digest, String value)
+    {
+        if (value != null) {
+            digest.update(value.getBytes(UTF8));
+        }
+        digest.update(SEPARATOR);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.workflowpublication.PublicationWorkflow;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Default {@link DraftDocumentIndex}, keeping for each wiki a map from target to draft and the reverse map from draft
+ * to target, so that both lookups and updates are constant time.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultDraftDocumentIndex implements DraftDocumentIndex
+{
+    /**
+     * The query to get all the drafts of a wiki together with their target, used to build the index of a wiki.
+     */
+    public static final String DRAFTS_QUERY =
+        "select obj.name, target.value from BaseObject obj, StringProperty target, IntegerProperty istarget where "
+            + "obj.className = ? and obj.id = target.id.id and target.id.name = ? and "
+            + "obj.id = istarget.id.id and istarget.id.name = ? and istarget.value = 0";
+
+    /**
+     * The indexes of the wikis that were already built, by wiki name.
+     */
+    private final ConcurrentMap<String, WikiIndex> indexes = new ConcurrentHashMap<String, WikiIndex>();
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<String> explicitStringDocRefResolver;
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<EntityReference> explicitReferenceDocRefResolver;
+
+    @Inject
+    @Named("compactwiki")
+    protected EntityReferenceSerializer<String> compactWikiSerializer;
+
+    @Override
+    public DocumentReference getDraftDocument(DocumentReference targetRef, String wiki, XWikiContext xcontext)
+        throws XWikiException
+    {
+        return getWikiIndex(wiki, xcontext).getDraft(targetRef);
+    }
+
+    @Override
+    public Map<DocumentReference, DocumentReference> getDraftDocuments(Collection<DocumentReference> targetRefs,
+        String wiki, XWikiContext xcontext) throws XWikiException
+    {
+        return getWikiIndex(wiki, xcontext).getDrafts(targetRefs);
+    }
+
+    @Override
+    public void update(XWikiDocument document)
+    {
+        DocumentReference documentRef = document.getDocumentReference();
+        WikiIndex index = this.indexes.get(documentRef.getWikiReference().getName());
+        if (index == null) {
+            // the index of this wiki was not built yet, it will read this document from the store when it is
+            return;
+        }
+
+        BaseObject workflow =
+            document.getXObject(explicitReferenceDocRefResolver.resolve(PublicationWorkflow.PUBLICATION_WORKFLOW_CLASS,
+                documentRef));
+        String target = workflow != null ? workflow.getStringValue(DefaultPublicationWorkflow.WF_TARGET_FIELDNAME) : null;
+        if (workflow == null || StringUtils.isEmpty(target)
+            || workflow.getIntValue(DefaultPublicationWorkflow.WF_IS_TARGET_FIELDNAME, 0) != 0) {
+            index.remove(documentRef);
+        } else {
+            index.put(explicitStringDocRefResolver.resolve(target, documentRef), documentRef);
+        }
+    }
+
+    @Override
+    public void remove(DocumentReference documentRef)
+    {
+        WikiIndex index = this.indexes.get(documentRef.getWikiReference().getName());
+        if (index != null) {
+            index.remove(documentRef);
+        }
+    }
+
+    @Override
+    public void invalidate(String wiki)
+    {
+        this.indexes.remove(wiki);
+    }
+
+    /**
+     * @param wiki the wiki to get the index for
+     * @param xcontext the context of the current request
+     * @return the index of the passed wiki, built from the store if it does not exist yet
+     * @throws XWikiException in case the query to build the index fails
+     */
+    private WikiIndex getWikiIndex(String wiki, XWikiContext xcontext) throws XWikiException
+    {
+        WikiIndex index = this.indexes.get(wiki);
+        if (index == null) {
+            WikiIndex newIndex = new WikiIndex();
+            index = this.indexes.putIfAbsent(wiki, newIndex);
+            if (index == null) {
+                index = newIndex;
+            }
+        }
+        // make sure the index is loaded, only one thread will actually load it, the others wait for it to be ready
+        index.load(wiki, xcontext);
+
+        return index;
+    }
+
+    /**
+     * The index of a wiki. All accesses are synchronized on the index itself so that updates which happen while the
+     * index is being loaded are not lost: they wait for the load to finish and are applied on top of it.
+     */
+    private class WikiIndex
+    {
+        /**
+         * Drafts by target.
+         */
+        private final Map<DocumentReference, DocumentReference> draftsByTarget =
+            new HashMap<DocumentReference, DocumentReference>();
+
+        /**
+         * Targets by draft, which is the actual content of the index, the other map is derived from this one.
+         */
+        private final Map<DocumentReference, DocumentReference> targetsByDraft =
+            new HashMap<DocumentReference, DocumentReference>();
+
+        /**
+         * Whether the index was loaded from the store.
+         */
+        private boolean loaded;
+
+        public synchronized void load(String wiki, XWikiContext xcontext) throws XWikiException
+        {
+            if (this.loaded) {
+                return;
+            }
+
+            // the class needs to be serialized compact anyway, and it's a wikiless entity reference, so we don't need
+            // to worry about on which wiki it gets serialized
+            List<String> params =
+                Arrays.asList(compactWikiSerializer.serialize(PublicationWorkflow.PUBLICATION_WORKFLOW_CLASS),
+                    DefaultPublicationWorkflow.WF_TARGET_FIELDNAME, DefaultPublicationWorkflow.WF_IS_TARGET_FIELDNAME);
+            List<Object[]> results = null;
+            // query on the passed database
+            String originalDatabase = xcontext.getDatabase();
+            try {
+                xcontext.setDatabase(wiki);
+                results = xcontext.getWiki().getStore().search(DRAFTS_QUERY, 0, 0, params, xcontext);
+            } finally {
+                xcontext.setDatabase(originalDatabase);
+            }
+
+            WikiReference wikiRef = new WikiReference(wiki);
+            for (Object[] result : results) {
+                String target = (String) result[1];
+                if (StringUtils.isEmpty(target)) {
+                    continue;
+                }
+                DocumentReference draftRef = explicitStringDocRefResolver.resolve((String) result[0], wikiRef);
+                put(explicitStringDocRefResolver.resolve(target, draftRef), draftRef);
+            }
+
+            this.loaded = true;
+        }
+
+        public synchronized DocumentReference getDraft(DocumentReference targetRef)
+        {
+            return this.draftsByTarget.get(targetRef);
+        }
+
+        public synchronized Map<DocumentReference, DocumentReference> getDrafts(
+            Collection<DocumentReference> targetRefs)
+        {
+            Map<DocumentReference, DocumentReference> drafts = new HashMap<DocumentReference, DocumentReference>();
+            for (DocumentReference targetRef : targetRefs) {
+                DocumentReference draftRef = this.draftsByTarget.get(targetRef);
+                if (draftRef != null) {
+                    drafts.put(targetRef, draftRef);
+                }
+            }
+
+            return drafts;
+        }
+
+        public synchronized void put(DocumentReference targetRef, DocumentReference draftRef)
+        {
+            // the document might have been a draft for another target before
+            remove(draftRef);
+            this.targetsByDraft.put(draftRef, targetRef);
+            // if there are more drafts for the same target, keep the first one found
+            if (!this.draftsByTarget.containsKey(targetRef)) {
+                this.draftsByTarget.put(targetRef, draftRef);
+            }
+        }
+
+        public synchronized void remove(DocumentReference draftRef)
+        {
+            DocumentReference targetRef = this.targetsByDraft.remove(draftRef);
+            if (targetRef == null || !draftRef.equals(this.draftsByTarget.get(targetRef))) {
+                return;
+            }
+            this.draftsByTarget.remove(targetRef);
+            // if another draft points to the same target, it becomes the draft of that target. This only happens when
+            // the wiki is in an inconsistent state, so it's fine to look for it the slow way.
+            for (Map.Entry<DocumentReference, DocumentReference> entry : this.targetsByDraft.entrySet()) {
+                if (targetRef.equals(entry.getValue())) {
+                    this.draftsByTarget.put(targetRef, entry.getKey());
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+/**
+ * Default {@link GroupMembershipCache}, storing the groups in an LRU cache.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultGroupMembershipCache implements GroupMembershipCache, Initializable, Disposable
+{
+    /**
+     * The identifier of the cache.
+     */
+    public static final String CACHE_ID = "workflowpublication.groups";
+
+    /**
+     * The maximum number of members for which the groups are kept in the cache.
+     */
+    public static final int CACHE_SIZE = 10000;
+
+    @Inject
+    protected CacheManager cacheManager;
+
+    /**
+     * To record the hit ratio of the cache.
+     */
+    @Inject
+    protected WorkflowMetrics metrics;
+
+    /**
+     * The groups, by key.
+     */
+    private Cache<Collection<String>> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setConfigurationId(CACHE_ID);
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(CACHE_SIZE);
+        configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+        try {
+            this.cache = this.cacheManager.createNewCache(configuration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the workflow groups cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    @Override
+    public Collection<String> get(String key)
+    {
+        Collection<String> groups = this.cache.get(key);
+        this.metrics.recordCacheAccess(CACHE_ID, groups != null);
+        return groups;
+    }
+
+    @Override
+    public void set(String key, Collection<String> groups)
+    {
+        // the same collection is returned to all the callers, make sure none of them can change it
+        this.cache.set(key, Collections.unmodifiableCollection(groups));
+    }
+
+    @Override
+    public void removeAll()
+    {
+        this.cache.removeAll();
+    }
+}
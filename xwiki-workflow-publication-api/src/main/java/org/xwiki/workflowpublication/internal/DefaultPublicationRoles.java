@@ -19,12 +19,16 @@
  */
 package org.xwiki.workflowpublication.internal;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -34,6 +38,7 @@ import org.slf4j.Logger;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.workflowpublication.PublicationRole;
 import org.xwiki.workflowpublication.PublicationRoles;
 import org.xwiki.workflowpublication.WorkflowConfigManager;
 
@@ -41,7 +46,6 @@ import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
-import com.xpn.xwiki.plugin.rightsmanager.RightsManagerPluginApi;
 import com.xpn.xwiki.user.api.XWikiGroupService;
 
 /**
@@ -55,6 +59,24 @@ public class DefaultPublicationRoles implements PublicationRoles
 
     public static final String WF_CONFIG_VALIDATOR = "validator";
 
+    /**
+     * The roles of a user who is not part of the workflow.
+     */
+    private static final Set<PublicationRole> NO_ROLES = Collections.unmodifiableSet(EnumSet
+        .noneOf(PublicationRole.class));
+
+    /**
+     * The roles of a user who has all the workflow roles but is not an admin.
+     */
+    private static final Set<PublicationRole> WORKFLOW_ROLES = Collections.unmodifiableSet(EnumSet.of(
+        PublicationRole.CONTRIBUTOR, PublicationRole.MODERATOR, PublicationRole.VALIDATOR));
+
+    /**
+     * The roles of an admin.
+     */
+    private static final Set<PublicationRole> ALL_ROLES = Collections.unmodifiableSet(EnumSet
+        .allOf(PublicationRole.class));
+
     /**
      * The logger to log.
      */
@@ -86,18 +108,35 @@ public class DefaultPublicationRoles implements PublicationRoles
     protected DocumentReferenceResolver<String> defaultStringDocRefResolver;
 
     /**
-     * Checks if the passed member is in the passed group.
+     * The groups of the members, shared between requests.
+     */
+    @Inject
+    protected GroupMembershipCache groupsCache;
+
+    /**
+     * To measure the role resolution.
+     */
+    @Inject
+    protected WorkflowMetrics metrics;
+
+    /**
+     * Checks if the passed member is in the group of the passed role.
      * 
-     * @param userRef the document reference of the current user
-     * @param groupRef the group reference of the group to check
-     * @param xcontext TODO
-     * @return {@code true} if the userRef is in groupRef, {@code false} otherwise
-     * @throws XWikiException in case smth wrong happes while accessing groups docs et all
+     * @param groupsOfMember the groups of the member to check, as returned by
+     *            {@link #getGroups(DocumentReference, boolean, boolean, boolean, XWikiContext)}
+     * @param documentRef the workflow document, to resolve the group of the role relative to
+     * @param workflowConfig the workflow config of the document
+     * @param role the role to check
+     * @return {@code true} if the role has a group and the member is in it, {@code false} otherwise
      */
-    private boolean isInGroup(DocumentReference userRef, DocumentReference groupRef, XWikiContext xcontext)
-        throws XWikiException
+    private boolean isInRoleGroup(Collection<String> groupsOfMember, DocumentReference documentRef,
+        BaseObject workflowConfig, String role)
     {
-        Collection<String> groupsOfMember = this.getGroups(userRef, true, true, true, xcontext);
+        String roleGroup = workflowConfig.getStringValue(role);
+        if (StringUtils.isEmpty(roleGroup)) {
+            return false;
+        }
+        DocumentReference groupRef = explicitStringDocRefResolver.resolve(roleGroup, documentRef);
         return groupsOfMember.contains(stringSerializer.serialize(groupRef));
     }
 
@@ -133,159 +172,97 @@ public class DefaultPublicationRoles implements PublicationRoles
      */
     public boolean canModerate(DocumentReference userRef, XWikiDocument document, XWikiContext context)
     {
-        try {
-            // get the workflow config
-            BaseObject workflowConfig = configManager.getWorkflowConfigForWorkflowDoc(document, context);
-            // if there is no workflow config, all that can edit can moderate
-            if (workflowConfig == null) {
-                return context
-                    .getWiki()
-                    .getRightService()
-                    .hasAccessLevel("edit", localStringSerializer.serialize(userRef),
-                        localStringSerializer.serialize(document.getDocumentReference()), context);
-            }
-
-            // xwiki admins can moderate
-            if (hasXWikiAdmin(stringSerializer.serialize(userRef), context)) {
-                return true;
-            }
+        // either moderator or validator can moderate
+        return getRoles(userRef, document, context).contains(PublicationRole.MODERATOR);
+    }
 
-            RightsManagerPluginApi rightsManager =
-                (RightsManagerPluginApi) context.getWiki().getPluginApi("rightsmanager", context);
-
-            // if is moderator or validator, can moderate
-            // check if user is moderator
-            boolean isModerator = false;
-            String moderatorGroup = getRoleGroup(document, workflowConfig, WF_CONFIG_MODERATOR, context);
-            if (!StringUtils.isEmpty(moderatorGroup)) {
-                isModerator =
-                    isInGroup(userRef,
-                        explicitStringDocRefResolver.resolve(moderatorGroup, document.getDocumentReference()), context);
-            }
-            // if we already have it, don't bother to look further
-            if (isModerator) {
-                return isModerator;
-            }
-            // check if user is validator
-            boolean isValidator = false;
-            String validatorGroup = getRoleGroup(document, workflowConfig, WF_CONFIG_VALIDATOR, context);
-            if (!StringUtils.isEmpty(validatorGroup)) {
-                isValidator =
-                    isInGroup(userRef,
-                        explicitStringDocRefResolver.resolve(validatorGroup, document.getDocumentReference()), context);
-            }
-            // either moderator or validator can validate
-            return isModerator || isValidator;
-        } catch (XWikiException e) {
-            logger.error(
-                "There was an error getting the moderation groups for user " + stringSerializer.serialize(userRef)
-                    + " for document " + stringSerializer.serialize(document.getDocumentReference()), e);
-        }
+    @Override
+    public boolean canValidate(DocumentReference userRef, XWikiDocument document, XWikiContext context)
+    {
+        return getRoles(userRef, document, context).contains(PublicationRole.VALIDATOR);
+    }
 
-        return false;
+    @Override
+    public boolean canContribute(DocumentReference userRef, XWikiDocument document, XWikiContext context)
+    {
+        // contributor, moderator or validator can contribute
+        return getRoles(userRef, document, context).contains(PublicationRole.CONTRIBUTOR);
     }
 
     @Override
-    public boolean canValidate(DocumentReference userRef, XWikiDocument document, XWikiContext context)
+    public Set<PublicationRole> getRoles(DocumentReference userRef, XWikiDocument document, XWikiContext context)
     {
         try {
             // get the workflow config
             BaseObject workflowConfig = configManager.getWorkflowConfigForWorkflowDoc(document, context);
-            // if there is no workflow config, all that can edit can validate
-            if (workflowConfig == null) {
-                return context
-                    .getWiki()
-                    .getRightService()
-                    .hasAccessLevel("edit", localStringSerializer.serialize(userRef),
-                        localStringSerializer.serialize(document.getDocumentReference()), context);
-            }
-
-            // xwiki admins can validate
-            if (hasXWikiAdmin(stringSerializer.serialize(userRef), context)) {
-                return true;
-            }
-
-            RightsManagerPluginApi rightsManager =
-                (RightsManagerPluginApi) context.getWiki().getPluginApi("rightsmanager", context);
-
-            // check if user is validator
-            boolean isValidator = false;
-            String validatorGroup = getRoleGroup(document, workflowConfig, WF_CONFIG_VALIDATOR, context);
-            if (!StringUtils.isEmpty(validatorGroup)) {
-                isValidator =
-                    isInGroup(userRef,
-                        explicitStringDocRefResolver.resolve(validatorGroup, document.getDocumentReference()), context);
-            }
-            return isValidator;
+            return getRoles(userRef, document.getDocumentReference(), workflowConfig, context);
         } catch (XWikiException e) {
             logger.error(
-                "There was an error getting the validation group for user " + stringSerializer.serialize(userRef)
-                    + " for document " + stringSerializer.serialize(document.getDocumentReference()), e);
+                "There was an error getting the workflow config for document "
+                    + stringSerializer.serialize(document.getDocumentReference()), e);
         }
 
-        return false;
+        return NO_ROLES;
     }
 
     @Override
-    public boolean canContribute(DocumentReference userRef, XWikiDocument document, XWikiContext context)
+    public Set<PublicationRole> getRoles(DocumentReference userRef, DocumentReference documentRef,
+        BaseObject workflowConfig, XWikiContext context)
     {
+        WorkflowMetrics.Timer timer = metrics.start(WorkflowMetrics.ROLES, documentRef);
         try {
-            // get the workflow config
-            BaseObject workflowConfig = configManager.getWorkflowConfigForWorkflowDoc(document, context);
-            // if there is no workflow config, all that can edit can contribute
+            return timer.succeeded(this.resolveRoles(userRef, documentRef, workflowConfig, context));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Implementation of {@link #getRoles(DocumentReference, DocumentReference, BaseObject, XWikiContext)}, timed by it.
+     */
+    protected Set<PublicationRole> resolveRoles(DocumentReference userRef, DocumentReference documentRef,
+        BaseObject workflowConfig, XWikiContext context)
+    {
+        try {
+            // if there is no workflow config, all that can edit can contribute, moderate and validate
             if (workflowConfig == null) {
-                return context
-                    .getWiki()
-                    .getRightService()
-                    .hasAccessLevel("edit", localStringSerializer.serialize(userRef),
-                        localStringSerializer.serialize(document.getDocumentReference()), context);
+                boolean canEdit =
+                    context
+                        .getWiki()
+                        .getRightService()
+                        .hasAccessLevel("edit", localStringSerializer.serialize(userRef),
+                            localStringSerializer.serialize(documentRef), context);
+                return canEdit ? WORKFLOW_ROLES : NO_ROLES;
             }
 
-            // xwiki admins can contribute
+            // xwiki admins can do everything
             if (hasXWikiAdmin(stringSerializer.serialize(userRef), context)) {
-                return true;
+                return ALL_ROLES;
             }
 
-            RightsManagerPluginApi rightsManager =
-                (RightsManagerPluginApi) context.getWiki().getPluginApi("rightsmanager", context);
-
-            // check if user is contributor or moderator or validator
-            boolean isContributor = false;
-            String contributorGroup = getRoleGroup(document, workflowConfig, WF_CONFIG_CONTRIBUTOR, context);
-            if (!StringUtils.isEmpty(contributorGroup)) {
-                isContributor =
-                    isInGroup(userRef,
-                        explicitStringDocRefResolver.resolve(contributorGroup, document.getDocumentReference()),
-                        context);
-            }
-            if (isContributor) {
-                return true;
-            }
-            boolean isModerator = false;
-            String moderatorGroup = getRoleGroup(document, workflowConfig, WF_CONFIG_MODERATOR, context);
-            if (!StringUtils.isEmpty(moderatorGroup)) {
-                isModerator =
-                    isInGroup(userRef,
-                        explicitStringDocRefResolver.resolve(moderatorGroup, document.getDocumentReference()), context);
+            // get the groups of the user only once, for all the roles
+            Collection<String> groupsOfMember = this.getGroups(userRef, true, true, true, context);
+
+            // each role grants the roles below it as well: validators can moderate and moderators can contribute
+            Set<PublicationRole> roles = EnumSet.noneOf(PublicationRole.class);
+            if (isInRoleGroup(groupsOfMember, documentRef, workflowConfig, WF_CONFIG_VALIDATOR)) {
+                roles.add(PublicationRole.VALIDATOR);
             }
-            if (isModerator) {
-                return true;
+            if (!roles.isEmpty() || isInRoleGroup(groupsOfMember, documentRef, workflowConfig, WF_CONFIG_MODERATOR)) {
+                roles.add(PublicationRole.MODERATOR);
             }
-            boolean isValidator = false;
-            String validatorGroup = getRoleGroup(document, workflowConfig, WF_CONFIG_VALIDATOR, context);
-            if (!StringUtils.isEmpty(validatorGroup)) {
-                isValidator =
-                    isInGroup(userRef,
-                        explicitStringDocRefResolver.resolve(validatorGroup, document.getDocumentReference()), context);
+            if (!roles.isEmpty()
+                || isInRoleGroup(groupsOfMember, documentRef, workflowConfig, WF_CONFIG_CONTRIBUTOR)) {
+                roles.add(PublicationRole.CONTRIBUTOR);
             }
-            return isValidator;
+            return Collections.unmodifiableSet(roles);
         } catch (XWikiException e) {
             logger.error(
-                "There was an error getting the contribution group for user " + stringSerializer.serialize(userRef)
-                    + " for document " + stringSerializer.serialize(document.getDocumentReference()), e);
+                "There was an error getting the workflow roles for user " + stringSerializer.serialize(userRef)
+                    + " for document " + stringSerializer.serialize(documentRef), e);
         }
 
-        return false;
+        return NO_ROLES;
     }
 
     /**
@@ -340,39 +317,73 @@ public class DefaultPublicationRoles implements PublicationRoles
     public Collection<String> getGroups(DocumentReference userOrGroup, boolean recursive, boolean localGroups,
         boolean userWikiGroups, XWikiContext xcontext) throws XWikiException
     {
+        String localWiki = xcontext.getDatabase();
+        // the groups depend on the current wiki and on the flags, besides the member
+        String key =
+            localWiki + ':' + recursive + ':' + localGroups + ':' + userWikiGroups + ':'
+                + stringSerializer.serialize(userOrGroup);
+        Collection<String> cachedGroups = groupsCache.get(key);
+        if (cachedGroups != null) {
+            return cachedGroups;
+        }
+
         // use a set as a collection to make sure duplicates are not added
         Collection<String> allGroups = new HashSet<String>();
-        String localWiki = xcontext.getDatabase();
+        allGroups.addAll(getDirectGroups(userOrGroup, localWiki, localGroups, userWikiGroups, xcontext));
+
+        if (recursive) {
+            // walk the groups of the groups, without walking the same group twice, which also protects us from cycles
+            Deque<String> groupsToVisit = new ArrayDeque<String>(allGroups);
+            while (!groupsToVisit.isEmpty()) {
+                DocumentReference groupRef = defaultStringDocRefResolver.resolve(groupsToVisit.poll());
+                for (String parentGroup : getDirectGroups(groupRef, localWiki, localGroups, userWikiGroups,
+                    xcontext)) {
+                    if (allGroups.add(parentGroup)) {
+                        groupsToVisit.add(parentGroup);
+                    }
+                }
+            }
+        }
+
+        groupsCache.set(key, allGroups);
+
+        return Collections.unmodifiableCollection(allGroups);
+    }
+
+    /**
+     * @param userOrGroup the reference to the user or group for which we want to get the groups
+     * @param localWiki the current wiki
+     * @param localGroups whether the groups in the current wiki should be returned
+     * @param userWikiGroups whether the groups in the wiki of the member should be returned
+     * @param xcontext the xwiki context of this request
+     * @return the groups that the passed user or group is directly a member of
+     * @throws XWikiException in case anything goes wrong getting the groups
+     */
+    private Collection<String> getDirectGroups(DocumentReference userOrGroup, String localWiki, boolean localGroups,
+        boolean userWikiGroups, XWikiContext xcontext) throws XWikiException
+    {
+        Collection<String> groups = new HashSet<String>();
         String userWiki = userOrGroup.getWikiReference().getName();
 
         if (localGroups) {
-            allGroups.addAll(getMemberGroups(localWiki, userOrGroup, xcontext));
+            groups.addAll(getMemberGroups(localWiki, userOrGroup, xcontext));
         }
         if (userWikiGroups && !localWiki.equals(userWiki)) {
-            allGroups.addAll(getMemberGroups(userWiki, userOrGroup, xcontext));
-        }
-
-        if (recursive) {
-            // use a set for a collection to make sure duplicates are not added
-            Collection<String> parentGroups = new HashSet<String>();
-            for (String group : allGroups) {
-                DocumentReference groupRef = defaultStringDocRefResolver.resolve(group);
-                parentGroups.addAll(getGroups(groupRef, recursive, localGroups, userWikiGroups, xcontext));
-            }
-            allGroups.addAll(parentGroups);
+            groups.addAll(getMemberGroups(userWiki, userOrGroup, xcontext));
         }
 
-        return allGroups;
+        return groups;
     }
 
     /**
-     * Copied and adapted from XWikiRightServiceImpl to get the user groups for a user on a given wiki.
+     * Copied and adapted from XWikiRightServiceImpl to get the user groups for a user on a given wiki. The groups are
+     * only kept in the request when they could be retrieved.
      * 
      * @param wiki
      * @param memberReference
      * @param context
      * @return
-     * @throws XWikiException
+     * @throws XWikiException in case the groups cannot be retrieved
      */
     private Collection<String> getMemberGroups(String wiki, DocumentReference memberReference, XWikiContext context)
         throws XWikiException
@@ -402,10 +413,11 @@ public class DefaultPublicationRoles implements PublicationRoles
                     tmpGroupList.add(this.stringSerializer.serialize(groupReference));
                 }
             } catch (Exception e) {
-                logger.error("Failed to get groups for user or group [" + stringSerializer.serialize(memberReference)
-                    + "] in wiki [" + wiki + "]", e);
-
-                tmpGroupList = Collections.emptyList();
+                // don't let the caller cache an empty list of groups because of a transient failure, it would remove
+                // every role of the member until the cache entry expires
+                throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_UNKNOWN,
+                    "Failed to get groups for user or group [" + stringSerializer.serialize(memberReference)
+                        + "] in wiki [" + wiki + "]", e);
             } finally {
                 context.setDatabase(currentWiki);
             }
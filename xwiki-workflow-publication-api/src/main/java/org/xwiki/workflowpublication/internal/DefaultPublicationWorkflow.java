@@ -20,17 +20,26 @@
 package org.xwiki.workflowpublication.internal;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 
 import org.apache.commons.lang.StringUtils;
-import org.suigeneris.jrcs.diff.DifferentiationFailedException;
-import org.suigeneris.jrcs.diff.delta.Delta;
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobManager;
+import org.xwiki.job.event.status.JobStatus;
 import org.xwiki.logging.LogLevel;
 import org.xwiki.logging.event.LogEvent;
 import org.xwiki.model.EntityType;
@@ -38,30 +47,41 @@ import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
-import org.xwiki.model.reference.WikiReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.workflowpublication.BulkTransitionRequest;
+import org.xwiki.workflowpublication.BulkTransitionStatus;
 import org.xwiki.workflowpublication.PublicationRoles;
 import org.xwiki.workflowpublication.PublicationWorkflow;
 import org.xwiki.workflowpublication.WorkflowConfigManager;
+import org.xwiki.workflowpublication.WorkflowTransitionEvent;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.MetaDataDiff;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.doc.merge.MergeConfiguration;
 import com.xpn.xwiki.doc.merge.MergeResult;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.BaseProperty;
-import com.xpn.xwiki.objects.ObjectDiff;
 import com.xpn.xwiki.objects.classes.PropertyClass;
 import com.xpn.xwiki.web.XWikiMessageTool;
 
 /**
+ * The transitions of the publication workflow. The transitions are neither serialized nor measured here: the default
+ * {@link PublicationWorkflow}, {@link GuardedPublicationWorkflow}, does it around this component, so a transition
+ * calling another one, like {@link #submitForModeration(XWikiDocument)} without moderators, is counted once.
+ * 
  * @version $Id$
  */
 @Component
+@Named(DefaultPublicationWorkflow.HINT)
 public class DefaultPublicationWorkflow implements PublicationWorkflow
 {
+    /**
+     * The hint of this component, the transitions are called through the default {@link PublicationWorkflow}.
+     */
+    public static final String HINT = "unguarded";
+
     public static final String WF_CONFIG_REF_FIELDNAME = "workflow";
 
     public static final String WF_TARGET_FIELDNAME = "target";
@@ -74,6 +94,34 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
 
     public final static String WF_IS_DRAFTSPACE_FIELDNAME = "defaultDraftSpace";
 
+    /**
+     * The fingerprint of the relevant data of the workflow document, set on save, see {@link DocumentFingerprinter}.
+     */
+    public final static String WF_FINGERPRINT_FIELDNAME = "fingerprint";
+
+    /**
+     * The version of the draft which was last published, set on both the draft and the published document so that the
+     * next publication only copies the changes made since then.
+     */
+    public final static String WF_PUBLISHED_VERSION_FIELDNAME = "publishedVersion";
+
+    /**
+     * The draft which was last published, set on the published document, see
+     * {@link #getPublicationSource(XWikiDocument)}. Together with the published version, it tells which state of which
+     * draft the published document holds.
+     */
+    public final static String WF_PUBLISHED_FROM_FIELDNAME = "publishedFrom";
+
+    /**
+     * The date at which the draft should be published, if it is validated by then, see {@link WorkflowScheduler}.
+     */
+    public final static String WF_PUBLISH_AT_FIELDNAME = "publishAt";
+
+    /**
+     * The date at which the published document should be archived, see {@link WorkflowScheduler}.
+     */
+    public final static String WF_ARCHIVE_AT_FIELDNAME = "archiveAt";
+
     public final static int DRAFT = 0;
 
     public final static int PUBLISHED = 1;
@@ -92,6 +140,23 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
 
     public final static String CONTEXTKEY_PUBLISHING = "publicationworkflow:publish";
 
+    /**
+     * Context key set while the unpublish operation deletes the published document.
+     */
+    public final static String CONTEXTKEY_UNPUBLISHING = "publicationworkflow:unpublish";
+
+    /**
+     * Context key set while the workflow saves a document as part of a transition, so that the roles enforcer lets the
+     * changes of the workflow object through.
+     */
+    public final static String CONTEXTKEY_TRANSITION = "publicationworkflow:transition";
+
+    /**
+     * Context key set while a document submitted for moderation is submitted for validation instead, because its
+     * workflow has no moderators, so that the notification is the one of a submission for moderation.
+     */
+    public final static String CONTEXTKEY_SUBMITTING_FOR_MODERATION = "publicationworkflow:submitForModeration";
+
     public static final EntityReference COMMENTS_CLASS = new EntityReference("XWikiComments", EntityType.DOCUMENT,
         new EntityReference("XWiki", EntityType.SPACE));
 
@@ -101,6 +166,13 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     public static final EntityReference RIGHTS_CLASS = new EntityReference("XWikiRights", EntityType.DOCUMENT,
         new EntityReference("XWiki", EntityType.SPACE));
 
+    /**
+     * The classes of the objects which are not relevant for merge and comparison between draft document and published
+     * document: comments, rights and the publication workflow class.
+     */
+    public static final List<EntityReference> IRRELEVANT_CLASSES = Collections.unmodifiableList(Arrays.asList(
+        COMMENTS_CLASS, RIGHTS_CLASS, PUBLICATION_WORKFLOW_CLASS));
+
     /**
      * The groups property of the rights class.
      */
@@ -126,6 +198,12 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
      */
     private XWikiMessageTool messageTool;
 
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
     /**
      * The execution, to get the context from it.
      */
@@ -150,12 +228,66 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     @Inject
     protected PublicationRoles publicationRoles;
 
+    /**
+     * The index of drafts by target, to find the draft of a target without querying.
+     */
+    @Inject
+    protected DraftDocumentIndex draftIndex;
+
+    /**
+     * To compare the attachments without loading their content in memory.
+     */
+    @Inject
+    protected AttachmentDigestManager attachmentDigests;
+
+    /**
+     * To check if the draft and the published document are different.
+     */
+    @Inject
+    protected DocumentComparator documentComparator;
+
+    /**
+     * To check if the stored fingerprint of a document still describes it.
+     */
+    @Inject
+    protected DocumentFingerprinter fingerprinter;
+
+    /**
+     * To copy the translations of the documents, which are not handled by the copy of the default locale.
+     */
+    @Inject
+    protected TranslationCopier translationCopier;
+
+    /**
+     * To save the draft and the published document together when publishing.
+     */
+    @Inject
+    protected WorkflowTransactionManager transactionManager;
+
     /**
      * Reference string serializer.
      */
     @Inject
     protected EntityReferenceSerializer<String> stringSerializer;
 
+    /**
+     * To send the transition events, lazily since the listeners can depend on this component.
+     */
+    @Inject
+    protected Provider<ObservationManager> observationManagerProvider;
+
+    /**
+     * To run the bulk transitions in the background.
+     */
+    @Inject
+    protected JobManager jobManager;
+
+    /**
+     * To measure the transitions and their costly parts.
+     */
+    @Inject
+    protected WorkflowMetrics metrics;
+
     /**
      * {@inheritDoc}
      * 
@@ -177,88 +309,65 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         // check if fromDoc is different from toDoc, using the same strategy we use in copyContentsToNewVersion: compare
         // document content, document metadata (besides author), compare objects besides comments, rights and
         // publication workflow class, compare attachments (including attachment content).
-        XWikiDocument previousDoc = toDoc.clone();
-        this.cleanUpIrrelevantDataFromDoc(previousDoc, xcontext);
-        // set reference and language
-
-        XWikiDocument nextDoc = fromDoc.duplicate(toDoc.getDocumentReference());
-        this.cleanUpIrrelevantDataFromDoc(nextDoc, xcontext);
-        // 0. content diff
+        // if both documents were saved with the same fingerprint, they're not modified, no need to compare anything.
+        // Different fingerprints don't mean modified though, so if they're different we need the full comparison.
+        WorkflowMetrics.Timer timer = metrics.start(WorkflowMetrics.IS_MODIFIED, fromDoc.getDocumentReference());
         try {
-            List<Delta> contentDiffs = previousDoc.getContentDiff(previousDoc, nextDoc, xcontext);
-            if (contentDiffs.size() > 0) {
-                // we found content differences, we stop here and return
-                return true;
-            }
-        } catch (DifferentiationFailedException e) {
-            throw new XWikiException(XWikiException.MODULE_XWIKI_DIFF, XWikiException.ERROR_XWIKI_DIFF_CONTENT_ERROR,
-                "Cannot make diff between content of documents "
-                    + stringSerializer.serialize(fromDoc.getDocumentReference()) + " and documents "
-                    + stringSerializer.serialize(toDoc.getDocumentReference()), e);
-        }
-        // 1. meta data diffs, other than document author
-        List<MetaDataDiff> metaDiffs = previousDoc.getMetaDataDiff(previousDoc, nextDoc, xcontext);
-        // if there is a change other than author, it's a real change
-        for (MetaDataDiff metaDataDiff : metaDiffs) {
-            if (!metaDataDiff.getField().equals("author")) {
-                // is modified, return here, don't need to check the rest, we don't care
-                return true;
-            }
-        }
-        // 2. object diffs
-        List<List<ObjectDiff>> objectDiffs = previousDoc.getObjectDiff(previousDoc, nextDoc, xcontext);
-        if (objectDiffs.size() > 0) {
-            // is modified, return here, don't need to check the rest, we don't care
-            return true;
-        }
-        // 3. attachment diffs
-        // compare the attachments from the previous document to nextDocument, if there is one which is in one and not
-        // in the other, scream change
-        for (XWikiAttachment fromAttachment : previousDoc.getAttachmentList()) {
-            // check if the attachment exists in the other document
-            XWikiAttachment toAttachment = nextDoc.getAttachment(fromAttachment.getFilename());
-            if (toAttachment == null) {
-                // attachment does not exist in the new document, it's a change, return and stop
-                return true;
-            }
-        }
-        // check also the attachments in the nextDoc. If there is one which is not in previous doc, we scream
-        // modification
-        for (XWikiAttachment toAttachment : nextDoc.getAttachmentList()) {
-            // check if the attachment exists in the other document
-            XWikiAttachment fromAttachment = nextDoc.getAttachment(toAttachment.getFilename());
-            if (fromAttachment == null) {
-                // attachment does not exist in the old document, it's a change, return and stop
-                return true;
+            if (isSameFingerprint(fromDoc, toDoc, xcontext)) {
+                return timer.succeeded(false);
             }
+
+            // compare the documents side by side, without copying them and stopping on the first difference
+            return timer.succeeded(documentComparator.isModified(fromDoc, toDoc, xcontext));
+        } finally {
+            timer.stop();
         }
-        // for all common attachments, check their content and if we find 2 attachments with different content, scream
-        // change
-        for (XWikiAttachment fromAttachment : previousDoc.getAttachmentList()) {
-            XWikiAttachment toAttachment = nextDoc.getAttachment(fromAttachment.getFilename());
-            if (toAttachment == null) {
-                continue;
-            }
-            // load the content of the fromAttachment
-            fromAttachment.loadContent(xcontext);
-            // compare the contents of the attachment to know if we should update it or not
-            // TODO: figure out how could we do this without using so much memory
-            toAttachment.loadContent(xcontext);
-            boolean isSameAttachmentContent =
-                Arrays.equals(toAttachment.getAttachment_content().getContent(), fromAttachment.getAttachment_content()
-                    .getContent());
-            // unload the content of the attachments after comparison, since we don't need it anymore and we don't
-            // want to waste memory
-            toAttachment.setAttachment_content(null);
-            fromAttachment.setAttachment_content(null);
-            if (!isSameAttachmentContent) {
-                // there is a change, return
-                return true;
-            }
+    }
+
+    /**
+     * Checks if the two passed documents have the same fingerprint, as stored in their workflow object when they were
+     * saved. The stored fingerprints are only used if the documents were not changed in memory since.
+     * 
+     * @param fromDoc the first document to compare
+     * @param toDoc the second document to compare
+     * @param xcontext the context of the current request
+     * @return {@code true} if both documents have the same stored fingerprint, {@code false} otherwise
+     */
+    protected boolean isSameFingerprint(XWikiDocument fromDoc, XWikiDocument toDoc, XWikiContext xcontext)
+    {
+        if (!isAsStored(fromDoc) || !isAsStored(toDoc)) {
+            return false;
         }
+        String fromFingerprint = getFingerprint(fromDoc);
+        return !StringUtils.isEmpty(fromFingerprint) && fromFingerprint.equals(getFingerprint(toDoc));
+    }
 
-        // if nothing has happened previously, there is no change
-        return false;
+    /**
+     * Checks if the passed document is still as it was loaded or saved, so that its stored fingerprint describes it.
+     * The dirty flags only cover the content and the metadata, changes of the objects and the attachments are found
+     * by comparing them to the original document.
+     * 
+     * @param document the document to check
+     * @return {@code true} if the document was not changed in memory, {@code false} otherwise
+     */
+    private boolean isAsStored(XWikiDocument document)
+    {
+        XWikiDocument originalDocument = document.getOriginalDocument();
+        return originalDocument != null && originalDocument != document && !document.isContentDirty()
+            && !document.isMetaDataDirty() && document.getXObjectsToRemove().isEmpty()
+            && fingerprinter.isUnchanged(document, originalDocument);
+    }
+
+    /**
+     * @param document a workflow document
+     * @return the fingerprint stored in the workflow object of the document, if any
+     */
+    private String getFingerprint(XWikiDocument document)
+    {
+        BaseObject workflow =
+            document.getXObject(explicitReferenceDocRefResolver.resolve(PUBLICATION_WORKFLOW_CLASS,
+                document.getDocumentReference()));
+        return workflow != null ? workflow.getStringValue(WF_FINGERPRINT_FIELDNAME) : null;
     }
 
     @Override
@@ -271,45 +380,57 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     public DocumentReference getDraftDocument(DocumentReference targetRef, String wiki, XWikiContext xcontext)
         throws XWikiException
     {
-        String workflowsQuery =
-            "select obj.name from BaseObject obj, StringProperty target, IntegerProperty istarget where "
-                + "obj.className = ? and obj.id = target.id.id and target.id.name = ? and target.value = ? and "
-                + "obj.id = istarget.id.id and istarget.id.name = ? and istarget.value = 0";
-        // serialize the target WRT the passed wiki parameter
-        String serializedTargetName = compactWikiSerializer.serialize(targetRef, new WikiReference(wiki));
-        // the class needs to be serialized compact anyway, and it's a wikiless entity reference, so we don't need to
-        // worry about on which wiki it gets serialized
-        List<String> params =
-            Arrays.asList(compactWikiSerializer.serialize(PUBLICATION_WORKFLOW_CLASS), WF_TARGET_FIELDNAME,
-                serializedTargetName, WF_IS_TARGET_FIELDNAME);
-        List<String> results = null;
-        // query on the passed database
-        String originalDatabase = xcontext.getDatabase();
+        // the index is built from the store the first time it's used on a wiki and then kept up to date by the
+        // document events, so that we don't need to query on every call
+        WorkflowMetrics.Timer timer = metrics.start(WorkflowMetrics.GET_DRAFT_DOCUMENT, wiki);
         try {
-            xcontext.setDatabase(wiki);
-            results = xcontext.getWiki().getStore().search(workflowsQuery, 0, 0, params, xcontext);
+            return timer.succeeded(draftIndex.getDraftDocument(targetRef, wiki, xcontext));
         } finally {
-            xcontext.setDatabase(originalDatabase);
+            timer.stop();
         }
+    }
+
+    @Override
+    public Map<DocumentReference, DocumentReference> getDraftDocuments(Collection<DocumentReference> targetRefs,
+        String wiki, XWikiContext xcontext) throws XWikiException
+    {
+        // all the targets are looked up in the index at once, which is built with a single query per wiki
+        return draftIndex.getDraftDocuments(targetRefs, wiki, xcontext);
+    }
 
-        if (results == null || results.size() <= 0) {
+    @Override
+    public DocumentReference createDraftDocument(DocumentReference targetRef, XWikiContext xcontext)
+        throws XWikiException
+    {
+        if (getDraftDocument(targetRef, xcontext) != null) {
             return null;
         }
 
-        // if there are more results, use the first one, resolve it relative to passed wiki reference
-        return explicitStringDocRefResolver.resolve(results.get(0), new WikiReference(wiki));
+        return this.createDraftDocumentForPublished(xcontext.getWiki().getDocument(targetRef, xcontext), xcontext);
     }
 
     @Override
-    public DocumentReference createDraftDocument(DocumentReference targetRef, XWikiContext xcontext)
+    public DocumentReference createDraftDocument(XWikiDocument targetDocument, XWikiContext xcontext)
         throws XWikiException
     {
-        if (getDraftDocument(targetRef, xcontext) != null) {
+        if (getDraftDocument(targetDocument.getDocumentReference(), xcontext) != null) {
             return null;
         }
 
-        XWikiDocument targetDocument = xcontext.getWiki().getDocument(targetRef, xcontext);
+        return this.createDraftDocumentForPublished(targetDocument, xcontext);
+    }
 
+    /**
+     * Creates the draft of the passed published document, once checked that it doesn't have a draft already.
+     * 
+     * @param targetDocument the published document
+     * @param xcontext the context of the current request
+     * @return the reference of the created draft, {@code null} if the document is not published nor archived
+     * @throws XWikiException in case the draft cannot be saved
+     */
+    private DocumentReference createDraftDocumentForPublished(XWikiDocument targetDocument, XWikiContext xcontext)
+        throws XWikiException
+    {
         // we can only create a draft for a published document, from the published or archived state.
         BaseObject workflow =
             validateWorkflow(targetDocument, Arrays.asList(STATUS_PUBLISHED, STATUS_ARCHIVED), PUBLISHED, xcontext);
@@ -317,10 +438,10 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
             return null;
         }
 
-        return this.createDraftDocument(targetDocument, xcontext);
+        return this.createDraftDocumentForTarget(targetDocument, xcontext);
     }
 
-    private DocumentReference createDraftDocument(XWikiDocument targetDocument, XWikiContext xcontext)
+    private DocumentReference createDraftDocumentForTarget(XWikiDocument targetDocument, XWikiContext xcontext)
         throws XWikiException
     {
         DocumentReference targetRef = targetDocument.getDocumentReference();
@@ -348,7 +469,6 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
             new DocumentReference(targetRef.getWikiReference().getName(), defaultDraftsSpace, draftDocName);
         XWikiDocument draftDoc = xcontext.getWiki().getDocument(draftDocRef, xcontext);
         try {
-            // TODO: copy translated documents
             this.copyContentsToNewVersion(targetDocument, draftDoc, xcontext);
         } catch (IOException e) {
             throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_UNKNOWN,
@@ -371,7 +491,8 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         String message2 =
             getMessage("workflow.save.createDraft", defaultMessage2,
                 Arrays.asList(stringSerializer.serialize(targetRef).toString()));
-        xcontext.getWiki().saveDocument(draftDoc, message2, false, xcontext);
+        saveWorkflowDocument(draftDoc, message2, false, xcontext);
+        copyTranslations(targetDocument, draftDoc, message2, xcontext);
 
         return draftDocRef;
 
@@ -438,7 +559,7 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         String message =
             this.getMessage("workflow.save.start", defaultMessage,
                 Arrays.asList(workflowConfig.toString(), stringSerializer.serialize(docName).toString()));
-        xcontext.getWiki().saveDocument(doc, message, true, xcontext);
+        saveWorkflowDocument(doc, message, true, xcontext);
 
         return true;
     }
@@ -490,7 +611,7 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         if (message.length() > 255) {
             message = message.substring(0, 255);
         }
-        xcontext.getWiki().saveDocument(doc, message, true, xcontext);
+        saveWorkflowDocument(doc, message, true, xcontext);
 
         return true;
     }
@@ -498,9 +619,15 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     @Override
     public boolean submitForModeration(DocumentReference document) throws XWikiException
     {
+        XWikiContext xcontext = getXContext();
+        return this.submitForModeration(xcontext.getWiki().getDocument(document, xcontext));
+    }
 
+    @Override
+    public boolean submitForModeration(XWikiDocument doc) throws XWikiException
+    {
         XWikiContext xcontext = getXContext();
-        XWikiDocument doc = xcontext.getWiki().getDocument(document, xcontext);
+        DocumentReference document = doc.getDocumentReference();
 
         BaseObject workflow = validateWorkflow(doc, Arrays.asList(STATUS_DRAFT), DRAFT, xcontext);
         if (workflow == null) {
@@ -513,7 +640,12 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         String moderators = publicationRoles.getModerators(wfConfig, xcontext);
         // if there are no moderators, submit the doc for validation instead of moderation
         if (StringUtils.isEmpty(moderators)) {
-            return this.submitForValidation(document);
+            xcontext.put(CONTEXTKEY_SUBMITTING_FOR_MODERATION, true);
+            try {
+                return this.submitForValidation(doc);
+            } finally {
+                xcontext.remove(CONTEXTKEY_SUBMITTING_FOR_MODERATION);
+            }
         }
 
         // put the status to moderating
@@ -535,14 +667,15 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         workflow.set(WF_STATUS_AUTHOR_FIELDNAME, xcontext.getUserReference().toString(), xcontext);
 
         // save the doc.
-        // TODO: prevent the save protection from being executed, when it would be implemented
 
         // save the document prepared like this
         String defaultMessage = "Submitted document " + stringSerializer.serialize(document) + " for moderation ";
         String message =
             this.getMessage("workflow.save.submitForModeration", defaultMessage,
                 Arrays.asList(stringSerializer.serialize(document).toString()));
-        xcontext.getWiki().saveDocument(doc, message, true, xcontext);
+        saveWorkflowDocument(doc, message, true, xcontext);
+
+        notifyTransition(doc, WorkflowTransitionEvent.SUBMIT_FOR_MODERATION, null, xcontext);
 
         return true;
     }
@@ -551,7 +684,13 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     public boolean refuseModeration(DocumentReference document, String reason) throws XWikiException
     {
         XWikiContext xcontext = getXContext();
-        XWikiDocument doc = xcontext.getWiki().getDocument(document, xcontext);
+        return this.refuseModeration(xcontext.getWiki().getDocument(document, xcontext), reason);
+    }
+
+    @Override
+    public boolean refuseModeration(XWikiDocument doc, String reason) throws XWikiException
+    {
+        XWikiContext xcontext = getXContext();
 
         BaseObject workflow = validateWorkflow(doc, Arrays.asList(STATUS_MODERATING), 0, xcontext);
         if (workflow == null) {
@@ -567,7 +706,9 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         // save the document prepared like this
         String defaultMessage = "Refused moderation : " + reason;
         String message = getMessage("workflow.save.refuseModeration", defaultMessage, Arrays.asList(reason));
-        xcontext.getWiki().saveDocument(doc, message, false, xcontext);
+        saveWorkflowDocument(doc, message, false, xcontext);
+
+        notifyTransition(doc, WorkflowTransitionEvent.REFUSE_MODERATION, reason, xcontext);
 
         return true;
     }
@@ -576,7 +717,14 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     public boolean submitForValidation(DocumentReference document) throws XWikiException
     {
         XWikiContext xcontext = getXContext();
-        XWikiDocument doc = xcontext.getWiki().getDocument(document, xcontext);
+        return this.submitForValidation(xcontext.getWiki().getDocument(document, xcontext));
+    }
+
+    @Override
+    public boolean submitForValidation(XWikiDocument doc) throws XWikiException
+    {
+        XWikiContext xcontext = getXContext();
+        DocumentReference document = doc.getDocumentReference();
 
         BaseObject workflow = validateWorkflow(doc, Arrays.asList(STATUS_MODERATING, STATUS_DRAFT), DRAFT, xcontext);
         if (workflow == null) {
@@ -613,7 +761,9 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         String message =
             getMessage("workflow.save.submitForValidation", defaultMessage,
                 Arrays.asList(stringSerializer.serialize(document).toString()));
-        xcontext.getWiki().saveDocument(doc, message, true, xcontext);
+        saveWorkflowDocument(doc, message, true, xcontext);
+
+        notifyTransition(doc, WorkflowTransitionEvent.SUBMIT_FOR_VALIDATION, null, xcontext);
 
         return true;
     }
@@ -622,7 +772,13 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     public boolean refuseValidation(DocumentReference document, String reason) throws XWikiException
     {
         XWikiContext xcontext = getXContext();
-        XWikiDocument doc = xcontext.getWiki().getDocument(document, xcontext);
+        return this.refuseValidation(xcontext.getWiki().getDocument(document, xcontext), reason);
+    }
+
+    @Override
+    public boolean refuseValidation(XWikiDocument doc, String reason) throws XWikiException
+    {
+        XWikiContext xcontext = getXContext();
 
         BaseObject workflow = validateWorkflow(doc, Arrays.asList(STATUS_VALIDATING), 0, xcontext);
         if (workflow == null) {
@@ -638,7 +794,9 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         // save the document prepared like this
         String defaultMessage = "Refused publication : " + reason;
         String message = getMessage("workflow.save.refuseValidation", defaultMessage, Arrays.asList(reason));
-        xcontext.getWiki().saveDocument(doc, message, false, xcontext);
+        saveWorkflowDocument(doc, message, false, xcontext);
+
+        notifyTransition(doc, WorkflowTransitionEvent.REFUSE_VALIDATION, reason, xcontext);
 
         return true;
     }
@@ -647,7 +805,14 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     public boolean validate(DocumentReference document) throws XWikiException
     {
         XWikiContext xcontext = getXContext();
-        XWikiDocument doc = xcontext.getWiki().getDocument(document, xcontext);
+        return this.validate(xcontext.getWiki().getDocument(document, xcontext));
+    }
+
+    @Override
+    public boolean validate(XWikiDocument doc) throws XWikiException
+    {
+        XWikiContext xcontext = getXContext();
+        DocumentReference document = doc.getDocumentReference();
 
         BaseObject workflow = validateWorkflow(doc, Arrays.asList(STATUS_VALIDATING), DRAFT, xcontext);
         if (workflow == null) {
@@ -668,7 +833,9 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         String message =
             getMessage("workflow.save.validate", defaultMessage,
                 Arrays.asList(stringSerializer.serialize(document).toString()));
-        xcontext.getWiki().saveDocument(doc, message, true, xcontext);
+        saveWorkflowDocument(doc, message, true, xcontext);
+
+        notifyTransition(doc, WorkflowTransitionEvent.VALIDATE, null, xcontext);
 
         return true;
     }
@@ -677,7 +844,14 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     public DocumentReference publish(DocumentReference document) throws XWikiException
     {
         XWikiContext xcontext = getXContext();
-        XWikiDocument doc = xcontext.getWiki().getDocument(document, xcontext);
+        return this.publish(xcontext.getWiki().getDocument(document, xcontext));
+    }
+
+    @Override
+    public DocumentReference publish(XWikiDocument doc) throws XWikiException
+    {
+        XWikiContext xcontext = getXContext();
+        DocumentReference document = doc.getDocumentReference();
 
         // we can only publish from validating state, check that
         BaseObject workflow = validateWorkflow(doc, Arrays.asList(STATUS_VALIDATING, STATUS_VALID), DRAFT, xcontext);
@@ -694,53 +868,58 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
 
         // TODO: handle checking if the target document is free...
 
-        // TODO: do this for all the languages of document to copy from, and remove the languages which are not anymore
-        try {
-            this.copyContentsToNewVersion(doc, newDocument, xcontext);
-        } catch (IOException e) {
-            throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_UNKNOWN,
-                "Error accessing attachments when copying document "
-                    + stringSerializer.serialize(doc.getDocumentReference()) + " to document "
-                    + stringSerializer.serialize(newDocument.getDocumentReference()), e);
-        }
-
-        // published document is visible
-        newDocument.setHidden(false);
-        // setup the workflow and target flag, if a workflow doesn't exist already
-        BaseObject newWorkflow = newDocument.getXObject(PUBLICATION_WORKFLOW_CLASS);
-        if (newWorkflow == null) {
-            newWorkflow = newDocument.newXObject(PUBLICATION_WORKFLOW_CLASS, xcontext);
-            newWorkflow.set(WF_STATUS_FIELDNAME, STATUS_PUBLISHED, xcontext);
-            newWorkflow.set(WF_IS_TARGET_FIELDNAME, 1, xcontext);
-            newWorkflow.set(WF_TARGET_FIELDNAME, target, xcontext);
-            newWorkflow.set(WF_CONFIG_REF_FIELDNAME, workflow.getStringValue(WF_CONFIG_REF_FIELDNAME), xcontext);
-        }
-
-        // TODO: figure out who should be the author of the published document
-        // save the published document prepared like this
-        String defaultMessage = "Published new version of the document.";
-        String message = getMessage("workflow.save.publishNew", defaultMessage, null);
-        try {
-            // setup the context to let events know that they are in the publishing context
-            xcontext.put(CONTEXTKEY_PUBLISHING, true);
-            xcontext.getWiki().saveDocument(newDocument, message, false, xcontext);
-        } finally {
-            xcontext.remove(CONTEXTKEY_PUBLISHING);
+        // the version of the draft being published, the content doesn't change when the status is saved below
+        String publishedVersion = doc.getVersion();
+        // a previous attempt published this version but failed to save the draft and to undo the publication, only the
+        // draft is left to save
+        boolean alreadyPublished = isPublishedVersion(newDocument, doc, publishedVersion);
+        if (!alreadyPublished) {
+            this.preparePublishedDocument(doc, newDocument, workflow, target, publishedVersion, xcontext);
         }
 
         // prepare the draft document as well
         // set the status
         workflow.set(WF_STATUS_FIELDNAME, STATUS_PUBLISHED, xcontext);
+        workflow.set(WF_PUBLISHED_VERSION_FIELDNAME, publishedVersion, xcontext);
+        // the scheduled publication, if any, is done
+        clearScheduledDate(workflow, WF_PUBLISH_AT_FIELDNAME);
 
         // Add the author in order to keep track of the person who change the status
         workflow.set(WF_STATUS_AUTHOR_FIELDNAME, xcontext.getUserReference().toString(), xcontext);
-        
-        // save the the draft document prepared like this
-        String defaultMessage2 = "Published this document to " + stringSerializer.serialize(document) + ".";
-        String message2 =
-            getMessage("workflow.save.publishDraft", defaultMessage2,
-                Arrays.asList(stringSerializer.serialize(targetRef).toString()));
-        xcontext.getWiki().saveDocument(doc, message2, false, xcontext);
+
+        // save both documents in one transaction, so that the target is not left published with a validating draft
+        WorkflowTransactionManager.WorkflowTransaction transaction = transactionManager.begin(xcontext);
+        try {
+            if (!alreadyPublished) {
+                transaction.journal(newDocument);
+                // TODO: figure out who should be the author of the published document
+                // save the published document prepared like this
+                String defaultMessage = "Published new version of the document.";
+                String message = getMessage("workflow.save.publishNew", defaultMessage, null);
+                try {
+                    // setup the context to let events know that they are in the publishing context
+                    xcontext.put(CONTEXTKEY_PUBLISHING, true);
+                    saveWorkflowDocument(newDocument, message, false, xcontext);
+                    copyTranslations(doc, newDocument, message, xcontext);
+                } finally {
+                    xcontext.remove(CONTEXTKEY_PUBLISHING);
+                }
+            }
+
+            // save the the draft document prepared like this
+            String defaultMessage2 = "Published this document to " + stringSerializer.serialize(document) + ".";
+            String message2 =
+                getMessage("workflow.save.publishDraft", defaultMessage2,
+                    Arrays.asList(stringSerializer.serialize(targetRef).toString()));
+            saveWorkflowDocument(doc, message2, false, xcontext);
+
+            transaction.commit();
+        } finally {
+            // does nothing once committed
+            transaction.rollback();
+        }
+
+        notifyTransition(doc, WorkflowTransitionEvent.PUBLISH, null, xcontext);
 
         return targetRef;
     }
@@ -749,7 +928,14 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     public DocumentReference unpublish(DocumentReference document, boolean forceToDraft) throws XWikiException
     {
         XWikiContext xcontext = getXContext();
-        XWikiDocument targetDoc = xcontext.getWiki().getDocument(document, xcontext);
+        return this.unpublish(xcontext.getWiki().getDocument(document, xcontext), forceToDraft);
+    }
+
+    @Override
+    public DocumentReference unpublish(XWikiDocument targetDoc, boolean forceToDraft) throws XWikiException
+    {
+        XWikiContext xcontext = getXContext();
+        DocumentReference document = targetDoc.getDocumentReference();
 
         // check that the document to unpublish is a workflow published document
         BaseObject targetWorkflow =
@@ -779,15 +965,13 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
                     String message =
                         getMessage("workflow.save.unpublish", defaultMessage,
                             Arrays.asList(stringSerializer.serialize(document).toString()));
-                    xcontext.getWiki().saveDocument(draftDoc, message, true, xcontext);
+                    saveWorkflowDocument(draftDoc, message, true, xcontext);
                 }
             } else {
                 // the existing draft is not published and force to draft is required
                 // copy the contents from target to draft
                 try {
-                    // TODO: do this for all the languages of document to copy from, and remove the languages which are
-                    // not anymore
-                    this.copyContentsToNewVersion(targetDoc, draftDoc, xcontext);
+                    this.copyContentsToNewVersion(targetDoc, draftDoc, true, xcontext);
                 } catch (IOException e) {
                     throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_UNKNOWN,
                         "Error accessing attachments when copying document "
@@ -802,15 +986,23 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
                 String message =
                     getMessage("workflow.save.unpublish", defaultMessage,
                         Arrays.asList(stringSerializer.serialize(document).toString()));
-                xcontext.getWiki().saveDocument(draftDoc, message, true, xcontext);
+                saveWorkflowDocument(draftDoc, message, true, xcontext);
+                copyTranslations(targetDoc, draftDoc, message, xcontext);
             }
         } else {
-            draftDocRef = this.createDraftDocument(targetDoc, xcontext);
+            draftDocRef = this.createDraftDocumentForTarget(targetDoc, xcontext);
         }
 
         if (draftDocRef != null) {
-            // if draft creation worked fine, delete the published doc
-            xcontext.getWiki().deleteDocument(targetDoc, xcontext);
+            // if draft creation worked fine, delete the published doc, letting events know that it's being unpublished
+            try {
+                xcontext.put(CONTEXTKEY_UNPUBLISHING, true);
+                xcontext.getWiki().deleteDocument(targetDoc, xcontext);
+            } finally {
+                xcontext.remove(CONTEXTKEY_UNPUBLISHING);
+            }
+            notifyTransition(xcontext.getWiki().getDocument(draftDocRef, xcontext), WorkflowTransitionEvent.UNPUBLISH,
+                null, xcontext);
             return draftDocRef;
         } else {
             // TODO: put exception on the context
@@ -822,14 +1014,20 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     public boolean editDraft(DocumentReference document) throws XWikiException
     {
         XWikiContext xcontext = getXContext();
-        XWikiDocument doc = xcontext.getWiki().getDocument(document, xcontext);
+        return this.editDraft(xcontext.getWiki().getDocument(document, xcontext));
+    }
+
+    @Override
+    public boolean editDraft(XWikiDocument doc) throws XWikiException
+    {
+        XWikiContext xcontext = getXContext();
         BaseObject workflow = doc.getXObject(PUBLICATION_WORKFLOW_CLASS);
         String draftStatus = workflow.getStringValue(WF_STATUS_FIELDNAME);
         if (draftStatus.equals(STATUS_PUBLISHED)) {
             makeDocumentDraft(doc, workflow, xcontext);
             String defaultMessage = "Back to draft status to enable editing.";
             String message = getMessage("workflow.save.backToDraft", defaultMessage, null);
-            xcontext.getWiki().saveDocument(doc, message, true, xcontext);
+            saveWorkflowDocument(doc, message, true, xcontext);
             return true;
         } else
             return false;
@@ -839,7 +1037,13 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     public boolean archive(DocumentReference document) throws XWikiException
     {
         XWikiContext xcontext = getXContext();
-        XWikiDocument publishedDoc = xcontext.getWiki().getDocument(document, xcontext);
+        return this.archive(xcontext.getWiki().getDocument(document, xcontext));
+    }
+
+    @Override
+    public boolean archive(XWikiDocument publishedDoc) throws XWikiException
+    {
+        XWikiContext xcontext = getXContext();
 
         BaseObject publishedWorkflow =
             validateWorkflow(publishedDoc, Arrays.asList(STATUS_PUBLISHED), PUBLISHED, xcontext);
@@ -856,10 +1060,36 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         
         publishedDoc.setHidden(true);
 
+        // the scheduled archiving, if any, is done. It can be scheduled on the published document or on its draft
+        clearScheduledDate(publishedWorkflow, WF_ARCHIVE_AT_FIELDNAME);
+        XWikiDocument draftDoc = null;
+        DocumentReference draftRef = getDraftDocument(publishedDoc.getDocumentReference(), xcontext);
+        if (draftRef != null) {
+            draftDoc = xcontext.getWiki().getDocument(draftRef, xcontext);
+            BaseObject draftWorkflow =
+                draftDoc.getXObject(explicitReferenceDocRefResolver.resolve(PUBLICATION_WORKFLOW_CLASS, draftRef));
+            if (draftWorkflow == null || !clearScheduledDate(draftWorkflow, WF_ARCHIVE_AT_FIELDNAME)) {
+                draftDoc = null;
+            }
+        }
+
         // save it
         String defaultMessage = "Archived document.";
         String message = getMessage("workflow.save.archive", defaultMessage, null);
-        xcontext.getWiki().saveDocument(publishedDoc, message, true, xcontext);
+        WorkflowTransactionManager.WorkflowTransaction transaction = transactionManager.begin(xcontext);
+        try {
+            transaction.journal(publishedDoc);
+            saveWorkflowDocument(publishedDoc, message, true, xcontext);
+            if (draftDoc != null) {
+                saveWorkflowDocument(draftDoc, message, true, xcontext);
+            }
+            transaction.commit();
+        } finally {
+            // does nothing once committed
+            transaction.rollback();
+        }
+
+        notifyTransition(publishedDoc, WorkflowTransitionEvent.ARCHIVE, null, xcontext);
 
         return true;
     }
@@ -870,11 +1100,23 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         return this.unpublish(document, forceToDraft);
     }
 
+    @Override
+    public DocumentReference unarchive(XWikiDocument document, boolean forceToDraft) throws XWikiException
+    {
+        return this.unpublish(document, forceToDraft);
+    }
+
     @Override
     public boolean publishFromArchive(DocumentReference document) throws XWikiException
     {
         XWikiContext xcontext = getXContext();
-        XWikiDocument archivedDoc = xcontext.getWiki().getDocument(document, xcontext);
+        return this.publishFromArchive(xcontext.getWiki().getDocument(document, xcontext));
+    }
+
+    @Override
+    public boolean publishFromArchive(XWikiDocument archivedDoc) throws XWikiException
+    {
+        XWikiContext xcontext = getXContext();
 
         BaseObject archivedWorkflow =
             validateWorkflow(archivedDoc, Arrays.asList(STATUS_ARCHIVED), PUBLISHED, xcontext);
@@ -894,7 +1136,9 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         // save it
         String defaultMessage = "Published document from an archive.";
         String message = messageTool.get("workflow.save.publishFromArchive", defaultMessage, null);
-        xcontext.getWiki().saveDocument(archivedDoc, message, true, xcontext);
+        saveWorkflowDocument(archivedDoc, message, true, xcontext);
+
+        notifyTransition(archivedDoc, WorkflowTransitionEvent.PUBLISH_FROM_ARCHIVE, null, xcontext);
 
         return true;
     }
@@ -914,6 +1158,62 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
     protected boolean copyContentsToNewVersion(XWikiDocument fromDocument, XWikiDocument toDocument, XWikiContext xcontext)
         throws XWikiException, IOException
     {
+        this.copyContentsToNewVersion(fromDocument, toDocument, false, xcontext);
+        return true;
+    }
+
+    /**
+     * Same as {@link #copyContentsToNewVersion(XWikiDocument, XWikiDocument, XWikiContext)}, but can skip the
+     * attachments which have the same size and content digest in both documents, in which case their content is not
+     * loaded and they are not written again in the destination document. Only the attachments which changed are loaded
+     * and copied.
+     * 
+     * @param fromDocument the document to copy the contents from
+     * @param toDocument the document to copy the contents to
+     * @param skipIdenticalAttachments whether the attachments which are identical in both documents should be skipped
+     * @param xcontext the context of the current request
+     * @return the number of attachment bytes written and skipped
+     * @throws XWikiException in case anything goes wrong with the copy
+     * @throws IOException in case the attachments cannot be accessed
+     */
+    protected CopyContentsResult copyContentsToNewVersion(XWikiDocument fromDocument, XWikiDocument toDocument,
+        boolean skipIdenticalAttachments, XWikiContext xcontext) throws XWikiException, IOException
+    {
+        WorkflowMetrics.Timer timer =
+            metrics.start(WorkflowMetrics.COPY_CONTENTS, toDocument.getDocumentReference());
+        try {
+            CopyContentsResult copyResult =
+                this.doCopyContentsToNewVersion(fromDocument, toDocument, skipIdenticalAttachments, xcontext);
+            metrics.addAttachmentBytesCopied(toDocument.getDocumentReference().getWikiReference().getName(),
+                copyResult.getBytesWritten());
+            return timer.succeeded(copyResult);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Implementation of {@link #copyContentsToNewVersion(XWikiDocument, XWikiDocument, boolean, XWikiContext)}, timed
+     * by it.
+     */
+    protected CopyContentsResult doCopyContentsToNewVersion(XWikiDocument fromDocument, XWikiDocument toDocument,
+        boolean skipIdenticalAttachments, XWikiContext xcontext) throws XWikiException, IOException
+    {
+        CopyContentsResult copyResult = new CopyContentsResult();
+        // find the attachments which don't need to be copied, on the original documents, since the digests are cached
+        // by attachment reference
+        List<String> identicalAttachments = new ArrayList<String>();
+        for (XWikiAttachment fromAttachment : fromDocument.getAttachmentList()) {
+            XWikiAttachment toAttachment = toDocument.getAttachment(fromAttachment.getFilename());
+            if (skipIdenticalAttachments && toAttachment != null
+                && attachmentDigests.isSameContent(fromAttachment, toAttachment, xcontext)) {
+                identicalAttachments.add(fromAttachment.getFilename());
+                copyResult.addSkipped(fromAttachment.getFilesize());
+            } else {
+                copyResult.addWritten(fromAttachment.getFilesize());
+            }
+        }
+
         // use a fake 3 way merge: previous is toDocument without comments, rights and wf object
         // current version is current toDocument
         // next version is fromDocument without comments, rights and wf object
@@ -922,11 +1222,23 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         // set reference and language
 
         // make sure that the attachments are properly loaded in memory for the duplicate to work fine, otherwise it's a
-        // bit impredictable about attachments
-        fromDocument.loadAttachments(xcontext);
+        // bit impredictable about attachments. Only the attachments which will be copied are needed.
+        for (XWikiAttachment fromAttachment : fromDocument.getAttachmentList()) {
+            if (!identicalAttachments.contains(fromAttachment.getFilename())) {
+                fromAttachment.loadContent(xcontext);
+                fromAttachment.loadArchive(xcontext);
+            }
+        }
         XWikiDocument nextDoc = fromDocument.duplicate(toDocument.getDocumentReference());
         this.cleanUpIrrelevantDataFromDoc(nextDoc, xcontext);
 
+        // remove the identical attachments from both versions, so that the merge leaves them untouched in toDocument,
+        // without comparing their content again
+        for (String filename : identicalAttachments) {
+            previousDoc.getAttachmentList().remove(previousDoc.getAttachment(filename));
+            nextDoc.getAttachmentList().remove(nextDoc.getAttachment(filename));
+        }
+
         // and now merge. Normally the attachments which are not in the next doc are deleted from the current doc
         MergeResult result = toDocument.merge(previousDoc, nextDoc, new MergeConfiguration(), xcontext);
 
@@ -943,7 +1255,9 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
 
         List<LogEvent> exception = result.getLog().getLogs(LogLevel.ERROR);
         if (exception.isEmpty()) {
-            return true;
+            logger.debug("Copied document {} to document {}: {}", fromDocument.getDocumentReference(),
+                toDocument.getDocumentReference(), copyResult);
+            return copyResult;
         } else {
             StringBuffer exceptions = new StringBuffer();
             for (LogEvent e : exception) {
@@ -960,6 +1274,150 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         }
     }
 
+    /**
+     * Copies to the published document only the relevant parts of the draft which changed since it was last published,
+     * see {@link DocumentComparator#copyChanges(XWikiDocument, XWikiDocument, XWikiContext)}. The published document
+     * needs to have been published from the draft, see
+     * {@link #isPublishedFrom(XWikiDocument, XWikiDocument, BaseObject)}.
+     * 
+     * @param fromDocument the draft to copy the changes from
+     * @param toDocument the published document to copy the changes to
+     * @param xcontext the context of the current request
+     * @return the number of attachment bytes written and skipped
+     * @throws XWikiException in case the attachments of the draft cannot be read
+     * @throws IOException in case the attachments cannot be written
+     */
+    protected CopyContentsResult copyChangesToNewVersion(XWikiDocument fromDocument, XWikiDocument toDocument,
+        XWikiContext xcontext) throws XWikiException, IOException
+    {
+        WorkflowMetrics.Timer timer = metrics.start(WorkflowMetrics.COPY_CHANGES, toDocument.getDocumentReference());
+        try {
+            CopyContentsResult copyResult = documentComparator.copyChanges(fromDocument, toDocument, xcontext);
+            // same as after the merge, the published document already exists so its creator is kept
+            toDocument.setAuthorReference(fromDocument.getAuthorReference());
+            toDocument.setDefaultLocale(fromDocument.getDefaultLocale());
+            metrics.addAttachmentBytesCopied(toDocument.getDocumentReference().getWikiReference().getName(),
+                copyResult.getBytesWritten());
+            logger.debug("Copied the changes of document {} to document {}: {}", fromDocument.getDocumentReference(),
+                toDocument.getDocumentReference(), copyResult);
+            return timer.succeeded(copyResult);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Checks whether the passed document holds a publication of the draft, in which case only the changes of the draft
+     * need to be copied to it. The published document is then what the draft was at the version recorded in both
+     * workflow objects, so comparing it to the draft gives the changes made since that version, without loading it
+     * from the history. Documents with a class definition are always fully merged, since the class is not compared.
+     * 
+     * @param targetDocument the published document
+     * @param draftDocument the draft
+     * @param workflow the workflow object of the draft
+     * @return {@code true} if the changes of the draft can be copied to the published document
+     */
+    protected boolean isPublishedFrom(XWikiDocument targetDocument, XWikiDocument draftDocument, BaseObject workflow)
+    {
+        return holdsPublication(targetDocument, draftDocument, workflow.getStringValue(WF_PUBLISHED_VERSION_FIELDNAME))
+            && targetDocument.getXClass().getFieldList().isEmpty()
+            && draftDocument.getXClass().getFieldList().isEmpty();
+    }
+
+    /**
+     * Checks whether the published document holds the passed version of the passed draft. The version alone is not
+     * enough: the published document can have been published from another draft, or from an earlier draft with the
+     * same name which was deleted since, and which versions started over.
+     * 
+     * @param targetDocument the published document
+     * @param draftDocument the draft
+     * @param version a version of the draft
+     * @return {@code true} if the workflow object of the published document records the publication of this version of
+     *         this draft
+     */
+    private boolean holdsPublication(XWikiDocument targetDocument, XWikiDocument draftDocument, String version)
+    {
+        BaseObject targetWorkflow = targetDocument.getXObject(PUBLICATION_WORKFLOW_CLASS);
+        return !targetDocument.isNew() && targetWorkflow != null && !StringUtils.isEmpty(version)
+            && version.equals(targetWorkflow.getStringValue(WF_PUBLISHED_VERSION_FIELDNAME))
+            && getPublicationSource(draftDocument).equals(targetWorkflow.getStringValue(WF_PUBLISHED_FROM_FIELDNAME));
+    }
+
+    /**
+     * @param draftDocument a draft
+     * @return the identity of the draft recorded on its published document: its reference and its creation date, in
+     *         seconds since the database might not keep the milliseconds, so that a draft created again with the same
+     *         name is a different draft
+     */
+    protected String getPublicationSource(XWikiDocument draftDocument)
+    {
+        Date creationDate = draftDocument.getCreationDate();
+        return stringSerializer.serialize(draftDocument.getDocumentReference()) + '@'
+            + (creationDate != null ? creationDate.getTime() / 1000L : 0L);
+    }
+
+    /**
+     * Copies the draft to its published document and sets up the workflow object of the published document, without
+     * saving it.
+     * 
+     * @param draftDocument the draft being published
+     * @param targetDocument the published document
+     * @param workflow the workflow object of the draft
+     * @param target the serialized reference of the published document, as stored in the workflow object of the draft
+     * @param publishedVersion the version of the draft being published
+     * @param xcontext the xwiki context
+     * @throws XWikiException if the attachments cannot be copied
+     */
+    protected void preparePublishedDocument(XWikiDocument draftDocument, XWikiDocument targetDocument,
+        BaseObject workflow, String target, String publishedVersion, XWikiContext xcontext) throws XWikiException
+    {
+        try {
+            if (isPublishedFrom(targetDocument, draftDocument, workflow)) {
+                this.copyChangesToNewVersion(draftDocument, targetDocument, xcontext);
+            } else {
+                // don't rewrite the attachments which were not changed in the draft
+                this.copyContentsToNewVersion(draftDocument, targetDocument, true, xcontext);
+            }
+        } catch (IOException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Error accessing attachments when copying document "
+                    + stringSerializer.serialize(draftDocument.getDocumentReference()) + " to document "
+                    + stringSerializer.serialize(targetDocument.getDocumentReference()), e);
+        }
+
+        // published document is visible
+        targetDocument.setHidden(false);
+        // setup the workflow and target flag, if a workflow doesn't exist already
+        BaseObject targetWorkflow = targetDocument.getXObject(PUBLICATION_WORKFLOW_CLASS);
+        if (targetWorkflow == null) {
+            targetWorkflow = targetDocument.newXObject(PUBLICATION_WORKFLOW_CLASS, xcontext);
+            targetWorkflow.set(WF_STATUS_FIELDNAME, STATUS_PUBLISHED, xcontext);
+            targetWorkflow.set(WF_IS_TARGET_FIELDNAME, 1, xcontext);
+            targetWorkflow.set(WF_TARGET_FIELDNAME, target, xcontext);
+            targetWorkflow.set(WF_CONFIG_REF_FIELDNAME, workflow.getStringValue(WF_CONFIG_REF_FIELDNAME), xcontext);
+        }
+        targetWorkflow.set(WF_PUBLISHED_VERSION_FIELDNAME, publishedVersion, xcontext);
+        targetWorkflow.set(WF_PUBLISHED_FROM_FIELDNAME, getPublicationSource(draftDocument), xcontext);
+    }
+
+    /**
+     * Checks whether the published document was already published from the passed version of its draft. Since the
+     * draft gets a new version when its status is saved by the publication, this only happens when the publication
+     * failed after saving the published document and couldn't be undone, in which case publishing again only has to
+     * save the draft. The draft is checked along with its version, since another draft, or a draft created again
+     * with the same name, can have the same version.
+     * 
+     * @param targetDocument the published document
+     * @param draftDocument the draft being published
+     * @param publishedVersion the current version of the draft
+     * @return {@code true} if the published document holds this version of this draft
+     */
+    protected boolean isPublishedVersion(XWikiDocument targetDocument, XWikiDocument draftDocument,
+        String publishedVersion)
+    {
+        return holdsPublication(targetDocument, draftDocument, publishedVersion);
+    }
+
     /**
      * Cleans up the irrelevant data from the passed document, for merge and comparison between draft document and
      * published document. This function alters its parameter. By default it removes rights objects, comments, and the
@@ -969,12 +1427,10 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
      */
     protected void cleanUpIrrelevantDataFromDoc(XWikiDocument document, XWikiContext xcontext)
     {
-        document.removeXObjects(explicitReferenceDocRefResolver.resolve(COMMENTS_CLASS,
-            document.getDocumentReference()));
-        document.removeXObjects(explicitReferenceDocRefResolver.resolve(RIGHTS_CLASS,
-            document.getDocumentReference()));
-        document.removeXObjects(explicitReferenceDocRefResolver.resolve(PUBLICATION_WORKFLOW_CLASS,
-            document.getDocumentReference()));
+        for (EntityReference irrelevantClass : IRRELEVANT_CLASSES) {
+            document.removeXObjects(explicitReferenceDocRefResolver.resolve(irrelevantClass,
+                document.getDocumentReference()));
+        }
     }
 
     /**
@@ -1003,6 +1459,97 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         setupDraftAccess(doc, workflowObj, xcontext);
     }
 
+    @Override
+    public Job startBulkTransition(BulkTransitionRequest request) throws XWikiException
+    {
+        try {
+            return this.jobManager.addJob(BulkTransitionJob.JOBTYPE, request);
+        } catch (JobException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_PLUGINS, XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Failed to start the bulk " + request.getTransition() + " of " + request.getDocuments().size()
+                    + " documents", e);
+        }
+    }
+
+    @Override
+    public Job publishAll(Collection<DocumentReference> documents) throws XWikiException
+    {
+        return startBulkTransition(WorkflowTransitionEvent.PUBLISH, documents);
+    }
+
+    @Override
+    public Job validateAll(Collection<DocumentReference> documents) throws XWikiException
+    {
+        return startBulkTransition(WorkflowTransitionEvent.VALIDATE, documents);
+    }
+
+    @Override
+    public Job submitForValidationAll(Collection<DocumentReference> documents) throws XWikiException
+    {
+        return startBulkTransition(WorkflowTransitionEvent.SUBMIT_FOR_VALIDATION, documents);
+    }
+
+    @Override
+    public Job submitForModerationAll(Collection<DocumentReference> documents) throws XWikiException
+    {
+        return startBulkTransition(WorkflowTransitionEvent.SUBMIT_FOR_MODERATION, documents);
+    }
+
+    /**
+     * Starts the passed transition on the passed documents, on behalf of the current user.
+     * 
+     * @param transition the transition to run
+     * @param documents the documents to run the transition on
+     * @return the started job
+     * @throws XWikiException in case the job cannot be started
+     */
+    private Job startBulkTransition(String transition, Collection<DocumentReference> documents)
+        throws XWikiException
+    {
+        return startBulkTransition(new BulkTransitionRequest(transition, documents, getXContext().getUserReference()));
+    }
+
+    @Override
+    public BulkTransitionStatus getBulkTransitionStatus(String transition, DocumentReference user)
+    {
+        JobStatus status = this.jobManager.getJobStatus(BulkTransitionRequest.getId(transition, user));
+        if (status instanceof BulkTransitionJobStatus) {
+            return new BulkTransitionStatus(status, ((BulkTransitionJobStatus) status).getResults());
+        }
+        return null;
+    }
+
+    /**
+     * Clears a scheduling date of a workflow object, once the transition it scheduled ran, so that the scheduler
+     * doesn't run it again after a restart or when the document comes back to the same status.
+     * 
+     * @param workflow the workflow object
+     * @param field the scheduling field
+     * @return {@code true} if there was a date to clear, {@code false} otherwise
+     */
+    private boolean clearScheduledDate(BaseObject workflow, String field)
+    {
+        if (workflow.getDateValue(field) == null) {
+            return false;
+        }
+        workflow.setDateValue(field, null);
+        return true;
+    }
+
+    /**
+     * Notifies the listeners that a transition happened on the passed document, after it was saved.
+     * 
+     * @param document the document on which the transition happened
+     * @param transition the transition, one of the constants of {@link WorkflowTransitionEvent}
+     * @param reason the reason given for the transition, if any
+     * @param xcontext the context of the current request
+     */
+    protected void notifyTransition(XWikiDocument document, String transition, String reason, XWikiContext xcontext)
+    {
+        observationManagerProvider.get().notify(
+            new WorkflowTransitionEvent(document.getDocumentReference(), transition, reason), document, xcontext);
+    }
+
     protected BaseObject validateWorkflow(XWikiDocument document, List<String> expectedStatuses,
         Integer expectedIsTarget, XWikiContext xcontext) throws XWikiException
     {
@@ -1056,13 +1603,13 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         // to build the string we either need to know the separator, or we need to do this bad workaround to make
         // GroupsClass build the property value
         PropertyClass groupsPropClass = (PropertyClass) rightsObject.getXClass(context).get(RIGHTS_GROUPS);
-        BaseProperty groupsProperty = groupsPropClass.fromStringArray((String[]) groups.toArray());
+        BaseProperty groupsProperty = groupsPropClass.fromStringArray(groups.toArray(new String[groups.size()]));
         rightsObject.set(RIGHTS_GROUPS, groupsProperty.getValue(), context);
         PropertyClass usersPropClass = (PropertyClass) rightsObject.getXClass(context).get(RIGHTS_USERS);
-        BaseProperty usersProperty = usersPropClass.fromStringArray((String[]) users.toArray());
+        BaseProperty usersProperty = usersPropClass.fromStringArray(users.toArray(new String[users.size()]));
         rightsObject.set(RIGHTS_USERS, usersProperty.getValue(), context);
         PropertyClass levelsPropClass = (PropertyClass) rightsObject.getXClass(context).get(RIGHTS_LEVELS);
-        BaseProperty levelsProperty = levelsPropClass.fromStringArray((String[]) levels.toArray());
+        BaseProperty levelsProperty = levelsPropClass.fromStringArray(levels.toArray(new String[levels.size()]));
         rightsObject.set(RIGHTS_LEVELS, levelsProperty.getValue(), context);
     }
 
@@ -1136,6 +1683,64 @@ public class DefaultPublicationWorkflow implements PublicationWorkflow
         }
     }
 
+    /**
+     * Saves a document changed by a workflow transition, flagging the context so that the roles enforcer doesn't
+     * restore the workflow object.
+     * 
+     * @param document the document to save
+     * @param message the save comment
+     * @param isMinorEdit whether the save is a minor edit
+     * @param xcontext the xwiki context
+     * @throws XWikiException if the document cannot be saved
+     */
+    protected void saveWorkflowDocument(XWikiDocument document, String message, boolean isMinorEdit,
+        XWikiContext xcontext) throws XWikiException
+    {
+        // a transition can be started by a listener of another transition's save, only clear the flag if we set it
+        boolean alreadyInTransition = xcontext.get(CONTEXTKEY_TRANSITION) != null;
+        WorkflowMetrics.Timer timer = metrics.start(WorkflowMetrics.SAVE, document.getDocumentReference());
+        try {
+            xcontext.put(CONTEXTKEY_TRANSITION, true);
+            xcontext.getWiki().saveDocument(document, message, isMinorEdit, xcontext);
+            timer.succeeded();
+        } finally {
+            timer.stop();
+            if (!alreadyInTransition) {
+                xcontext.remove(CONTEXTKEY_TRANSITION);
+            }
+        }
+    }
+
+    /**
+     * Copies the translations of a document to another document once its default locale is saved, see
+     * {@link TranslationCopier}. The context is flagged as in a transition, like for
+     * {@link #saveWorkflowDocument(XWikiDocument, String, boolean, XWikiContext)}, and the flag is inherited by the
+     * contexts of the locales copied concurrently.
+     * 
+     * @param fromDocument the document to copy the translations of
+     * @param toDocument the document to copy the translations to
+     * @param message the save comment
+     * @param xcontext the xwiki context
+     * @throws XWikiException if a translation cannot be copied or deleted
+     */
+    protected void copyTranslations(XWikiDocument fromDocument, XWikiDocument toDocument, String message,
+        XWikiContext xcontext) throws XWikiException
+    {
+        boolean alreadyInTransition = xcontext.get(CONTEXTKEY_TRANSITION) != null;
+        WorkflowMetrics.Timer timer =
+            metrics.start(WorkflowMetrics.COPY_TRANSLATIONS, toDocument.getDocumentReference());
+        try {
+            xcontext.put(CONTEXTKEY_TRANSITION, true);
+            translationCopier.copyTranslations(fromDocument, toDocument, message, xcontext);
+            timer.succeeded();
+        } finally {
+            timer.stop();
+            if (!alreadyInTransition) {
+                xcontext.remove(CONTEXTKEY_TRANSITION);
+            }
+        }
+    }
+
     /**
      * @return the xwiki context from the execution context
      */
@@ -0,0 +1,330 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang.StringUtils;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Default {@link RecipientResolver}. The members of the groups are read level by level and the emails of the users
+ * are read all at once, with batched queries on the objects instead of loading the document of each member, and both
+ * are kept in LRU caches.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultRecipientResolver implements RecipientResolver, Initializable, Disposable
+{
+    /**
+     * The reference to the users class, relative to the current wiki.
+     */
+    public static final EntityReference USERS_CLASS = new EntityReference("XWikiUsers", EntityType.DOCUMENT,
+        new EntityReference("XWiki", EntityType.SPACE));
+
+    /**
+     * The identifier of the cache of the members of the groups.
+     */
+    public static final String MEMBERS_CACHE_ID = "workflowpublication.recipients.members";
+
+    /**
+     * The identifier of the cache of the emails of the users.
+     */
+    public static final String EMAILS_CACHE_ID = "workflowpublication.recipients.emails";
+
+    /**
+     * The maximum number of groups for which the members are kept in the cache.
+     */
+    public static final int MEMBERS_CACHE_SIZE = 1000;
+
+    /**
+     * The maximum number of users for which the email is kept in the cache.
+     */
+    public static final int EMAILS_CACHE_SIZE = 20000;
+
+    /**
+     * Selects the name of the group and the member for all the members of some groups, to which the condition on the
+     * names of the groups is appended.
+     */
+    public static final String MEMBERS_QUERY = "select obj.name, prop.value from BaseObject obj, StringProperty prop "
+        + "where obj.className = 'XWiki.XWikiGroups' and prop.id.id = obj.id and prop.id.name = 'member'";
+
+    /**
+     * Selects the name of the user and the email for some users, to which the condition on the names of the users is
+     * appended.
+     */
+    public static final String EMAILS_QUERY = "select obj.name, prop.value from BaseObject obj, StringProperty prop "
+        + "where obj.className = 'XWiki.XWikiUsers' and prop.id.id = obj.id and prop.id.name = 'email'";
+
+    /**
+     * The maximum number of names passed to a query at once, to stay under the limits of the databases.
+     */
+    private static final int QUERY_BATCH_SIZE = 500;
+
+    @Inject
+    protected CacheManager cacheManager;
+
+    /**
+     * To record the hit ratio of the caches.
+     */
+    @Inject
+    protected WorkflowMetrics metrics;
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<String> explicitStringDocRefResolver;
+
+    /**
+     * Reference string serializer.
+     */
+    @Inject
+    protected EntityReferenceSerializer<String> stringSerializer;
+
+    /**
+     * Serializer for the names of the documents in their wiki, as stored in the objects.
+     */
+    @Inject
+    @Named("local")
+    protected EntityReferenceSerializer<String> localSerializer;
+
+    /**
+     * The members of the groups, on all levels, by serialized reference of the group.
+     */
+    private Cache<Collection<DocumentReference>> membersCache;
+
+    /**
+     * The emails of the users, empty for the users without email, by serialized reference of the user.
+     */
+    private Cache<String> emailsCache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.membersCache = this.cacheManager.createNewCache(getCacheConfiguration(MEMBERS_CACHE_ID,
+                MEMBERS_CACHE_SIZE));
+            this.emailsCache = this.cacheManager.createNewCache(getCacheConfiguration(EMAILS_CACHE_ID,
+                EMAILS_CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the workflow recipients caches", e);
+        }
+    }
+
+    /**
+     * @param id the identifier of the cache
+     * @param size the maximum number of entries of the cache
+     * @return the configuration of an LRU cache with the passed identifier and size
+     */
+    private CacheConfiguration getCacheConfiguration(String id, int size)
+    {
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setConfigurationId(id);
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(size);
+        configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+        return configuration;
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.membersCache.dispose();
+        this.emailsCache.dispose();
+    }
+
+    @Override
+    public Collection<String> getEmails(DocumentReference groupOrUser, XWikiContext xcontext) throws XWikiException
+    {
+        Set<String> emails = new LinkedHashSet<String>();
+
+        // the emails which are not in the cache, by wiki and by name of the user in its wiki
+        Map<String, Map<String, DocumentReference>> missing = new HashMap<String, Map<String, DocumentReference>>();
+        for (DocumentReference member : getMembers(groupOrUser, xcontext)) {
+            String email = this.emailsCache.get(stringSerializer.serialize(member));
+            this.metrics.recordCacheAccess(EMAILS_CACHE_ID, email != null);
+            if (email == null) {
+                String wiki = member.getWikiReference().getName();
+                Map<String, DocumentReference> wikiMissing = missing.get(wiki);
+                if (wikiMissing == null) {
+                    wikiMissing = new LinkedHashMap<String, DocumentReference>();
+                    missing.put(wiki, wikiMissing);
+                }
+                wikiMissing.put(localSerializer.serialize(member), member);
+            } else if (email.length() > 0) {
+                emails.add(email);
+            }
+        }
+
+        for (Map.Entry<String, Map<String, DocumentReference>> wikiMissing : missing.entrySet()) {
+            Map<String, String> found = new HashMap<String, String>();
+            for (Object[] row : search(EMAILS_QUERY, wikiMissing.getKey(), wikiMissing.getValue().keySet(), xcontext)) {
+                found.put((String) row[0], (String) row[1]);
+            }
+            for (Map.Entry<String, DocumentReference> user : wikiMissing.getValue().entrySet()) {
+                // remember the members which are not users or have no email as well, so that they're not read again
+                String email = StringUtils.defaultString(found.get(user.getKey()));
+                this.emailsCache.set(stringSerializer.serialize(user.getValue()), email);
+                if (email.length() > 0) {
+                    emails.add(email);
+                }
+            }
+        }
+
+        return emails;
+    }
+
+    /**
+     * Gets all the members of the passed group, on all levels, including the group itself.
+     *
+     * @param group the group to get the members of
+     * @param xcontext the context of the current request
+     * @return the members of the group
+     * @throws XWikiException in case the members cannot be read
+     */
+    protected Collection<DocumentReference> getMembers(DocumentReference group, XWikiContext xcontext)
+        throws XWikiException
+    {
+        String key = stringSerializer.serialize(group);
+        Collection<DocumentReference> members = this.membersCache.get(key);
+        this.metrics.recordCacheAccess(MEMBERS_CACHE_ID, members != null);
+        if (members != null) {
+            return members;
+        }
+
+        // walk the groups level by level, without walking the same group twice, which also protects us from cycles
+        Set<DocumentReference> visited = new LinkedHashSet<DocumentReference>();
+        visited.add(group);
+        List<DocumentReference> level = Collections.singletonList(group);
+        while (!level.isEmpty()) {
+            List<DocumentReference> nextLevel = new ArrayList<DocumentReference>();
+            for (Map.Entry<String, Map<String, DocumentReference>> wikiGroups : groupByWiki(level).entrySet()) {
+                for (Object[] row : search(MEMBERS_QUERY, wikiGroups.getKey(), wikiGroups.getValue().keySet(),
+                    xcontext)) {
+                    DocumentReference groupRef = wikiGroups.getValue().get(row[0]);
+                    String member = (String) row[1];
+                    if (groupRef == null || StringUtils.isEmpty(member)) {
+                        continue;
+                    }
+                    DocumentReference memberRef = explicitStringDocRefResolver.resolve(member, groupRef);
+                    if (visited.add(memberRef)) {
+                        nextLevel.add(memberRef);
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+
+        members = Collections.unmodifiableCollection(new ArrayList<DocumentReference>(visited));
+        this.membersCache.set(key, members);
+        return members;
+    }
+
+    /**
+     * @param references some document references
+     * @return the passed references, by wiki and by name in their wiki
+     */
+    private Map<String, Map<String, DocumentReference>> groupByWiki(Collection<DocumentReference> references)
+    {
+        Map<String, Map<String, DocumentReference>> byWiki = new HashMap<String, Map<String, DocumentReference>>();
+        for (DocumentReference reference : references) {
+            String wiki = reference.getWikiReference().getName();
+            Map<String, DocumentReference> wikiReferences = byWiki.get(wiki);
+            if (wikiReferences == null) {
+                wikiReferences = new LinkedHashMap<String, DocumentReference>();
+                byWiki.put(wiki, wikiReferences);
+            }
+            wikiReferences.put(localSerializer.serialize(reference), reference);
+        }
+        return byWiki;
+    }
+
+    /**
+     * Runs the passed query on the objects of the documents with the passed names, in batches.
+     *
+     * @param query the query to run, to which the condition on the names is appended
+     * @param wiki the wiki to run the query in
+     * @param names the names of the documents of the objects
+     * @param xcontext the context of the current request
+     * @return the results of all the batches
+     * @throws XWikiException in case the query fails
+     */
+    private List<Object[]> search(String query, String wiki, Collection<String> names, XWikiContext xcontext)
+        throws XWikiException
+    {
+        List<Object[]> results = new ArrayList<Object[]>();
+        List<String> allNames = new ArrayList<String>(names);
+        String originalDatabase = xcontext.getDatabase();
+        try {
+            xcontext.setDatabase(wiki);
+            for (int start = 0; start < allNames.size(); start += QUERY_BATCH_SIZE) {
+                List<String> batch = allNames.subList(start, Math.min(allNames.size(), start + QUERY_BATCH_SIZE));
+                String batchQuery = query + " and obj.name in (" + StringUtils.repeat("?", ", ", batch.size()) + ")";
+                List<Object[]> batchResults = xcontext.getWiki().getStore().search(batchQuery, 0, 0, batch, xcontext);
+                results.addAll(batchResults);
+            }
+        } finally {
+            xcontext.setDatabase(originalDatabase);
+        }
+        return results;
+    }
+
+    @Override
+    public void invalidateGroups()
+    {
+        this.membersCache.removeAll();
+    }
+
+    @Override
+    public void invalidateUser(DocumentReference user)
+    {
+        this.emailsCache.remove(stringSerializer.serialize(user));
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
+/**
+ * Default {@link TranslationCopier}, copying the locales on a fixed pool of workers, each locale in its own execution
+ * context with a copy of the context of the caller. When there is a single locale to copy, when the pool has a single
+ * thread or when the caller is in a store transaction (see {@link WorkflowTransactionManager}), the locales are copied
+ * by the caller, since the workers can't share its transaction. With the Hibernate store, publishing is done in a store
+ * transaction, so the locales are copied concurrently only when creating a draft and when unpublishing, which are not
+ * transactional. With the other stores, or when the store transaction is disabled, publishing copies them concurrently
+ * too. The copy of the context of a worker doesn't hold the Hibernate session of the caller, a session not being
+ * usable from several threads: each worker opens its own. The pool is configured in xwiki.properties:
+ * <ul>
+ * <li>{@value #CONFIG_THREADS}: the number of locales copied at the same time, defaults to 4</li>
+ * </ul>
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultTranslationCopier implements TranslationCopier, Initializable, Disposable
+{
+    /**
+     * The prefix of the configuration properties of the translations copy.
+     */
+    public static final String CONFIG_PREFIX = "workflowpublication.translations.";
+
+    /**
+     * The property configuring the number of workers.
+     */
+    public static final String CONFIG_THREADS = CONFIG_PREFIX + "threads";
+
+    /**
+     * The key of the xwiki context in the execution context.
+     */
+    private static final String XWIKICONTEXT_KEY = "xwikicontext";
+
+    /**
+     * The key of the Hibernate session in the xwiki context, see {@code XWikiHibernateBaseStore}.
+     */
+    private static final String HIBERNATE_SESSION_KEY = "hibsession";
+
+    /**
+     * The key of the Hibernate transaction in the xwiki context, see {@code XWikiHibernateBaseStore}.
+     */
+    private static final String HIBERNATE_TRANSACTION_KEY = "hibtransaction";
+
+    /**
+     * How long to wait for the workers to finish the copies in progress when shutting down, in seconds.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10;
+
+    @Inject
+    @Named("xwikiproperties")
+    protected ConfigurationSource configuration;
+
+    /**
+     * The execution, to get the context from it.
+     */
+    @Inject
+    protected Execution execution;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * The workers, {@code null} if the locales are copied by the caller.
+     */
+    private ExecutorService workers;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int threads = this.configuration.getProperty(CONFIG_THREADS, 4);
+        if (threads <= 1) {
+            return;
+        }
+
+        this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "Publication workflow translations " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.workers == null) {
+            return;
+        }
+        this.workers.shutdownNow();
+        try {
+            this.workers.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int copyTranslations(XWikiDocument fromDocument, XWikiDocument toDocument, String message,
+        XWikiContext xcontext) throws XWikiException
+    {
+        // list the translations of both documents once, the target of a first publication has none
+        List<String> fromLanguages = xcontext.getWiki().getStore().getTranslationList(fromDocument, xcontext);
+        List<String> toLanguages =
+            toDocument.isNew() ? Collections.<String>emptyList() : xcontext.getWiki().getStore()
+                .getTranslationList(toDocument, xcontext);
+
+        List<TranslationTask> tasks = new ArrayList<TranslationTask>();
+        for (String language : fromLanguages) {
+            tasks.add(new TranslationTask(fromDocument.getDocumentReference(), toDocument.getDocumentReference(),
+                language, message, false));
+        }
+        for (String language : toLanguages) {
+            if (!fromLanguages.contains(language)) {
+                tasks.add(new TranslationTask(fromDocument.getDocumentReference(), toDocument.getDocumentReference(),
+                    language, message, true));
+            }
+        }
+
+        // the workers don't share the store transaction of the caller, if any
+        if (this.workers == null || tasks.size() <= 1
+            || xcontext.get(DefaultWorkflowTransactionManager.CONTEXTKEY_STORE_TRANSACTION) != null) {
+            int changed = 0;
+            for (TranslationTask task : tasks) {
+                if (task.execute(xcontext)) {
+                    changed++;
+                }
+            }
+            return changed;
+        }
+
+        return this.executeConcurrently(tasks, xcontext);
+    }
+
+    /**
+     * Executes the passed tasks on the workers, each with its own copy of the passed context, and waits for all of them
+     * to finish.
+     */
+    private int executeConcurrently(List<TranslationTask> tasks, XWikiContext xcontext) throws XWikiException
+    {
+        List<Future< ? >> futures = new ArrayList<Future< ? >>(tasks.size());
+        for (TranslationTask task : tasks) {
+            futures.add(this.workers.submit(new TranslationWorker(task, copyContext(xcontext))));
+        }
+
+        int changed = 0;
+        XWikiException error = null;
+        for (int i = 0; i < tasks.size(); i++) {
+            TranslationTask task = tasks.get(i);
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.error = e;
+            } catch (ExecutionException e) {
+                task.error = e.getCause();
+            }
+            if (task.error != null) {
+                // wait for the other locales before failing, so that no save is still running when the caller returns
+                logger.error("Failed to copy the translation [{}] of document [{}]", task.language, task.fromReference,
+                    task.error);
+                if (error == null) {
+                    error = task.error instanceof XWikiException ? (XWikiException) task.error : new XWikiException(
+                        XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_UNKNOWN,
+                        "Error copying the translation " + task.language + " of document " + task.fromReference
+                            + " to document " + task.toReference, task.error);
+                }
+            } else if (task.changed) {
+                changed++;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return a copy of the passed context for a worker, without the Hibernate session and transaction of the caller:
+     *         the copy of the context is shallow and the store would use them from the worker
+     */
+    private XWikiContext copyContext(XWikiContext xcontext)
+    {
+        XWikiContext copy = (XWikiContext) xcontext.clone();
+        copy.remove(HIBERNATE_SESSION_KEY);
+        copy.remove(HIBERNATE_TRANSACTION_KEY);
+
+        return copy;
+    }
+
+    /**
+     * Copies a translation of a document over the translation in the same locale of another document.
+     *
+     * @return {@code true} if the translation was saved, {@code false} if it was already identical
+     */
+    private boolean copyTranslation(DocumentReference fromReference, DocumentReference toReference, String language,
+        String message, XWikiContext xcontext) throws XWikiException
+    {
+        XWikiDocument fromTranslation = getTranslation(fromReference, language, xcontext);
+        XWikiDocument toTranslation = getTranslation(toReference, language, xcontext);
+        if (!toTranslation.isNew() && StringUtils.equals(fromTranslation.getContent(), toTranslation.getContent())
+            && StringUtils.equals(fromTranslation.getTitle(), toTranslation.getTitle())
+            && ObjectUtils.equals(fromTranslation.getSyntax(), toTranslation.getSyntax())) {
+            return false;
+        }
+
+        if (toTranslation.isNew()) {
+            toTranslation.setTranslation(1);
+            toTranslation.setDefaultLanguage(fromTranslation.getDefaultLanguage());
+            toTranslation.setCreatorReference(xcontext.getUserReference());
+        }
+        toTranslation.setContent(fromTranslation.getContent());
+        toTranslation.setTitle(fromTranslation.getTitle());
+        toTranslation.setSyntax(fromTranslation.getSyntax());
+        toTranslation.setAuthorReference(xcontext.getUserReference());
+        toTranslation.setContentAuthorReference(xcontext.getUserReference());
+        xcontext.getWiki().saveDocument(toTranslation, message, false, xcontext);
+
+        return true;
+    }
+
+    /**
+     * Deletes a translation of a document, which doesn't exist anymore in the document it is copied from.
+     *
+     * @return {@code true} if the translation was deleted, {@code false} if it didn't exist
+     */
+    private boolean deleteTranslation(DocumentReference reference, String language, XWikiContext xcontext)
+        throws XWikiException
+    {
+        XWikiDocument translation = getTranslation(reference, language, xcontext);
+        if (translation.isNew()) {
+            return false;
+        }
+        // only this translation is deleted, the translation flag is set on the loaded document
+        xcontext.getWiki().deleteDocument(translation, xcontext);
+
+        return true;
+    }
+
+    /**
+     * @return the translation of the passed document in the passed language, new if it doesn't exist
+     */
+    private XWikiDocument getTranslation(DocumentReference reference, String language, XWikiContext xcontext)
+        throws XWikiException
+    {
+        XWikiDocument translation = new XWikiDocument(reference);
+        translation.setLanguage(language);
+
+        return xcontext.getWiki().getDocument(translation, xcontext);
+    }
+
+    /**
+     * The copy or the deletion of the translation in a locale.
+     */
+    private final class TranslationTask
+    {
+        private final DocumentReference fromReference;
+
+        private final DocumentReference toReference;
+
+        private final String language;
+
+        private final String message;
+
+        /**
+         * Whether the translation is deleted from the target document instead of being copied.
+         */
+        private final boolean delete;
+
+        /**
+         * Whether the translation was saved or deleted, set once the task is executed.
+         */
+        private boolean changed;
+
+        /**
+         * The failure of the task executed by a worker, if any.
+         */
+        private Throwable error;
+
+        private TranslationTask(DocumentReference fromReference, DocumentReference toReference, String language,
+            String message, boolean delete)
+        {
+            this.fromReference = fromReference;
+            this.toReference = toReference;
+            this.language = language;
+            this.message = message;
+            this.delete = delete;
+        }
+
+        private boolean execute(XWikiContext xcontext) throws XWikiException
+        {
+            this.changed =
+                this.delete ? deleteTranslation(this.toReference, this.language, xcontext) : copyTranslation(
+                    this.fromReference, this.toReference, this.language, this.message, xcontext);
+
+            return this.changed;
+        }
+    }
+
+    /**
+     * Executes a task in a new execution context holding the passed xwiki context.
+     */
+    private final class TranslationWorker extends AbstractXWikiRunnable
+    {
+        private final TranslationTask task;
+
+        private TranslationWorker(TranslationTask task, XWikiContext xcontext)
+        {
+            super(XWIKICONTEXT_KEY, xcontext);
+            this.task = task;
+        }
+
+        @Override
+        protected void runInternal()
+        {
+            XWikiContext xcontext = (XWikiContext) execution.getContext().getProperty(XWIKICONTEXT_KEY);
+            try {
+                this.task.execute(xcontext);
+            } catch (Exception e) {
+                // reported by the caller, which waits for all the locales
+                this.task.error = e;
+            }
+        }
+    }
+}
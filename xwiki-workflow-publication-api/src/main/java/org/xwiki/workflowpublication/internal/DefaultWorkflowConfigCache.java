@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Default {@link WorkflowConfigCache}, storing clones of the config objects in an LRU cache.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultWorkflowConfigCache implements WorkflowConfigCache, Initializable, Disposable
+{
+    /**
+     * The identifier of the cache.
+     */
+    public static final String CACHE_ID = "workflowpublication.configs";
+
+    /**
+     * The maximum number of workflow configs kept in the cache.
+     */
+    public static final int CACHE_SIZE = 500;
+
+    @Inject
+    protected CacheManager cacheManager;
+
+    /**
+     * To record the hit ratio of the cache.
+     */
+    @Inject
+    protected WorkflowMetrics metrics;
+
+    /**
+     * Reference string serializer.
+     */
+    @Inject
+    protected EntityReferenceSerializer<String> stringSerializer;
+
+    /**
+     * The config objects, by serialized reference of their document.
+     */
+    private Cache<BaseObject> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setConfigurationId(CACHE_ID);
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(CACHE_SIZE);
+        configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+        try {
+            this.cache = this.cacheManager.createNewCache(configuration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the workflow configs cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    @Override
+    public BaseObject get(DocumentReference configRef)
+    {
+        BaseObject config = this.cache.get(stringSerializer.serialize(configRef));
+        this.metrics.recordCacheAccess(CACHE_ID, config != null);
+        return config;
+    }
+
+    @Override
+    public void set(DocumentReference configRef, BaseObject config)
+    {
+        // store a copy so that later changes of the document in memory don't change the cached config
+        this.cache.set(stringSerializer.serialize(configRef), (BaseObject) config.clone());
+    }
+
+    @Override
+    public void remove(DocumentReference configRef)
+    {
+        this.cache.remove(stringSerializer.serialize(configRef));
+    }
+}
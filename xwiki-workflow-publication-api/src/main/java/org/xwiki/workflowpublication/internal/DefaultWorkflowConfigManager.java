@@ -24,6 +24,7 @@ import javax.inject.Named;
 
 import org.apache.commons.lang.StringUtils;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.workflowpublication.PublicationWorkflow;
@@ -35,6 +36,9 @@ import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
+ * Reads the workflow configs from their documents, keeping them in the {@link WorkflowConfigCache} so that the role
+ * checks and the transitions don't need to load the config document every time.
+ * 
  * @version $Id$
  */
 @Component
@@ -53,15 +57,27 @@ public class DefaultWorkflowConfigManager implements WorkflowConfigManager
     @Named("current/reference")
     protected DocumentReferenceResolver<EntityReference> currentReferenceEntityResolver;
 
+    @Inject
+    protected WorkflowConfigCache configCache;
+
     @Override
     public BaseObject getWorkflowConfig(String workflowConfigName, XWikiContext context) throws XWikiException
     {
         if (!StringUtils.isEmpty(workflowConfigName)) {
-            XWikiDocument wfConfigDoc =
-                context.getWiki().getDocument(currentMixedStringDocRefResolver.resolve(workflowConfigName), context);
+            DocumentReference wfConfigDocRef = currentMixedStringDocRefResolver.resolve(workflowConfigName);
+            BaseObject cachedConfig = configCache.get(wfConfigDocRef);
+            if (cachedConfig != null) {
+                return cachedConfig;
+            }
+
+            XWikiDocument wfConfigDoc = context.getWiki().getDocument(wfConfigDocRef, context);
             if (wfConfigDoc != null) {
                 BaseObject wfConfigRef =
                     wfConfigDoc.getXObject(currentReferenceEntityResolver.resolve(PUBLICATION_WORKFLOW_CONFIG_CLASS));
+                // missing configs are not cached, the cache is only cleared when a config document changes
+                if (wfConfigRef != null) {
+                    configCache.set(wfConfigDocRef, wfConfigRef);
+                }
                 return wfConfigRef;
             }
         }
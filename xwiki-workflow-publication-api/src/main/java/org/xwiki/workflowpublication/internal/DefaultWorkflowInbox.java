@@ -0,0 +1,185 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.workflowpublication.PublicationRole;
+import org.xwiki.workflowpublication.PublicationRoles;
+import org.xwiki.workflowpublication.PublicationWorkflow;
+import org.xwiki.workflowpublication.WorkflowConfigManager;
+import org.xwiki.workflowpublication.WorkflowInbox;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Default {@link WorkflowInbox}: the roles of the user are computed once per workflow config used by the drafts in the
+ * given status, then the drafts of the configs which give the role are queried a page at a time.
+ * 
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultWorkflowInbox implements WorkflowInbox
+{
+    /**
+     * The condition on the drafts in a given status, joined with their workflow config.
+     */
+    public static final String DRAFTS_CONDITION =
+        " from BaseObject obj, StringProperty status, IntegerProperty istarget, StringProperty config where "
+            + "obj.className = ? and obj.id = status.id.id and status.id.name = ? and status.value = ? and "
+            + "obj.id = istarget.id.id and istarget.id.name = ? and istarget.value = 0 and obj.id = config.id.id and "
+            + "config.id.name = ?";
+
+    /**
+     * The query to get the workflow configs of the drafts in a given status.
+     */
+    public static final String CONFIGS_QUERY = "select distinct config.value" + DRAFTS_CONDITION;
+
+    /**
+     * The query to get the drafts in a given status together with their workflow config. The condition on the
+     * workflow configs and the order by name are appended to it.
+     */
+    public static final String INBOX_QUERY = "select obj.name, config.value" + DRAFTS_CONDITION;
+
+    /**
+     * The order of the drafts in the inbox.
+     */
+    private static final String INBOX_ORDER = " order by obj.name";
+
+    /**
+     * The role needed to act on the documents in each status.
+     */
+    private static final Map<String, PublicationRole> ROLE_BY_STATUS = new HashMap<String, PublicationRole>();
+
+    static {
+        ROLE_BY_STATUS.put(DefaultPublicationWorkflow.STATUS_DRAFT, PublicationRole.CONTRIBUTOR);
+        ROLE_BY_STATUS.put(DefaultPublicationWorkflow.STATUS_MODERATING, PublicationRole.MODERATOR);
+        ROLE_BY_STATUS.put(DefaultPublicationWorkflow.STATUS_VALIDATING, PublicationRole.VALIDATOR);
+        ROLE_BY_STATUS.put(DefaultPublicationWorkflow.STATUS_VALID, PublicationRole.VALIDATOR);
+    }
+
+    @Inject
+    protected PublicationRoles publicationRoles;
+
+    @Inject
+    protected WorkflowConfigManager configManager;
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<String> explicitStringDocRefResolver;
+
+    @Inject
+    @Named("compactwiki")
+    protected EntityReferenceSerializer<String> compactWikiSerializer;
+
+    @Override
+    public List<DocumentReference> getInbox(DocumentReference userRef, String status, int offset, int limit,
+        XWikiContext xcontext) throws XWikiException
+    {
+        PublicationRole role = ROLE_BY_STATUS.get(status);
+        if (role == null) {
+            return Collections.emptyList();
+        }
+
+        List<Object> params =
+            new ArrayList<Object>(Arrays.asList(
+                compactWikiSerializer.serialize(PublicationWorkflow.PUBLICATION_WORKFLOW_CLASS),
+                DefaultPublicationWorkflow.WF_STATUS_FIELDNAME, status,
+                DefaultPublicationWorkflow.WF_IS_TARGET_FIELDNAME, DefaultPublicationWorkflow.WF_CONFIG_REF_FIELDNAME));
+
+        // first the workflow configs which give the role to the user. The workflow configs are resolved relative to
+        // the current wiki, so the groups they define resolve the same way for all the documents of the wiki.
+        List<String> configNames = xcontext.getWiki().getStore().search(CONFIGS_QUERY, 0, 0, params, xcontext);
+        List<String> grantingConfigs = new ArrayList<String>();
+        // without a config the roles depend on the edit right on each document, so they're checked per document
+        Set<String> perDocumentConfigs = new HashSet<String>();
+        for (String configName : configNames) {
+            BaseObject workflowConfig = configManager.getWorkflowConfig(configName, xcontext);
+            if (workflowConfig == null) {
+                perDocumentConfigs.add(configName);
+            } else if (publicationRoles.getRoles(userRef, workflowConfig.getDocumentReference(), workflowConfig,
+                xcontext).contains(role)) {
+                grantingConfigs.add(configName);
+            }
+        }
+
+        List<String> queriedConfigs = new ArrayList<String>(grantingConfigs);
+        queriedConfigs.addAll(perDocumentConfigs);
+        if (queriedConfigs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        params.addAll(queriedConfigs);
+        String query =
+            INBOX_QUERY + " and config.value in (" + StringUtils.repeat("?", ", ", queriedConfigs.size()) + ")"
+                + INBOX_ORDER;
+
+        WikiReference wikiRef = new WikiReference(xcontext.getDatabase());
+        List<DocumentReference> inbox = new ArrayList<DocumentReference>();
+        if (perDocumentConfigs.isEmpty()) {
+            // the user has the role on all the drafts of the query, let the database do the paging
+            List<Object[]> results = xcontext.getWiki().getStore().search(query, limit, offset, params, xcontext);
+            for (Object[] result : results) {
+                inbox.add(explicitStringDocRefResolver.resolve((String) result[0], wikiRef));
+            }
+            return inbox;
+        }
+
+        // some drafts need to be checked one by one, so the paging can only be done after filtering them
+        List<Object[]> results = xcontext.getWiki().getStore().search(query, 0, 0, params, xcontext);
+        int skipped = 0;
+        for (Object[] result : results) {
+            DocumentReference documentRef = explicitStringDocRefResolver.resolve((String) result[0], wikiRef);
+            if (perDocumentConfigs.contains(result[1])
+                && !publicationRoles.getRoles(userRef, documentRef, null, xcontext).contains(role)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            inbox.add(documentRef);
+            if (limit > 0 && inbox.size() >= limit) {
+                break;
+            }
+        }
+
+        return inbox;
+    }
+}
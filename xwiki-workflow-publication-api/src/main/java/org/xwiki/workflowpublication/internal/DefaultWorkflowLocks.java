@@ -0,0 +1,87 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Default {@link WorkflowLocks}, a map of the documents in a transition to the thread running it. The lock of a
+ * document is acquired by adding it to the map, which is atomic, so two threads can't both acquire the lock of the
+ * same document, and it is released by removing it. The map only holds the documents in a transition, so the memory
+ * doesn't grow with the number of documents, and the transitions on different documents never wait for each other.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultWorkflowLocks implements WorkflowLocks
+{
+    /**
+     * The holders of the locks, by document.
+     */
+    private final ConcurrentMap<DocumentReference, Holder> holders =
+        new ConcurrentHashMap<DocumentReference, Holder>();
+
+    @Override
+    public boolean tryLock(DocumentReference target)
+    {
+        Holder holder = new Holder();
+        Holder current = this.holders.putIfAbsent(target, holder);
+        if (current == null) {
+            return true;
+        }
+        // only the holding thread changes the count, and the holder of a thread can't be replaced while it holds it
+        if (current.thread == holder.thread) {
+            current.count++;
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void unlock(DocumentReference target)
+    {
+        Holder holder = this.holders.get(target);
+        if (holder == null || holder.thread != Thread.currentThread()) {
+            throw new IllegalMonitorStateException("The workflow lock of document " + target
+                + " is not held by the current thread");
+        }
+        if (--holder.count == 0) {
+            this.holders.remove(target, holder);
+        }
+    }
+
+    /**
+     * The thread holding the lock of a document, and how many times it acquired it.
+     */
+    private static final class Holder
+    {
+        private final Thread thread = Thread.currentThread();
+
+        private int count = 1;
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Default {@link WorkflowMetrics}, keeping the values in memory and registering an MXBean per operation and wiki and
+ * per cache on the platform MBean server, the first time they are used.
+ * 
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultWorkflowMetrics implements WorkflowMetrics, WorkflowMetricsMXBean, Initializable, Disposable
+{
+    /**
+     * The JMX domain of the workflow MXBeans.
+     */
+    public static final String JMX_DOMAIN = "org.xwiki.workflowpublication";
+
+    /**
+     * The upper bounds of the buckets of the duration histograms, in milliseconds. The last bucket holds all the
+     * executions longer than the last bound.
+     */
+    private static final long[] HISTOGRAM_BOUNDS = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000};
+
+    /**
+     * Separates the operation from the wiki in the keys of the operations map.
+     */
+    private static final char KEY_SEPARATOR = '|';
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The metrics of the operations, by operation and wiki.
+     */
+    private final ConcurrentMap<String, OperationMetrics> operations =
+        new ConcurrentHashMap<String, OperationMetrics>();
+
+    /**
+     * The metrics of the caches, by cache identifier.
+     */
+    private final ConcurrentMap<String, CacheMetrics> caches = new ConcurrentHashMap<String, CacheMetrics>();
+
+    /**
+     * The attachment bytes copied, by wiki.
+     */
+    private final ConcurrentMap<String, AtomicLong> attachmentBytes = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * The transitions refused because the document was already in a transition, by operation.
+     */
+    private final ConcurrentMap<String, AtomicLong> lockRefusals = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * The names of the MXBeans registered by this component, to unregister them on dispose.
+     */
+    private final Set<ObjectName> registeredNames =
+        Collections.newSetFromMap(new ConcurrentHashMap<ObjectName, Boolean>());
+
+    /**
+     * The server to register the MXBeans on.
+     */
+    private MBeanServer mbeanServer;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        register(this, "type=Workflow");
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        for (ObjectName name : this.registeredNames) {
+            try {
+                this.mbeanServer.unregisterMBean(name);
+            } catch (JMException e) {
+                this.logger.debug("Failed to unregister workflow MXBean [{}]", name, e);
+            }
+        }
+        this.registeredNames.clear();
+    }
+
+    @Override
+    public Timer start(String operation, String wiki)
+    {
+        return new OperationTimer(getOperation(operation, wiki));
+    }
+
+    @Override
+    public Timer start(String operation, EntityReference reference)
+    {
+        EntityReference wikiReference = reference != null ? reference.extractReference(EntityType.WIKI) : null;
+        return start(operation, wikiReference != null ? wikiReference.getName() : "");
+    }
+
+    @Override
+    public void addAttachmentBytesCopied(String wiki, long bytes)
+    {
+        getCounter(this.attachmentBytes, wiki).addAndGet(bytes);
+    }
+
+    @Override
+    public void recordCacheAccess(String cache, boolean hit)
+    {
+        CacheMetrics metrics = this.caches.get(cache);
+        if (metrics == null) {
+            CacheMetrics newMetrics = new CacheMetrics(cache);
+            metrics = this.caches.putIfAbsent(cache, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+                register(metrics, "type=Cache,name=" + ObjectName.quote(cache));
+            }
+        }
+        (hit ? metrics.hits : metrics.misses).incrementAndGet();
+    }
+
+    @Override
+    public void recordLockRefusal(String operation)
+    {
+        getCounter(this.lockRefusals, operation).incrementAndGet();
+    }
+
+    @Override
+    public Collection<OperationMetricsMXBean> getOperations()
+    {
+        return new ArrayList<OperationMetricsMXBean>(this.operations.values());
+    }
+
+    @Override
+    public Collection<CacheMetricsMXBean> getCaches()
+    {
+        return new ArrayList<CacheMetricsMXBean>(this.caches.values());
+    }
+
+    @Override
+    public Map<String, Long> getAttachmentBytesCopied()
+    {
+        return getValues(this.attachmentBytes);
+    }
+
+    @Override
+    public Map<String, Long> getLockRefusals()
+    {
+        return getValues(this.lockRefusals);
+    }
+
+    @Override
+    public void reset()
+    {
+        // the values are reset in place, so that the registered MXBeans stay valid
+        for (OperationMetrics metrics : this.operations.values()) {
+            metrics.reset();
+        }
+        for (CacheMetrics metrics : this.caches.values()) {
+            metrics.hits.set(0);
+            metrics.misses.set(0);
+        }
+        for (AtomicLong counter : this.attachmentBytes.values()) {
+            counter.set(0);
+        }
+        for (AtomicLong counter : this.lockRefusals.values()) {
+            counter.set(0);
+        }
+    }
+
+    /**
+     * @param counters counters by key
+     * @param key a key
+     * @return the counter of the key, created if it's the first time it is used
+     */
+    private AtomicLong getCounter(ConcurrentMap<String, AtomicLong> counters, String key)
+    {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @param counters counters by key
+     * @return the current values of the counters, by key
+     */
+    private Map<String, Long> getValues(ConcurrentMap<String, AtomicLong> counters)
+    {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().get());
+        }
+        return values;
+    }
+
+    /**
+     * @param operation the name of the operation
+     * @param wiki the wiki of the operation
+     * @return the metrics of the operation on the wiki, created and registered if it's the first execution
+     */
+    private OperationMetrics getOperation(String operation, String wiki)
+    {
+        String key = operation + KEY_SEPARATOR + wiki;
+        OperationMetrics metrics = this.operations.get(key);
+        if (metrics == null) {
+            OperationMetrics newMetrics = new OperationMetrics(operation, wiki);
+            metrics = this.operations.putIfAbsent(key, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+                register(metrics, "type=Operation,wiki=" + ObjectName.quote(wiki) + ",name=" + operation);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Registers an MXBean on the platform server. Failures are only logged, the metrics are still collected and
+     * available through the script service.
+     * 
+     * @param mxbean the MXBean to register
+     * @param properties the key properties of its name
+     */
+    private void register(Object mxbean, String properties)
+    {
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ':' + properties);
+            this.mbeanServer.registerMBean(mxbean, name);
+            this.registeredNames.add(name);
+        } catch (JMException e) {
+            this.logger.warn("Failed to register the workflow MXBean [{}]: {}", properties, e.getMessage());
+        }
+    }
+
+    /**
+     * The metrics of an operation on a wiki.
+     */
+    private static class OperationMetrics implements OperationMetricsMXBean
+    {
+        private final String operation;
+
+        private final String wiki;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong errors = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BOUNDS.length + 1);
+
+        OperationMetrics(String operation, String wiki)
+        {
+            this.operation = operation;
+            this.wiki = wiki;
+        }
+
+        void record(long nanos, boolean failed)
+        {
+            this.count.incrementAndGet();
+            if (failed) {
+                this.errors.incrementAndGet();
+            }
+            this.totalNanos.addAndGet(nanos);
+            long max = this.maxNanos.get();
+            while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) {
+                max = this.maxNanos.get();
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < HISTOGRAM_BOUNDS.length && millis > HISTOGRAM_BOUNDS[bucket]) {
+                bucket++;
+            }
+            this.histogram.incrementAndGet(bucket);
+        }
+
+        void reset()
+        {
+            this.count.set(0);
+            this.errors.set(0);
+            this.totalNanos.set(0);
+            this.maxNanos.set(0);
+            for (int i = 0; i < this.histogram.length(); i++) {
+                this.histogram.set(i, 0);
+            }
+        }
+
+        @Override
+        public String getOperation()
+        {
+            return this.operation;
+        }
+
+        @Override
+        public String getWiki()
+        {
+            return this.wiki;
+        }
+
+        @Override
+        public long getCount()
+        {
+            return this.count.get();
+        }
+
+        @Override
+        public long getErrorCount()
+        {
+            return this.errors.get();
+        }
+
+        @Override
+        public double getErrorRate()
+        {
+            long total = this.count.get();
+            return total > 0 ? (double) this.errors.get() / total : 0;
+        }
+
+        @Override
+        public double getMeanMillis()
+        {
+            long total = this.count.get();
+            return total > 0 ? this.totalNanos.get() / 1000000.0 / total : 0;
+        }
+
+        @Override
+        public double getMaxMillis()
+        {
+            return this.maxNanos.get() / 1000000.0;
+        }
+
+        @Override
+        public Map<String, Long> getHistogram()
+        {
+            Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+            for (int i = 0; i < HISTOGRAM_BOUNDS.length; i++) {
+                buckets.put("<= " + HISTOGRAM_BOUNDS[i] + "ms", this.histogram.get(i));
+            }
+            buckets.put("> " + HISTOGRAM_BOUNDS[HISTOGRAM_BOUNDS.length - 1] + "ms",
+                this.histogram.get(HISTOGRAM_BOUNDS.length));
+            return buckets;
+        }
+    }
+
+    /**
+     * The hits and misses of a cache.
+     */
+    private static class CacheMetrics implements CacheMetricsMXBean
+    {
+        private final String name;
+
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
+
+        CacheMetrics(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public String getName()
+        {
+            return this.name;
+        }
+
+        @Override
+        public long getHits()
+        {
+            return this.hits.get();
+        }
+
+        @Override
+        public long getMisses()
+        {
+            return this.misses.get();
+        }
+
+        @Override
+        public double getHitRatio()
+        {
+            long hitCount = this.hits.get();
+            long total = hitCount + this.misses.get();
+            return total > 0 ? (double) hitCount / total : 0;
+        }
+    }
+
+    /**
+     * Measures one execution of an operation.
+     */
+    private static class OperationTimer implements Timer
+    {
+        private final OperationMetrics metrics;
+
+        private final long start = System.nanoTime();
+
+        private final AtomicBoolean stopped = new AtomicBoolean();
+
+        private boolean success;
+
+        OperationTimer(OperationMetrics metrics)
+        {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void succeeded()
+        {
+            this.success = true;
+        }
+
+        @Override
+        public <T> T succeeded(T result)
+        {
+            this.success = true;
+            return result;
+        }
+
+        @Override
+        public void stop()
+        {
+            if (this.stopped.compareAndSet(false, true)) {
+                this.metrics.record(System.nanoTime() - this.start, !this.success);
+            }
+        }
+    }
+}
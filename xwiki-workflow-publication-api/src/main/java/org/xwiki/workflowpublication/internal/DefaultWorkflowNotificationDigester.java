@@ -0,0 +1,231 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
+/**
+ * Default {@link WorkflowNotificationDigester}. The notifications are grouped by wiki, recipients group, sender,
+ * language and user who did the transition, and each group is flushed by a single scheduler thread when its window is
+ * over. The digest is evaluated as that user, like the notifications it lists. A digest of only one
+ * notification is sent as that notification, the others are rendered once with {@value #DIGEST_TEMPLATE}, which gets
+ * the parameters of each notification, along with its original template, in the {@value #PARAM_DOCUMENTS} list.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultWorkflowNotificationDigester implements WorkflowNotificationDigester, Initializable, Disposable
+{
+    /**
+     * The template of the digest mails.
+     */
+    public static final String DIGEST_TEMPLATE = "PublicationWorkflow.DigestMailTemplate";
+
+    /**
+     * The parameter of the digest template holding the parameters of each notification.
+     */
+    public static final String PARAM_DOCUMENTS = "documents";
+
+    /**
+     * The parameter, in each of the {@link #PARAM_DOCUMENTS}, holding the template of the notification.
+     */
+    public static final String PARAM_TEMPLATE = "template";
+
+    /**
+     * The key of the xwiki context in the execution context.
+     */
+    private static final String XWIKICONTEXT_KEY = "xwikicontext";
+
+    private static final String KEY_SEPARATOR = "|";
+
+    @Inject
+    protected WorkflowNotificationQueue queue;
+
+    @Inject
+    protected WorkflowNotificationSender sender;
+
+    /**
+     * The execution, to get the context from it.
+     */
+    @Inject
+    protected Execution execution;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * The pending digests, by recipients. Guarded by this.
+     */
+    private final Map<String, List<WorkflowNotification>> digests = new HashMap<String, List<WorkflowNotification>>();
+
+    /**
+     * The thread flushing the digests when their window is over.
+     */
+    private ScheduledExecutorService scheduler;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "Publication workflow notification digests");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.scheduler.shutdownNow();
+        // don't lose the pending digests, and send them right away since the queue might be disposed already
+        List<String> keys;
+        synchronized (this) {
+            keys = new ArrayList<String>(this.digests.keySet());
+        }
+        for (String key : keys) {
+            flush(key, false);
+        }
+    }
+
+    @Override
+    public void add(WorkflowNotification notification, int window)
+    {
+        final String key = getKey(notification);
+        synchronized (this) {
+            List<WorkflowNotification> digest = this.digests.get(key);
+            if (digest != null) {
+                digest.add(notification);
+                return;
+            }
+            digest = new ArrayList<WorkflowNotification>();
+            digest.add(notification);
+            this.digests.put(key, digest);
+        }
+        this.scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flush(key, true);
+            }
+        }, window, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param notification a notification
+     * @return the key of the digest of the passed notification, which groups the notifications of the transitions done
+     *         by the same user, since the digest is evaluated as that user
+     */
+    protected String getKey(WorkflowNotification notification)
+    {
+        return notification.getDocument().getWikiReference().getName() + KEY_SEPARATOR
+            + notification.getRecipientsGroup() + KEY_SEPARATOR + notification.getFrom() + KEY_SEPARATOR
+            + notification.getLanguage() + KEY_SEPARATOR + notification.getUser();
+    }
+
+    /**
+     * Sends the digest with the passed key, if still pending.
+     *
+     * @param key the key of the digest to send
+     * @param useQueue whether to hand the digest to the {@link WorkflowNotificationQueue} or to send it right away
+     */
+    protected void flush(String key, boolean useQueue)
+    {
+        List<WorkflowNotification> digest;
+        synchronized (this) {
+            digest = this.digests.remove(key);
+        }
+        if (digest == null || digest.isEmpty()) {
+            return;
+        }
+
+        final WorkflowNotification notification = digest.size() == 1 ? digest.get(0) : getDigestNotification(digest);
+        if (useQueue && this.queue.offer(notification)) {
+            return;
+        }
+        // the queue cannot take it, send it from here in a new execution context
+        new AbstractXWikiRunnable()
+        {
+            @Override
+            protected void runInternal()
+            {
+                XWikiContext xcontext = (XWikiContext) execution.getContext().getProperty(XWIKICONTEXT_KEY);
+                try {
+                    sender.send(notification, xcontext);
+                } catch (Exception e) {
+                    logger.error("Failed to send the workflow notifications digest to "
+                        + notification.getRecipientsGroup(), e);
+                }
+            }
+        }.run();
+    }
+
+    /**
+     * Builds the single notification listing all the notifications of the passed digest.
+     *
+     * @param digest the notifications to send at once, all to the same recipients and done by the same user
+     * @return the digest notification
+     */
+    protected WorkflowNotification getDigestNotification(List<WorkflowNotification> digest)
+    {
+        List<Map<String, Object>> documents = new ArrayList<Map<String, Object>>(digest.size());
+        for (WorkflowNotification notification : digest) {
+            Map<String, Object> document = new HashMap<String, Object>(notification.getParameters());
+            document.put(PARAM_TEMPLATE, notification.getTemplate());
+            documents.add(document);
+        }
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(PARAM_DOCUMENTS, documents);
+
+        WorkflowNotification first = digest.get(0);
+        return new WorkflowNotification(first.getDocument(), DIGEST_TEMPLATE, first.getRecipientsGroup(),
+            first.getFrom(), first.getLanguage(), first.getUser(), parameters);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
+/**
+ * Default {@link WorkflowNotificationQueue}, an in memory bounded queue drained by a fixed pool of workers. Each worker
+ * takes the notifications in batches and sends a whole batch in the same execution context. The queue is configured
+ * in xwiki.properties:
+ * <ul>
+ * <li>{@value #CONFIG_ASYNC}: whether to send the notifications in the background, defaults to true</li>
+ * <li>{@value #CONFIG_QUEUE_SIZE}: the maximum number of notifications waiting to be sent, defaults to 1000</li>
+ * <li>{@value #CONFIG_THREADS}: the number of workers, defaults to 2</li>
+ * <li>{@value #CONFIG_BATCH_SIZE}: the maximum number of notifications sent by a worker in a batch, defaults to 50</li>
+ * </ul>
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultWorkflowNotificationQueue implements WorkflowNotificationQueue, Initializable, Disposable
+{
+    /**
+     * The prefix of the configuration properties of the notifications.
+     */
+    public static final String CONFIG_PREFIX = "workflowpublication.notifications.";
+
+    /**
+     * The property configuring whether the notifications are sent in the background.
+     */
+    public static final String CONFIG_ASYNC = CONFIG_PREFIX + "async";
+
+    /**
+     * The property configuring the size of the queue.
+     */
+    public static final String CONFIG_QUEUE_SIZE = CONFIG_PREFIX + "queueSize";
+
+    /**
+     * The property configuring the number of workers.
+     */
+    public static final String CONFIG_THREADS = CONFIG_PREFIX + "threads";
+
+    /**
+     * The property configuring the size of the batches.
+     */
+    public static final String CONFIG_BATCH_SIZE = CONFIG_PREFIX + "batchSize";
+
+    /**
+     * The key of the xwiki context in the execution context.
+     */
+    private static final String XWIKICONTEXT_KEY = "xwikicontext";
+
+    /**
+     * How long to wait for the workers to send the queued notifications when shutting down, in seconds.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10;
+
+    @Inject
+    @Named("xwikiproperties")
+    protected ConfigurationSource configuration;
+
+    @Inject
+    protected WorkflowNotificationSender sender;
+
+    /**
+     * The execution, to get the context from it.
+     */
+    @Inject
+    protected Execution execution;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * The notifications waiting to be sent, {@code null} if the notifications are not sent in the background.
+     */
+    private BlockingQueue<WorkflowNotification> queue;
+
+    /**
+     * The workers.
+     */
+    private ExecutorService workers;
+
+    /**
+     * The maximum number of notifications sent by a worker at once.
+     */
+    private int batchSize;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        if (!this.configuration.getProperty(CONFIG_ASYNC, Boolean.TRUE)) {
+            return;
+        }
+
+        this.queue =
+            new ArrayBlockingQueue<WorkflowNotification>(this.configuration.getProperty(CONFIG_QUEUE_SIZE, 1000));
+        this.batchSize = this.configuration.getProperty(CONFIG_BATCH_SIZE, 50);
+        int threads = this.configuration.getProperty(CONFIG_THREADS, 2);
+        this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "Publication workflow notifications " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < threads; i++) {
+            this.workers.execute(new Worker());
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.workers == null) {
+            return;
+        }
+        // interrupt the workers: a worker waiting for a notification sends the notifications still queued and stops,
+        // a worker sending a batch does the same once the batch is sent. The notifications which are not sent before
+        // the timeout are lost
+        this.workers.shutdownNow();
+        try {
+            this.workers.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!this.queue.isEmpty()) {
+            logger.warn("{} workflow notifications were not sent before shutdown", this.queue.size());
+        }
+    }
+
+    @Override
+    public boolean offer(WorkflowNotification notification)
+    {
+        return this.queue != null && this.queue.offer(notification);
+    }
+
+    /**
+     * Takes the notifications from the queue in batches and sends them, until it is interrupted.
+     */
+    private class Worker implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            List<WorkflowNotification> batch = new ArrayList<WorkflowNotification>(batchSize);
+            while (true) {
+                try {
+                    // wait for a notification, then take the ones that are already waiting after it
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    // shutdown: send what's left and stop
+                    queue.drainTo(batch);
+                    sendBatch(batch);
+                    return;
+                }
+                queue.drainTo(batch, batchSize - 1);
+                sendBatch(batch);
+                batch.clear();
+            }
+        }
+
+        /**
+         * Sends the passed notifications in a new execution context.
+         *
+         * @param batch the notifications to send
+         */
+        private void sendBatch(final List<WorkflowNotification> batch)
+        {
+            if (batch.isEmpty()) {
+                return;
+            }
+            // the execution context is initialized with a stub xwiki context, created from the first request
+            new AbstractXWikiRunnable()
+            {
+                @Override
+                protected void runInternal()
+                {
+                    XWikiContext xcontext = (XWikiContext) execution.getContext().getProperty(XWIKICONTEXT_KEY);
+                    for (WorkflowNotification notification : batch) {
+                        try {
+                            sender.send(notification, xcontext);
+                        } catch (Exception e) {
+                            // keep the worker alive whatever happens
+                            logger.error("Failed to send the workflow notification {} for document {}",
+                                notification.getTemplate(), notification.getDocument(), e);
+                        }
+                    }
+                }
+            }.run();
+        }
+    }
+}
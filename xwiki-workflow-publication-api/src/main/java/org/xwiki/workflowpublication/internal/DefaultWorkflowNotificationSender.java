@@ -0,0 +1,133 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.plugin.mailsender.MailSenderPluginApi;
+
+/**
+ * Default {@link WorkflowNotificationSender}, sending the notifications from their template with the mail sender
+ * plugin, to the emails of the users of the recipients group and of its subgroups.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultWorkflowNotificationSender implements WorkflowNotificationSender
+{
+    /**
+     * The separator of the recipients of a mail.
+     */
+    private static final String RECIPIENTS_SEPARATOR = ", ";
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<String> explicitStringDocRefResolver;
+
+    @Inject
+    protected RecipientResolver recipientResolver;
+
+    /**
+     * Reference string serializer.
+     */
+    @Inject
+    protected EntityReferenceSerializer<String> stringSerializer;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    @Override
+    public boolean send(WorkflowNotification notification, XWikiContext xcontext)
+    {
+        // the template and the recipients are in the wiki of the document
+        String originalDatabase = xcontext.getDatabase();
+        // and the template is evaluated as the user who did the transition, like when the workflow script sent it
+        DocumentReference originalUser = xcontext.getUserReference();
+        try {
+            xcontext.setDatabase(notification.getDocument().getWikiReference().getName());
+            if (notification.getUser() != null) {
+                xcontext.setUserReference(notification.getUser());
+            }
+
+            Collection<String> recipients = getRecipients(notification, xcontext);
+            if (recipients.isEmpty()) {
+                return true;
+            }
+
+            MailSenderPluginApi mailSender =
+                (MailSenderPluginApi) xcontext.getWiki().getPluginApi("mailsender", xcontext);
+            int result =
+                mailSender.sendMessageFromTemplate(notification.getFrom(),
+                    StringUtils.join(recipients, RECIPIENTS_SEPARATOR), null, null, notification.getLanguage(),
+                    notification.getTemplate(), notification.getParameters());
+            if (result != 0) {
+                logger.warn("Could not send the workflow notification " + notification.getTemplate()
+                    + " for document " + stringSerializer.serialize(notification.getDocument()));
+                return false;
+            }
+            return true;
+        } catch (XWikiException e) {
+            logger.warn("Could not get the recipients of the workflow notification " + notification.getTemplate()
+                + " for document " + stringSerializer.serialize(notification.getDocument()), e);
+            return false;
+        } finally {
+            xcontext.setDatabase(originalDatabase);
+            xcontext.setUserReference(originalUser);
+        }
+    }
+
+    /**
+     * Gets the emails of the users of the recipients group of the passed notification and of all its subgroups. The
+     * group itself can also be a user.
+     *
+     * @param notification the notification to get the recipients of
+     * @param xcontext the context of the current request
+     * @return the emails of the recipients, without duplicates
+     * @throws XWikiException in case the members of the group cannot be read
+     */
+    protected Collection<String> getRecipients(WorkflowNotification notification, XWikiContext xcontext)
+        throws XWikiException
+    {
+        if (StringUtils.isEmpty(notification.getRecipientsGroup())) {
+            return Collections.<String> emptyList();
+        }
+        return recipientResolver.getEmails(
+            explicitStringDocRefResolver.resolve(notification.getRecipientsGroup(), notification.getDocument()),
+            xcontext);
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.workflowpublication.PublicationRoles;
+import org.xwiki.workflowpublication.PublicationWorkflow;
+import org.xwiki.workflowpublication.WorkflowTransitionEvent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+
+/**
+ * Default {@link WorkflowScheduler}, keeping the scheduled transitions in memory in a {@link DelayQueue} consumed by a
+ * single thread, which sleeps until the next transition is due. The queue is filled from the store with one query per
+ * wiki when the wiki is first available, and then kept up to date from the changes of the workflow documents, so the
+ * wiki is never polled.
+ * <p>
+ * A publication is scheduled while the draft is valid, and an archiving while the document is published: for a draft,
+ * it is its published document which gets archived. The transitions are run on behalf of the user who last changed
+ * the status of the document, if that user still has the role needed for the transition. The transition clears the
+ * date which scheduled it, and the dates which are already past when a document changes are ignored. The past dates
+ * loaded from the store at startup are run, they are the transitions missed while the wiki was stopped.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultWorkflowScheduler implements WorkflowScheduler, Initializable, Disposable
+{
+    /**
+     * Selects the name, the scheduling field, the date and the status of all the workflow documents of a wiki with a
+     * scheduled date.
+     */
+    public static final String SCHEDULED_QUERY = "select obj.name, dateProp.id.name, dateProp.value, statusProp.value "
+        + "from BaseObject obj, DateProperty dateProp, StringProperty statusProp "
+        + "where obj.className = 'PublicationWorkflow.PublicationWorkflowClass' and dateProp.id.id = obj.id "
+        + "and dateProp.id.name in ('" + DefaultPublicationWorkflow.WF_PUBLISH_AT_FIELDNAME + "', '"
+        + DefaultPublicationWorkflow.WF_ARCHIVE_AT_FIELDNAME + "') and dateProp.value is not null "
+        + "and statusProp.id.id = obj.id and statusProp.id.name = '" + DefaultPublicationWorkflow.WF_STATUS_FIELDNAME
+        + "'";
+
+    /**
+     * The fields holding the scheduled dates.
+     */
+    private static final List<String> SCHEDULING_FIELDS = Arrays.asList(
+        DefaultPublicationWorkflow.WF_PUBLISH_AT_FIELDNAME, DefaultPublicationWorkflow.WF_ARCHIVE_AT_FIELDNAME);
+
+    /**
+     * The key of the xwiki context in the execution context.
+     */
+    private static final String XWIKICONTEXT_KEY = "xwikicontext";
+
+    /**
+     * How long to wait for the wiki to be available before loading the scheduled transitions, in milliseconds.
+     */
+    private static final long STARTUP_WAIT = 10000L;
+
+    @Inject
+    protected PublicationWorkflow publicationWorkflow;
+
+    @Inject
+    protected PublicationRoles publicationRoles;
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<String> explicitStringDocRefResolver;
+
+    /**
+     * Reference string serializer.
+     */
+    @Inject
+    protected EntityReferenceSerializer<String> stringSerializer;
+
+    /**
+     * The execution, to get the context from it.
+     */
+    @Inject
+    protected Execution execution;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * The scheduled transitions, by time.
+     */
+    private final DelayQueue<ScheduledTransition> queue = new DelayQueue<ScheduledTransition>();
+
+    /**
+     * The scheduled transitions, by document and field, to replace them when the document changes.
+     */
+    private final ConcurrentMap<String, ScheduledTransition> scheduled =
+        new ConcurrentHashMap<String, ScheduledTransition>();
+
+    /**
+     * The thread running the transitions.
+     */
+    private Thread thread;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runScheduler();
+            }
+        }, "Publication workflow scheduler");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.thread.interrupt();
+    }
+
+    @Override
+    public void update(XWikiDocument document)
+    {
+        DocumentReference documentRef = document.getDocumentReference();
+        BaseObject workflow = document.getXObject(PublicationWorkflow.PUBLICATION_WORKFLOW_CLASS);
+        long now = System.currentTimeMillis();
+        for (String field : SCHEDULING_FIELDS) {
+            Date date = workflow != null ? workflow.getDateValue(field) : null;
+            // a date already past when the document changes, for example a date left over from an earlier status, is
+            // not a transition to run now
+            if (date != null && date.getTime() <= now) {
+                date = null;
+            }
+            String status = workflow != null ? workflow.getStringValue(DefaultPublicationWorkflow.WF_STATUS_FIELDNAME)
+                : null;
+            schedule(documentRef, field, date, status, true);
+        }
+    }
+
+    @Override
+    public void remove(DocumentReference document)
+    {
+        for (String field : SCHEDULING_FIELDS) {
+            schedule(document, field, null, null, true);
+        }
+    }
+
+    /**
+     * Schedules the transition of the passed field of the passed document, if any.
+     *
+     * @param document the workflow document
+     * @param field the scheduling field
+     * @param date the date set in the field, {@code null} if none
+     * @param status the current status of the document
+     * @param replace whether to replace the transition already scheduled for this field, if any. Otherwise the
+     *            scheduled transition, which is more recent, is kept
+     */
+    protected void schedule(DocumentReference document, String field, Date date, String status, boolean replace)
+    {
+        String key = getKey(document, field);
+        String transition = getTransition(field, status);
+        ScheduledTransition scheduledTransition = null;
+        if (date != null && transition != null) {
+            scheduledTransition = new ScheduledTransition(document, field, transition, date.getTime());
+        }
+
+        ScheduledTransition previous;
+        if (replace) {
+            previous =
+                scheduledTransition != null ? this.scheduled.put(key, scheduledTransition) : this.scheduled
+                    .remove(key);
+        } else {
+            if (scheduledTransition == null) {
+                return;
+            }
+            previous = this.scheduled.putIfAbsent(key, scheduledTransition);
+            if (previous != null) {
+                return;
+            }
+        }
+        if (previous != null) {
+            this.queue.remove(previous);
+        }
+        if (scheduledTransition != null) {
+            this.queue.add(scheduledTransition);
+        }
+    }
+
+    /**
+     * @param document a workflow document
+     * @param field a scheduling field
+     * @return the key of the transition scheduled by the passed field of the passed document
+     */
+    private String getKey(DocumentReference document, String field)
+    {
+        return stringSerializer.serialize(document) + '/' + field;
+    }
+
+    /**
+     * @param field a scheduling field
+     * @param status the status of the document
+     * @return the transition to schedule for the passed field in the passed status, {@code null} if none
+     */
+    protected String getTransition(String field, String status)
+    {
+        if (DefaultPublicationWorkflow.WF_PUBLISH_AT_FIELDNAME.equals(field)
+            && DefaultPublicationWorkflow.STATUS_VALID.equals(status)) {
+            return WorkflowTransitionEvent.PUBLISH;
+        }
+        if (DefaultPublicationWorkflow.WF_ARCHIVE_AT_FIELDNAME.equals(field)
+            && DefaultPublicationWorkflow.STATUS_PUBLISHED.equals(status)) {
+            return WorkflowTransitionEvent.ARCHIVE;
+        }
+        return null;
+    }
+
+    /**
+     * Loads the scheduled transitions from the store, then runs them at their time, until interrupted.
+     */
+    private void runScheduler()
+    {
+        try {
+            while (!loadScheduledTransitions()) {
+                Thread.sleep(STARTUP_WAIT);
+            }
+            while (true) {
+                final ScheduledTransition transition = this.queue.take();
+                // only run it if it was not replaced in the meantime
+                if (this.scheduled.remove(getKey(transition.getDocument(), transition.getField()), transition)) {
+                    try {
+                        new AbstractXWikiRunnable()
+                        {
+                            @Override
+                            protected void runInternal()
+                            {
+                                runTransition(transition);
+                            }
+                        }.run();
+                    } catch (RuntimeException e) {
+                        // this thread runs all the scheduled transitions, don't let one of them stop it
+                        logger.error("Failed to run the scheduled {} of document {}", transition.getTransition(),
+                            transition.getDocument(), e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // shutdown
+        }
+    }
+
+    /**
+     * Loads the transitions scheduled in all the wikis.
+     *
+     * @return {@code false} if the wiki is not available yet
+     */
+    private boolean loadScheduledTransitions()
+    {
+        final boolean[] loaded = new boolean[1];
+        new AbstractXWikiRunnable()
+        {
+            @Override
+            protected void runInternal()
+            {
+                XWikiContext xcontext = getXContext();
+                if (xcontext == null || xcontext.getWiki() == null) {
+                    return;
+                }
+                loaded[0] = true;
+                Set<String> wikis = new LinkedHashSet<String>();
+                wikis.add(xcontext.getMainXWiki());
+                try {
+                    wikis.addAll(xcontext.getWiki().getVirtualWikisDatabaseNames(xcontext));
+                } catch (XWikiException e) {
+                    logger.error("Failed to list the wikis, only the scheduled transitions of the main wiki are loaded",
+                        e);
+                }
+                for (String wiki : wikis) {
+                    loadScheduledTransitions(wiki, xcontext);
+                }
+            }
+        }.run();
+        return loaded[0];
+    }
+
+    /**
+     * Loads the transitions scheduled in the passed wiki.
+     *
+     * @param wiki the wiki
+     * @param xcontext the context
+     */
+    private void loadScheduledTransitions(String wiki, XWikiContext xcontext)
+    {
+        String originalDatabase = xcontext.getDatabase();
+        try {
+            xcontext.setDatabase(wiki);
+            List<Object[]> results = xcontext.getWiki().getStore().search(SCHEDULED_QUERY, 0, 0, xcontext);
+            for (Object[] result : results) {
+                DocumentReference document =
+                    explicitStringDocRefResolver.resolve((String) result[0], new WikiReference(wiki));
+                // the changes seen since startup are more recent than the store
+                schedule(document, (String) result[1], (Date) result[2], (String) result[3], false);
+            }
+        } catch (XWikiException e) {
+            logger.error("Failed to load the scheduled workflow transitions of wiki " + wiki, e);
+        } finally {
+            xcontext.setDatabase(originalDatabase);
+        }
+    }
+
+    /**
+     * Runs the passed transition, on behalf of the user who last changed the status of the document.
+     *
+     * @param transition the transition to run
+     */
+    protected void runTransition(ScheduledTransition transition)
+    {
+        XWikiContext xcontext = getXContext();
+        DocumentReference documentRef = transition.getDocument();
+        xcontext.setDatabase(documentRef.getWikiReference().getName());
+        try {
+            XWikiDocument document = xcontext.getWiki().getDocument(documentRef, xcontext);
+            BaseObject workflow = document.getXObject(PublicationWorkflow.PUBLICATION_WORKFLOW_CLASS);
+            if (workflow == null) {
+                return;
+            }
+            String statusAuthor = workflow.getStringValue(DefaultPublicationWorkflow.WF_STATUS_AUTHOR_FIELDNAME);
+            DocumentReference userRef =
+                StringUtils.isEmpty(statusAuthor) ? document.getAuthorReference() : explicitStringDocRefResolver
+                    .resolve(statusAuthor, documentRef);
+            xcontext.setUserReference(userRef);
+
+            // the workflow doesn't check the roles, check them like the script service does for the user
+            boolean publish = WorkflowTransitionEvent.PUBLISH.equals(transition.getTransition());
+            if (publish ? !publicationRoles.canValidate(userRef, document, xcontext) : !publicationRoles
+                .canContribute(userRef, document, xcontext)) {
+                logger.warn("Did not run the scheduled {} of document {}, user {} doesn't have the role for it",
+                    transition.getTransition(), documentRef, userRef);
+                return;
+            }
+
+            boolean success;
+            if (publish) {
+                success = publicationWorkflow.publish(document) != null;
+            } else if (workflow.getIntValue(DefaultPublicationWorkflow.WF_IS_TARGET_FIELDNAME, 0) == 0) {
+                // for a draft, archive its published document
+                success =
+                    publicationWorkflow.archive(explicitStringDocRefResolver.resolve(
+                        workflow.getStringValue(DefaultPublicationWorkflow.WF_TARGET_FIELDNAME), documentRef));
+            } else {
+                success = publicationWorkflow.archive(document);
+            }
+            if (success) {
+                logger.info("Ran the scheduled {} of document {}", transition.getTransition(), documentRef);
+            } else {
+                logger.warn("Could not run the scheduled {} of document {}", transition.getTransition(), documentRef);
+            }
+        } catch (XWikiException e) {
+            logger.error("Failed to run the scheduled " + transition.getTransition() + " of document "
+                + stringSerializer.serialize(documentRef), e);
+        }
+    }
+
+    /**
+     * @return the xwiki context from the execution context
+     */
+    private XWikiContext getXContext()
+    {
+        return (XWikiContext) execution.getContext().getProperty(XWIKICONTEXT_KEY);
+    }
+
+    /**
+     * A transition scheduled on a document, at a given time.
+     */
+    protected static class ScheduledTransition implements Delayed
+    {
+        private final DocumentReference document;
+
+        private final String field;
+
+        private final String transition;
+
+        private final long time;
+
+        /**
+         * @param document the document to run the transition on
+         * @param field the field which scheduled the transition
+         * @param transition the transition to run
+         * @param time the time at which to run the transition, in milliseconds
+         */
+        public ScheduledTransition(DocumentReference document, String field, String transition, long time)
+        {
+            this.document = document;
+            this.field = field;
+            this.transition = transition;
+            this.time = time;
+        }
+
+        /**
+         * @return the document to run the transition on
+         */
+        public DocumentReference getDocument()
+        {
+            return this.document;
+        }
+
+        /**
+         * @return the transition to run
+         */
+        public String getTransition()
+        {
+            return this.transition;
+        }
+
+        /**
+         * @return the field which scheduled the transition
+         */
+        public String getField()
+        {
+            return this.field;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(this.time - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other)
+        {
+            long delay = getDelay(TimeUnit.MILLISECONDS) - other.getDelay(TimeUnit.MILLISECONDS);
+            return delay < 0 ? -1 : (delay > 0 ? 1 : 0);
+        }
+    }
+}
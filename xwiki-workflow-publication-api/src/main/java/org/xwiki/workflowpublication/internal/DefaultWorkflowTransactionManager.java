@@ -0,0 +1,413 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiCacheStoreInterface;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+/**
+ * Default {@link WorkflowTransactionManager}. The saves of a transition are done in a single Hibernate transaction
+ * when the document store is the Hibernate store: the store reuses the transaction opened in the context instead of
+ * opening one per save, so the documents, their translations, their attachments and their history are committed or
+ * rolled back together. Otherwise, or when the context already holds a transaction owned by someone else, the
+ * journaled documents are restored on rollback: a document which didn't exist is deleted, with its translations, and a
+ * document which existed is rolled back to its previous version. Its translations are restored too, since the
+ * translations are copied after it: the translations created by the transition are deleted, the changed ones are
+ * rolled back and the deleted ones are saved again with the content, title and syntax they had. In both cases the
+ * document cache is flushed on rollback, since it can hold the documents changed by the failed transition. The actions
+ * registered with {@link #afterCommit(XWikiContext, Runnable)} are run by the outermost transaction of the context. The
+ * store transaction is configured in xwiki.properties:
+ * <ul>
+ * <li>{@value #CONFIG_STORE_TRANSACTION}: whether to use the store transaction when available, defaults to true</li>
+ * </ul>
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultWorkflowTransactionManager implements WorkflowTransactionManager
+{
+    /**
+     * The property configuring whether the saves of a transition are done in a store transaction.
+     */
+    public static final String CONFIG_STORE_TRANSACTION = "workflowpublication.transactions.store";
+
+    /**
+     * Context key set while a store transaction is open, so that the saves of the transition are not done from other
+     * threads, which don't share the transaction.
+     */
+    public static final String CONTEXTKEY_STORE_TRANSACTION = "publicationworkflow:storetransaction";
+
+    /**
+     * Context key holding the actions to run after the commit of the outermost transaction open in the context.
+     */
+    public static final String CONTEXTKEY_AFTER_COMMIT = "publicationworkflow:aftercommit";
+
+    @Inject
+    @Named("xwikiproperties")
+    protected ConfigurationSource configuration;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    @Override
+    public WorkflowTransaction begin(XWikiContext xcontext) throws XWikiException
+    {
+        XWikiStoreInterface store = xcontext.getWiki().getStore();
+        if (store instanceof XWikiCacheStoreInterface) {
+            store = ((XWikiCacheStoreInterface) store).getStore();
+        }
+        if (store instanceof XWikiHibernateBaseStore && this.configuration.getProperty(CONFIG_STORE_TRANSACTION, true)
+            && xcontext.get(CONTEXTKEY_STORE_TRANSACTION) == null) {
+            XWikiHibernateBaseStore hibernateStore = (XWikiHibernateBaseStore) store;
+            // false when a transaction is already open in the context, which we can neither commit nor roll back
+            if (hibernateStore.beginTransaction(xcontext)) {
+                xcontext.put(CONTEXTKEY_STORE_TRANSACTION, true);
+                return new StoreTransaction(hibernateStore, xcontext);
+            }
+        }
+
+        return new JournalTransaction(xcontext);
+    }
+
+    @Override
+    public void afterCommit(XWikiContext xcontext, Runnable action)
+    {
+        @SuppressWarnings("unchecked")
+        List<Runnable> actions = (List<Runnable>) xcontext.get(CONTEXTKEY_AFTER_COMMIT);
+        if (actions != null) {
+            actions.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Flushes the document cache, if any, after a rollback.
+     */
+    private void flushCache(XWikiContext xcontext)
+    {
+        XWikiStoreInterface store = xcontext.getWiki().getStore();
+        if (store instanceof XWikiCacheStoreInterface) {
+            ((XWikiCacheStoreInterface) store).flushCache();
+        }
+    }
+
+    /**
+     * @return the translation of the passed document in the passed language, new if it doesn't exist
+     */
+    private XWikiDocument getTranslation(DocumentReference reference, String language, XWikiContext xcontext)
+        throws XWikiException
+    {
+        XWikiDocument translation = new XWikiDocument(reference);
+        translation.setLanguage(language);
+
+        return xcontext.getWiki().getDocument(translation, xcontext);
+    }
+
+    /**
+     * Holds the actions to run after the commit, when it is the outermost transaction of the context.
+     */
+    private abstract class AbstractTransaction implements WorkflowTransaction
+    {
+        protected final XWikiContext xcontext;
+
+        /**
+         * The actions to run after the commit, {@code null} if an enclosing transaction runs them.
+         */
+        private final List<Runnable> afterCommit;
+
+        protected boolean closed;
+
+        protected AbstractTransaction(XWikiContext xcontext)
+        {
+            this.xcontext = xcontext;
+            if (xcontext.get(CONTEXTKEY_AFTER_COMMIT) == null) {
+                this.afterCommit = new ArrayList<Runnable>();
+                xcontext.put(CONTEXTKEY_AFTER_COMMIT, this.afterCommit);
+            } else {
+                this.afterCommit = null;
+            }
+        }
+
+        /**
+         * Runs the actions registered during the transaction if it was committed, drops them otherwise.
+         *
+         * @param committed whether the transaction was committed
+         */
+        protected void close(boolean committed)
+        {
+            if (this.afterCommit == null) {
+                return;
+            }
+            this.xcontext.remove(CONTEXTKEY_AFTER_COMMIT);
+            if (!committed) {
+                return;
+            }
+            for (Runnable action : this.afterCommit) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    // the transition is committed, don't report it as failed
+                    logger.error("Failed to run an action after the commit of a workflow transition", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A transaction using the Hibernate transaction of the context.
+     */
+    private final class StoreTransaction extends AbstractTransaction
+    {
+        private final XWikiHibernateBaseStore store;
+
+        private StoreTransaction(XWikiHibernateBaseStore store, XWikiContext xcontext)
+        {
+            super(xcontext);
+            this.store = store;
+        }
+
+        @Override
+        public boolean isStoreTransaction()
+        {
+            return true;
+        }
+
+        @Override
+        public void journal(XWikiDocument document)
+        {
+            // the store transaction undoes all the saves
+        }
+
+        @Override
+        public void commit() throws XWikiException
+        {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            boolean committed = false;
+            try {
+                this.store.endTransaction(this.xcontext, true);
+                committed = true;
+            } catch (RuntimeException e) {
+                // the store rolls back and closes the transaction when the commit fails
+                flushCache(this.xcontext);
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_DOC,
+                    "Error committing the transaction of a workflow transition", e);
+            } finally {
+                this.xcontext.remove(CONTEXTKEY_STORE_TRANSACTION);
+                close(committed);
+            }
+        }
+
+        @Override
+        public void rollback()
+        {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            try {
+                this.store.endTransaction(this.xcontext, false);
+            } catch (RuntimeException e) {
+                logger.error("Failed to roll back the transaction of a workflow transition", e);
+            } finally {
+                this.xcontext.remove(CONTEXTKEY_STORE_TRANSACTION);
+                flushCache(this.xcontext);
+                close(false);
+            }
+        }
+    }
+
+    /**
+     * A transaction restoring the journaled documents on rollback.
+     */
+    private final class JournalTransaction extends AbstractTransaction
+    {
+        /**
+         * The journaled documents, in the order in which they were saved.
+         */
+        private final List<JournalEntry> journal = new ArrayList<JournalEntry>();
+
+        private JournalTransaction(XWikiContext xcontext)
+        {
+            super(xcontext);
+        }
+
+        @Override
+        public boolean isStoreTransaction()
+        {
+            return false;
+        }
+
+        @Override
+        public void journal(XWikiDocument document)
+        {
+            JournalEntry entry =
+                new JournalEntry(document.getDocumentReference(), document.isNew(), document.getVersion());
+            if (!document.isNew()) {
+                try {
+                    for (String language : this.xcontext.getWiki().getStore()
+                        .getTranslationList(document, this.xcontext)) {
+                        entry.translations.put(language,
+                            getTranslation(entry.reference, language, this.xcontext).clone());
+                    }
+                } catch (XWikiException e) {
+                    logger.warn("Failed to journal the translations of document [{}], they won't be restored if the "
+                        + "workflow transition fails", entry.reference, e);
+                }
+            }
+            this.journal.add(entry);
+        }
+
+        @Override
+        public void commit()
+        {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            close(true);
+        }
+
+        @Override
+        public void rollback()
+        {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            close(false);
+            if (this.journal.isEmpty()) {
+                return;
+            }
+
+            // the compensation saves are part of the transition, don't let the roles enforcer undo them
+            boolean alreadyInTransition = xcontext.get(DefaultPublicationWorkflow.CONTEXTKEY_TRANSITION) != null;
+            try {
+                xcontext.put(DefaultPublicationWorkflow.CONTEXTKEY_TRANSITION, true);
+                // undo in the reverse order of the saves
+                flushCache(this.xcontext);
+                for (int i = this.journal.size() - 1; i >= 0; i--) {
+                    restore(this.journal.get(i));
+                }
+            } finally {
+                if (!alreadyInTransition) {
+                    xcontext.remove(DefaultPublicationWorkflow.CONTEXTKEY_TRANSITION);
+                }
+            }
+        }
+
+        private void restore(JournalEntry entry)
+        {
+            try {
+                XWikiDocument document = this.xcontext.getWiki().getDocument(entry.reference, this.xcontext);
+                restoreTranslations(document, entry);
+                if (entry.isNew) {
+                    if (!document.isNew()) {
+                        this.xcontext.getWiki().deleteDocument(document, this.xcontext);
+                    }
+                } else if (!entry.version.equals(document.getVersion())) {
+                    this.xcontext.getWiki().rollback(document, entry.version, this.xcontext);
+                }
+            } catch (Exception e) {
+                logger.error("Failed to restore document [{}] to version [{}] after a failed workflow transition",
+                    entry.reference, entry.isNew ? null : entry.version, e);
+            }
+        }
+
+        private void restoreTranslations(XWikiDocument document, JournalEntry entry) throws XWikiException
+        {
+            if (document.isNew()) {
+                return;
+            }
+            for (String language : this.xcontext.getWiki().getStore().getTranslationList(document, this.xcontext)) {
+                if (!entry.translations.containsKey(language)) {
+                    this.xcontext.getWiki().deleteDocument(getTranslation(entry.reference, language, this.xcontext),
+                        this.xcontext);
+                }
+            }
+            for (Map.Entry<String, XWikiDocument> journaled : entry.translations.entrySet()) {
+                XWikiDocument previous = journaled.getValue();
+                XWikiDocument translation = getTranslation(entry.reference, journaled.getKey(), this.xcontext);
+                if (translation.isNew()) {
+                    // deleted by the transition, save it again with what the workflow copies
+                    translation.setTranslation(1);
+                    translation.setDefaultLanguage(previous.getDefaultLanguage());
+                    translation.setContent(previous.getContent());
+                    translation.setTitle(previous.getTitle());
+                    translation.setSyntax(previous.getSyntax());
+                    this.xcontext.getWiki().saveDocument(translation, "Restored after a failed workflow transition",
+                        false, this.xcontext);
+                } else if (!previous.getVersion().equals(translation.getVersion())) {
+                    this.xcontext.getWiki().rollback(translation, previous.getVersion(), this.xcontext);
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of a document before it is saved by a transaction.
+     */
+    private static final class JournalEntry
+    {
+        private final DocumentReference reference;
+
+        private final boolean isNew;
+
+        private final String version;
+
+        /**
+         * The translations of the document, by language, as they were before the transaction.
+         */
+        private final Map<String, XWikiDocument> translations = new HashMap<String, XWikiDocument>();
+
+        private JournalEntry(DocumentReference reference, boolean isNew, String version)
+        {
+            this.reference = reference;
+            this.isNew = isNew;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.io.IOException;
+
+import org.xwiki.component.annotation.Role;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Compares the part of two documents which is relevant for the publication workflow, the same part which is copied
+ * from the draft to the published document: content, metadata besides author and visibility, objects besides comments,
+ * rights and workflow objects (see {@link DefaultPublicationWorkflow#IRRELEVANT_CLASSES}) and attachments. The hidden
+ * flag is left out on purpose, since the draft is hidden and the published document is not, and it is not copied
+ * either: the workflow sets it on each document. Date property values are compared on their instant. The
+ * comparison stops at the first difference and doesn't copy the documents nor build diffs. The same walk is used to
+ * copy only the parts which are different, see {@link #copyChanges(XWikiDocument, XWikiDocument, XWikiContext)}.
+ *
+ * @version $Id$
+ */
+@Role
+public interface DocumentComparator
+{
+    /**
+     * @param fromDoc the document to compare, typically the draft
+     * @param toDoc the document to compare to, typically the published document
+     * @param xcontext the context of the current request
+     * @return {@code true} if the relevant parts of the two documents are different, {@code false} otherwise
+     * @throws XWikiException in case the content of the attachments cannot be read
+     */
+    boolean isModified(XWikiDocument fromDoc, XWikiDocument toDoc, XWikiContext xcontext) throws XWikiException;
+
+    /**
+     * Copies to the second document the relevant parts of the first document which are different in the second
+     * document, and removes from it the relevant objects and attachments which don't exist in the first document.
+     * Unlike the merge done by {@link DefaultPublicationWorkflow#copyContentsToNewVersion(XWikiDocument, XWikiDocument,
+     * boolean, XWikiContext)}, the documents are not copied and only the attachments which changed are loaded, so the
+     * cost depends on the size of the changes. The class definition is not copied.
+     *
+     * @param fromDoc the document to copy the changes from, typically the draft
+     * @param toDoc the document to copy the changes to, typically the published document
+     * @param xcontext the context of the current request
+     * @return the number of attachment bytes written and skipped
+     * @throws XWikiException in case the content of the attachments cannot be read
+     * @throws IOException in case the content of the attachments cannot be written
+     */
+    CopyContentsResult copyChanges(XWikiDocument fromDoc, XWikiDocument toDoc, XWikiContext xcontext)
+        throws XWikiException, IOException;
+}
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Computes a fingerprint of the part of a document which is relevant for the publication workflow: content, title,
+ * parent, syntax and default locale, objects besides comments, rights and workflow objects and the attachments names,
+ * sizes and content digests. Two documents with the same fingerprint are not modified one with respect to the other,
+ * as {@link org.xwiki.workflowpublication.PublicationWorkflow#isModified} understands it.
+ *
+ * @version $Id$
+ */
+@Role
+public interface DocumentFingerprinter
+{
+    /**
+     * @param document the document to get the fingerprint of
+     * @param xcontext the context of the current request
+     * @return the fingerprint of the document, as an hexadecimal string
+     * @throws XWikiException in case the content of the attachments cannot be read
+     */
+    String getFingerprint(XWikiDocument document, XWikiContext xcontext) throws XWikiException;
+
+    /**
+     * Computes the fingerprint of a new version of a document from the fingerprint of its previous version, only
+     * recomputing the parts of the fingerprint for which the two versions differ.
+     *
+     * @param document the new version of the document
+     * @param previousDocument the previous version of the document, {@code null} if there is none
+     * @param previousFingerprint the fingerprint of the previous version, if empty the fingerprint is computed entirely
+     * @param xcontext the context of the current request
+     * @return the fingerprint of the new version of the document, as {@link #getFingerprint} would compute it
+     * @throws XWikiException in case the content of the attachments cannot be read
+     */
+    String updateFingerprint(XWikiDocument document, XWikiDocument previousDocument, String previousFingerprint,
+        XWikiContext xcontext) throws XWikiException;
+
+    /**
+     * Checks whether the fingerprinted parts of a document are the same as in a previous version, comparing them
+     * without computing any digest nor reading the content of the attachments.
+     *
+     * @param document the document to check
+     * @param previousDocument the previous version of the document
+     * @return {@code true} if both versions would have the same fingerprint
+     */
+    boolean isUnchanged(XWikiDocument document, XWikiDocument previousDocument);
+}
@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * In memory index of the draft documents of each wiki, by the target they point to. The index of a wiki is built from
+ * the store the first time it is needed and then kept up to date by {@link DraftDocumentIndexListener}.
+ *
+ * @version $Id$
+ */
+@Role
+public interface DraftDocumentIndex
+{
+    /**
+     * @param targetRef the reference of the published document
+     * @param wiki the wiki where the draft is expected to be
+     * @param xcontext the context of the current request
+     * @return the reference of the draft document which has the passed target as target, in the passed wiki, or
+     *         {@code null} if there is no such draft
+     * @throws XWikiException in case the index of the wiki needs to be built and the query fails
+     */
+    DocumentReference getDraftDocument(DocumentReference targetRef, String wiki, XWikiContext xcontext)
+        throws XWikiException;
+
+    /**
+     * @param targetRefs the references of the published documents
+     * @param wiki the wiki where the drafts are expected to be
+     * @param xcontext the context of the current request
+     * @return the reference of the draft document of each target which has a draft in the passed wiki, by target
+     * @throws XWikiException in case the index of the wiki needs to be built and the query fails
+     */
+    Map<DocumentReference, DocumentReference> getDraftDocuments(Collection<DocumentReference> targetRefs, String wiki,
+        XWikiContext xcontext) throws XWikiException;
+
+    /**
+     * Updates the index with the state of the passed document, as it was just saved: if it is a draft, its target is
+     * recorded, otherwise the document is removed from the index.
+     *
+     * @param document the document that was saved
+     */
+    void update(XWikiDocument document);
+
+    /**
+     * Removes the passed document from the index, if it was a draft.
+     *
+     * @param documentRef the reference of the document that was deleted
+     */
+    void remove(DocumentReference documentRef);
+
+    /**
+     * Drops the index of the passed wiki, it will be rebuilt next time it is needed.
+     *
+     * @param wiki the wiki to drop the index for
+     */
+    void invalidate(String wiki);
+}
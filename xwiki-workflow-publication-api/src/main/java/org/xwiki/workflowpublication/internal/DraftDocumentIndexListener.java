@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Keeps the {@link DraftDocumentIndex} up to date with the changes of the documents.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(DraftDocumentIndexListener.NAME)
+@Singleton
+public class DraftDocumentIndexListener implements EventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "publicationworkflowdraftindex";
+
+    @Inject
+    protected DraftDocumentIndex draftIndex;
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event> asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent(), new WikiDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof WikiDeletedEvent) {
+            this.draftIndex.invalidate(((WikiDeletedEvent) event).getWikiId());
+            return;
+        }
+
+        XWikiDocument document = (XWikiDocument) source;
+        // the workflow object is only on the default language document, translations don't change the index
+        if (document.getTranslation() != 0) {
+            return;
+        }
+        if (event instanceof DocumentDeletedEvent) {
+            this.draftIndex.remove(document.getDocumentReference());
+        } else {
+            this.draftIndex.update(document);
+        }
+    }
+}
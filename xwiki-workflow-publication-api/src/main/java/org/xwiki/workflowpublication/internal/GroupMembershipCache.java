@@ -0,0 +1,51 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Collection;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Cache of the groups of users and groups, shared between requests. Since the groups of a member can span several
+ * wikis, the cache is not invalidated per member or per wiki but entirely, whenever a group changes.
+ *
+ * @version $Id$
+ */
+@Role
+public interface GroupMembershipCache
+{
+    /**
+     * @param key the key of the groups, built by the caller from the member, the wiki and the kind of lookup
+     * @return the cached groups, or {@code null} if they are not in the cache
+     */
+    Collection<String> get(String key);
+
+    /**
+     * @param key the key of the groups
+     * @param groups the serialized references of the groups, the collection should not be modified afterwards
+     */
+    void set(String key, Collection<String> groups);
+
+    /**
+     * Removes all the groups from the cache.
+     */
+    void removeAll();
+}
@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Clears the {@link GroupMembershipCache} when a group is created, changed or deleted.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(GroupMembershipCacheListener.NAME)
+@Singleton
+public class GroupMembershipCacheListener implements EventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "publicationworkflowgroupscache";
+
+    /**
+     * The reference to the groups class, relative to the current wiki.
+     */
+    public static final EntityReference GROUPS_CLASS = new EntityReference("XWikiGroups", EntityType.DOCUMENT,
+        new EntityReference("XWiki", EntityType.SPACE));
+
+    @Inject
+    protected GroupMembershipCache groupsCache;
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<EntityReference> explicitReferenceDocRefResolver;
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event> asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        DocumentReference documentRef = document.getDocumentReference();
+        DocumentReference groupsClassRef = explicitReferenceDocRefResolver.resolve(GROUPS_CLASS, documentRef);
+        // check the previous version as well, in case members were removed or the group was deleted
+        XWikiDocument originalDocument = document.getOriginalDocument();
+        if (document.getXObject(groupsClassRef) != null
+            || (originalDocument != null && originalDocument.getXObject(groupsClassRef) != null)) {
+            // the groups of a member are computed transitively and across wikis, so any change in any group can change
+            // any cached entry
+            this.groupsCache.removeAll();
+        }
+    }
+}
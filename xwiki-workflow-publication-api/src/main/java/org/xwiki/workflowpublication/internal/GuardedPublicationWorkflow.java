@@ -0,0 +1,510 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.job.Job;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.workflowpublication.BulkTransitionRequest;
+import org.xwiki.workflowpublication.BulkTransitionStatus;
+import org.xwiki.workflowpublication.PublicationWorkflow;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Default {@link PublicationWorkflow}, running each transition of {@link DefaultPublicationWorkflow} under the lock of
+ * its draft and published document pair (see {@link WorkflowLocks}) and measuring it (see {@link WorkflowMetrics}). A
+ * transition refused because the document is not in a status allowing it is recorded as failed. A transition refused
+ * because the lock is held by another thread is not run, so it is only counted as a lock refusal. The other methods
+ * are passed as they are.
+ * <p>
+ * The lock is taken before the status of the document is checked: once it holds the lock, a transition checks the
+ * stored document, since the document it was called on, loaded before, can be the version replaced by the transition
+ * which held the lock.
+ * 
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class GuardedPublicationWorkflow implements PublicationWorkflow
+{
+    /**
+     * The transitions.
+     */
+    @Inject
+    @Named(DefaultPublicationWorkflow.HINT)
+    protected PublicationWorkflow workflow;
+
+    /**
+     * To prevent concurrent transitions on the same draft and published document.
+     */
+    @Inject
+    protected WorkflowLocks locks;
+
+    /**
+     * To measure the transitions.
+     */
+    @Inject
+    protected WorkflowMetrics metrics;
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<String> explicitStringDocRefResolver;
+
+    /**
+     * The execution, to get the context from it.
+     */
+    @Inject
+    protected Execution execution;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    @Override
+    public boolean isWorkflowDocument(XWikiDocument document, XWikiContext context) throws XWikiException
+    {
+        return this.workflow.isWorkflowDocument(document, context);
+    }
+
+    @Override
+    public boolean isModified(XWikiDocument fromDoc, XWikiDocument toDoc, XWikiContext context) throws XWikiException
+    {
+        return this.workflow.isModified(fromDoc, toDoc, context);
+    }
+
+    @Override
+    public boolean startWorkflow(DocumentReference doc, String workflowConfig, DocumentReference target,
+        XWikiContext xcontext) throws XWikiException
+    {
+        return this.workflow.startWorkflow(doc, workflowConfig, target, xcontext);
+    }
+
+    @Override
+    public boolean startWorkflowAsTarget(DocumentReference target, String workflowConfig, XWikiContext xcontext)
+        throws XWikiException
+    {
+        return this.workflow.startWorkflowAsTarget(target, workflowConfig, xcontext);
+    }
+
+    @Override
+    public DocumentReference getDraftDocument(DocumentReference targetRef, XWikiContext xcontext) throws XWikiException
+    {
+        return this.workflow.getDraftDocument(targetRef, xcontext);
+    }
+
+    @Override
+    public DocumentReference getDraftDocument(DocumentReference targetRef, String wiki, XWikiContext xcontext)
+        throws XWikiException
+    {
+        return this.workflow.getDraftDocument(targetRef, wiki, xcontext);
+    }
+
+    @Override
+    public Map<DocumentReference, DocumentReference> getDraftDocuments(Collection<DocumentReference> targetRefs,
+        String wiki, XWikiContext xcontext) throws XWikiException
+    {
+        return this.workflow.getDraftDocuments(targetRefs, wiki, xcontext);
+    }
+
+    @Override
+    public DocumentReference createDraftDocument(DocumentReference targetRef, XWikiContext xcontext)
+        throws XWikiException
+    {
+        return this.workflow.createDraftDocument(targetRef, xcontext);
+    }
+
+    @Override
+    public DocumentReference createDraftDocument(XWikiDocument targetDocument, XWikiContext xcontext)
+        throws XWikiException
+    {
+        return this.workflow.createDraftDocument(targetDocument, xcontext);
+    }
+
+    @Override
+    public void setupDraftAccess(XWikiDocument document, XWikiContext xcontext) throws XWikiException
+    {
+        this.workflow.setupDraftAccess(document, xcontext);
+    }
+
+    @Override
+    public boolean submitForModeration(DocumentReference document) throws XWikiException
+    {
+        return this.submitForModeration(getDocument(document));
+    }
+
+    @Override
+    public boolean submitForModeration(XWikiDocument document) throws XWikiException
+    {
+        return run(WorkflowMetrics.SUBMIT_FOR_MODERATION, document, false, new Transition<Boolean>()
+        {
+            @Override
+            protected Boolean execute(XWikiDocument doc) throws XWikiException
+            {
+                return workflow.submitForModeration(doc);
+            }
+        });
+    }
+
+    @Override
+    public boolean refuseModeration(DocumentReference document, String reason) throws XWikiException
+    {
+        return this.refuseModeration(getDocument(document), reason);
+    }
+
+    @Override
+    public boolean refuseModeration(XWikiDocument document, final String reason) throws XWikiException
+    {
+        return run(WorkflowMetrics.REFUSE_MODERATION, document, false, new Transition<Boolean>()
+        {
+            @Override
+            protected Boolean execute(XWikiDocument doc) throws XWikiException
+            {
+                return workflow.refuseModeration(doc, reason);
+            }
+        });
+    }
+
+    @Override
+    public boolean submitForValidation(DocumentReference document) throws XWikiException
+    {
+        return this.submitForValidation(getDocument(document));
+    }
+
+    @Override
+    public boolean submitForValidation(XWikiDocument document) throws XWikiException
+    {
+        return run(WorkflowMetrics.SUBMIT_FOR_VALIDATION, document, false, new Transition<Boolean>()
+        {
+            @Override
+            protected Boolean execute(XWikiDocument doc) throws XWikiException
+            {
+                return workflow.submitForValidation(doc);
+            }
+        });
+    }
+
+    @Override
+    public boolean refuseValidation(DocumentReference document, String reason) throws XWikiException
+    {
+        return this.refuseValidation(getDocument(document), reason);
+    }
+
+    @Override
+    public boolean refuseValidation(XWikiDocument document, final String reason) throws XWikiException
+    {
+        return run(WorkflowMetrics.REFUSE_VALIDATION, document, false, new Transition<Boolean>()
+        {
+            @Override
+            protected Boolean execute(XWikiDocument doc) throws XWikiException
+            {
+                return workflow.refuseValidation(doc, reason);
+            }
+        });
+    }
+
+    @Override
+    public boolean validate(DocumentReference document) throws XWikiException
+    {
+        return this.validate(getDocument(document));
+    }
+
+    @Override
+    public boolean validate(XWikiDocument document) throws XWikiException
+    {
+        return run(WorkflowMetrics.VALIDATE, document, false, new Transition<Boolean>()
+        {
+            @Override
+            protected Boolean execute(XWikiDocument doc) throws XWikiException
+            {
+                return workflow.validate(doc);
+            }
+        });
+    }
+
+    @Override
+    public DocumentReference publish(DocumentReference document) throws XWikiException
+    {
+        return this.publish(getDocument(document));
+    }
+
+    @Override
+    public DocumentReference publish(XWikiDocument document) throws XWikiException
+    {
+        return run(WorkflowMetrics.PUBLISH, document, null, new Transition<DocumentReference>()
+        {
+            @Override
+            protected DocumentReference execute(XWikiDocument doc) throws XWikiException
+            {
+                return workflow.publish(doc);
+            }
+        });
+    }
+
+    @Override
+    public DocumentReference unpublish(DocumentReference document, boolean forceToDraft) throws XWikiException
+    {
+        return this.unpublish(getDocument(document), forceToDraft);
+    }
+
+    @Override
+    public DocumentReference unpublish(XWikiDocument document, final boolean forceToDraft) throws XWikiException
+    {
+        return run(WorkflowMetrics.UNPUBLISH, document, null, new Transition<DocumentReference>()
+        {
+            @Override
+            protected DocumentReference execute(XWikiDocument doc) throws XWikiException
+            {
+                return workflow.unpublish(doc, forceToDraft);
+            }
+        });
+    }
+
+    @Override
+    public boolean editDraft(DocumentReference document) throws XWikiException
+    {
+        return this.editDraft(getDocument(document));
+    }
+
+    @Override
+    public boolean editDraft(XWikiDocument document) throws XWikiException
+    {
+        return run(WorkflowMetrics.EDIT_DRAFT, document, false, new Transition<Boolean>()
+        {
+            @Override
+            protected Boolean execute(XWikiDocument doc) throws XWikiException
+            {
+                return workflow.editDraft(doc);
+            }
+        });
+    }
+
+    @Override
+    public boolean archive(DocumentReference document) throws XWikiException
+    {
+        return this.archive(getDocument(document));
+    }
+
+    @Override
+    public boolean archive(XWikiDocument document) throws XWikiException
+    {
+        return run(WorkflowMetrics.ARCHIVE, document, false, new Transition<Boolean>()
+        {
+            @Override
+            protected Boolean execute(XWikiDocument doc) throws XWikiException
+            {
+                return workflow.archive(doc);
+            }
+        });
+    }
+
+    @Override
+    public DocumentReference unarchive(DocumentReference document, boolean forceToDraft) throws XWikiException
+    {
+        return this.unarchive(getDocument(document), forceToDraft);
+    }
+
+    @Override
+    public DocumentReference unarchive(XWikiDocument document, final boolean forceToDraft) throws XWikiException
+    {
+        return run(WorkflowMetrics.UNARCHIVE, document, null, new Transition<DocumentReference>()
+        {
+            @Override
+            protected DocumentReference execute(XWikiDocument doc) throws XWikiException
+            {
+                return workflow.unarchive(doc, forceToDraft);
+            }
+        });
+    }
+
+    @Override
+    public boolean publishFromArchive(DocumentReference document) throws XWikiException
+    {
+        return this.publishFromArchive(getDocument(document));
+    }
+
+    @Override
+    public boolean publishFromArchive(XWikiDocument document) throws XWikiException
+    {
+        return run(WorkflowMetrics.PUBLISH_FROM_ARCHIVE, document, false, new Transition<Boolean>()
+        {
+            @Override
+            protected Boolean execute(XWikiDocument doc) throws XWikiException
+            {
+                return workflow.publishFromArchive(doc);
+            }
+        });
+    }
+
+    @Override
+    public Job startBulkTransition(BulkTransitionRequest request) throws XWikiException
+    {
+        return this.workflow.startBulkTransition(request);
+    }
+
+    @Override
+    public Job publishAll(Collection<DocumentReference> documents) throws XWikiException
+    {
+        return this.workflow.publishAll(documents);
+    }
+
+    @Override
+    public Job validateAll(Collection<DocumentReference> documents) throws XWikiException
+    {
+        return this.workflow.validateAll(documents);
+    }
+
+    @Override
+    public Job submitForValidationAll(Collection<DocumentReference> documents) throws XWikiException
+    {
+        return this.workflow.submitForValidationAll(documents);
+    }
+
+    @Override
+    public Job submitForModerationAll(Collection<DocumentReference> documents) throws XWikiException
+    {
+        return this.workflow.submitForModerationAll(documents);
+    }
+
+    @Override
+    public BulkTransitionStatus getBulkTransitionStatus(String transition, DocumentReference user)
+    {
+        return this.workflow.getBulkTransitionStatus(transition, user);
+    }
+
+    /**
+     * Runs a transition under the lock of the passed document and measures it. The transition is run on the stored
+     * document if the passed one is not its current version anymore.
+     * 
+     * @param operation the name of the transition, for the metrics
+     * @param document the document the transition is called on
+     * @param refused the result of the transition when the lock is held by another thread
+     * @param transition the transition to run
+     * @param <T> the type of the result of the transition
+     * @return the result of the transition, {@code refused} if it was not run
+     * @throws XWikiException in case the transition fails
+     */
+    private <T> T run(String operation, XWikiDocument document, T refused, Transition<T> transition)
+        throws XWikiException
+    {
+        DocumentReference lockTarget = getLockTarget(document);
+        if (!this.locks.tryLock(lockTarget)) {
+            this.logger.debug("A workflow transition is already in progress on document {}, ignoring this one",
+                lockTarget);
+            this.metrics.recordLockRefusal(operation);
+            return refused;
+        }
+        WorkflowMetrics.Timer timer = this.metrics.start(operation, document.getDocumentReference());
+        try {
+            XWikiDocument current = getCurrentDocument(document);
+            if (!lockTarget.equals(getLockTarget(current))) {
+                // the target changed in the meantime, the lock doesn't protect the right pair anymore
+                this.logger.debug("The published document of document {} changed to {}, ignoring this transition",
+                    document.getDocumentReference(), getLockTarget(current));
+                return refused;
+            }
+            T result = transition.execute(current);
+            // a transition returns false or null when the document is not in a status allowing it
+            if (result != null && !Boolean.FALSE.equals(result)) {
+                timer.succeeded();
+            }
+            return result;
+        } finally {
+            timer.stop();
+            this.locks.unlock(lockTarget);
+        }
+    }
+
+    /**
+     * @param document a workflow document, draft or published
+     * @return the reference of the published document of the passed document, which identifies the draft and published
+     *         document pair of a transition, or the reference of the passed document if it has no target
+     */
+    private DocumentReference getLockTarget(XWikiDocument document)
+    {
+        BaseObject workflowObject = document.getXObject(PUBLICATION_WORKFLOW_CLASS);
+        String target =
+            workflowObject != null ? workflowObject.getStringValue(DefaultPublicationWorkflow.WF_TARGET_FIELDNAME)
+                : null;
+        if (StringUtils.isEmpty(target)) {
+            return document.getDocumentReference();
+        }
+        return this.explicitStringDocRefResolver.resolve(target, document.getDocumentReference());
+    }
+
+    /**
+     * @param document a document loaded before the lock of its transition was taken
+     * @return the passed document if it is still the stored version, the stored document otherwise
+     */
+    private XWikiDocument getCurrentDocument(XWikiDocument document) throws XWikiException
+    {
+        if (document.isNew()) {
+            return document;
+        }
+        XWikiDocument stored = getDocument(document.getDocumentReference());
+        // keep the instance of the caller when it is up to date, it can hold changes which are not saved yet
+        if (StringUtils.equals(stored.getVersion(), document.getVersion())) {
+            return document;
+        }
+
+        return stored;
+    }
+
+    /**
+     * @return the document with the passed reference, loaded in the context of the current request
+     */
+    private XWikiDocument getDocument(DocumentReference reference) throws XWikiException
+    {
+        XWikiContext xcontext = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
+
+        return xcontext.getWiki().getDocument(reference, xcontext);
+    }
+
+    /**
+     * A transition of {@link DefaultPublicationWorkflow}, run by {@link GuardedPublicationWorkflow#run}.
+     * 
+     * @param <T> the type of the result of the transition
+     */
+    private abstract static class Transition<T>
+    {
+        /**
+         * @param document the document the transition is called on
+         * @return the result of the transition
+         * @throws XWikiException in case the transition fails
+         */
+        protected abstract T execute(XWikiDocument document) throws XWikiException;
+    }
+}
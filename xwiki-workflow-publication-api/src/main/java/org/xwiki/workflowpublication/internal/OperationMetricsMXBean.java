@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Map;
+
+/**
+ * The metrics of a workflow operation on a wiki, as exposed through JMX.
+ * 
+ * @version $Id$
+ */
+public interface OperationMetricsMXBean
+{
+    /**
+     * @return the name of the operation
+     */
+    String getOperation();
+
+    /**
+     * @return the wiki on which the operation was executed
+     */
+    String getWiki();
+
+    /**
+     * @return the number of executions of the operation
+     */
+    long getCount();
+
+    /**
+     * @return the number of executions which ended with an exception
+     */
+    long getErrorCount();
+
+    /**
+     * @return the ratio of executions which ended with an exception, between 0 and 1
+     */
+    double getErrorRate();
+
+    /**
+     * @return the mean duration of an execution, in milliseconds
+     */
+    double getMeanMillis();
+
+    /**
+     * @return the longest duration of an execution, in milliseconds
+     */
+    double getMaxMillis();
+
+    /**
+     * @return the number of executions by duration bucket, the keys being the upper bounds of the buckets in
+     *         milliseconds (e.g. "&lt;= 50ms"), in increasing order
+     */
+    Map<String, Long> getHistogram();
+}
@@ -19,6 +19,7 @@
  */
 package org.xwiki.workflowpublication.internal;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 
@@ -33,6 +34,7 @@ import org.xwiki.context.Execution;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.script.service.ScriptService;
+import org.xwiki.workflowpublication.PublicationRole;
 import org.xwiki.workflowpublication.PublicationRoles;
 
 import com.xpn.xwiki.XWikiContext;
@@ -134,6 +136,39 @@ public class PublicationRolesService implements ScriptService
         }
     }
 
+    /**
+     * Gets all the roles of the user on the passed document at once, to be used instead of calling
+     * {@link #canContribute(String, String)}, {@link #canModerate(String, String)} and
+     * {@link #canValidate(String, String)} one after the other, which resolves the groups of the user only once.
+     *
+     * @param user the user to get the roles of
+     * @param document the workflow document to get the roles on
+     * @return the names of the roles of the user on the document, see {@link PublicationRole#getName()}
+     */
+    public Collection<String> getRoles(String user, String document)
+    {
+        try {
+            // resolve userReference
+            DocumentReference userRef = (DocumentReference) referenceResolver.resolve(user);
+            XWikiContext context = getXContext();
+            // resolve document reference if any is specified
+            XWikiDocument documentObject = null;
+            if (!StringUtils.isEmpty(document)) {
+                DocumentReference documentRef = (DocumentReference) referenceResolver.resolve(document);
+                documentObject = context.getWiki().getDocument(documentRef, context);
+            }
+
+            Collection<String> roles = new ArrayList<String>();
+            for (PublicationRole role : publicationRoles.getRoles(userRef, documentObject, context)) {
+                roles.add(role.getName());
+            }
+            return roles;
+        } catch (XWikiException e) {
+            logger.error("There was an error getting the roles for user " + user + " for document " + document, e);
+            return Collections.<String> emptyList();
+        }
+    }
+
     public Collection<String> getGroups(DocumentReference userOrGroup, boolean recursive, boolean localGroups,
         boolean userWikiGroups)
     {
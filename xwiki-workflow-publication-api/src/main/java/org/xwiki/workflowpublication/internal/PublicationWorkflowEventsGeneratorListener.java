@@ -20,36 +20,71 @@
 package org.xwiki.workflowpublication.internal;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 
 import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
 import org.xwiki.bridge.event.DocumentCreatingEvent;
+import org.xwiki.bridge.event.DocumentDeletingEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.bridge.event.DocumentUpdatingEvent;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.ObservationManager;
 import org.xwiki.observation.event.Event;
+import org.xwiki.workflowpublication.DocumentPublishedEvent;
 import org.xwiki.workflowpublication.DocumentPublishingEvent;
+import org.xwiki.workflowpublication.DocumentUnpublishingEvent;
 import org.xwiki.workflowpublication.PublicationWorkflow;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.web.Utils;
 
 /**
+ * Translates the document events sent while the publication workflow publishes or unpublishes a document into the
+ * publication workflow events: {@link DocumentPublishingEvent} and {@link DocumentPublishedEvent} around the save of
+ * the published document, {@link DocumentUnpublishingEvent} before the published document is deleted. This is the only
+ * listener of the workflow on all the saves of the farm, so the context flags are checked before anything else.
+ * {@link DocumentPublishedEvent} is sent once the transaction of the publication is committed, so its listeners, which
+ * send the notifications, are not told about a publication which is then rolled back. The other events are sent with
+ * the document events, before the commit.
+ * 
  * @version $Id$
  */
 @Component("publicationworkfloweventsgenerator")
 public class PublicationWorkflowEventsGeneratorListener implements EventListener
 {
-    public final static String CONTEXTKEY_PUBLISHING = "publicationworkflow:publish";
+    public final static String CONTEXTKEY_PUBLISHING = DefaultPublicationWorkflow.CONTEXTKEY_PUBLISHING;
+
+    public final static String CONTEXTKEY_UNPUBLISHING = DefaultPublicationWorkflow.CONTEXTKEY_UNPUBLISHING;
+
+    /**
+     * The events observed by this listener.
+     */
+    private static final List<Event> EVENTS = Collections.unmodifiableList(Arrays.<Event> asList(
+        new DocumentCreatingEvent(), new DocumentUpdatingEvent(), new DocumentCreatedEvent(),
+        new DocumentUpdatedEvent(), new DocumentDeletingEvent()));
 
     @Inject
     protected PublicationWorkflow publicationWorkflow;
 
+    /**
+     * To send the publication events, lazily since the observation manager looks up this listener on initialization.
+     */
+    @Inject
+    protected Provider<ObservationManager> observationManagerProvider;
+
+    /**
+     * To send {@link DocumentPublishedEvent} after the commit of the publication.
+     */
+    @Inject
+    protected WorkflowTransactionManager transactionManager;
+
     @Inject
     private Logger logger;
 
@@ -72,7 +107,7 @@ public class PublicationWorkflowEventsGeneratorListener implements EventListener
     @Override
     public List<Event> getEvents()
     {
-        return Arrays.<Event> asList(new DocumentCreatingEvent(), new DocumentUpdatingEvent());
+        return EVENTS;
     }
 
     /**
@@ -85,19 +120,82 @@ public class PublicationWorkflowEventsGeneratorListener implements EventListener
     public void onEvent(Event event, Object source, Object data)
     {
         XWikiContext xcontext = (XWikiContext) data;
-        XWikiDocument doc = (XWikiDocument) source;
 
-        Object publishingContextKey = xcontext.get(CONTEXTKEY_PUBLISHING);
+        // cheap checks first, most saves of the farm are not done by the workflow
+        if (event instanceof DocumentDeletingEvent) {
+            if (isSet(xcontext, CONTEXTKEY_UNPUBLISHING)) {
+                // the source of a deleting event is an empty document, the deleted one is its original document
+                XWikiDocument doc = (XWikiDocument) source;
+                XWikiDocument deletedDoc = doc.getOriginalDocument() != null ? doc.getOriginalDocument() : doc;
+                notifyIfWorkflowDocument(new DocumentUnpublishingEvent(deletedDoc.getDocumentReference()), deletedDoc,
+                    xcontext);
+            }
+        } else if (isSet(xcontext, CONTEXTKEY_PUBLISHING)) {
+            XWikiDocument doc = (XWikiDocument) source;
+            if (event instanceof DocumentCreatingEvent || event instanceof DocumentUpdatingEvent) {
+                notifyIfWorkflowDocument(new DocumentPublishingEvent(doc.getDocumentReference()), doc, xcontext);
+            } else {
+                notifyAfterCommitIfWorkflowDocument(new DocumentPublishedEvent(doc.getDocumentReference()), doc,
+                    xcontext);
+            }
+        }
+    }
+
+    /**
+     * @param xcontext the xwiki context
+     * @param key the context key to check
+     * @return whether the flag is set to true on the context
+     */
+    private boolean isSet(XWikiContext xcontext, String key)
+    {
+        Object value = xcontext.get(key);
+        return value != null && Boolean.parseBoolean(value.toString());
+    }
+
+    /**
+     * Sends the passed event if the document is a workflow document.
+     * 
+     * @param event the publication workflow event to send
+     * @param doc the document concerned by the event, passed as source
+     * @param xcontext the xwiki context, passed as data
+     */
+    private void notifyIfWorkflowDocument(Event event, XWikiDocument doc, XWikiContext xcontext)
+    {
+        try {
+            if (publicationWorkflow.isWorkflowDocument(doc, xcontext)) {
+                observationManagerProvider.get().notify(event, doc, xcontext);
+            }
+        } catch (XWikiException e) {
+            logger.warn("Could not find out if the document is a workflow document to generate "
+                + event.getClass().getSimpleName() + " for document " + doc.getDocumentReference(), e);
+        }
+    }
+
+    /**
+     * Sends the passed event once the transaction of the transition is committed, if the document is a workflow
+     * document. The document is checked now, while it is the saved one.
+     * 
+     * @param event the publication workflow event to send
+     * @param doc the document concerned by the event, passed as source
+     * @param xcontext the xwiki context, passed as data
+     */
+    private void notifyAfterCommitIfWorkflowDocument(final Event event, final XWikiDocument doc,
+        final XWikiContext xcontext)
+    {
         try {
-            if (publishingContextKey != null && Boolean.parseBoolean(publishingContextKey.toString())
-                && publicationWorkflow.isWorkflowDocument(doc, xcontext)) {
-                ObservationManager observation = Utils.getComponent(ObservationManager.class);
-                observation.notify(new DocumentPublishingEvent(doc.getDocumentReference()), doc, xcontext);
+            if (publicationWorkflow.isWorkflowDocument(doc, xcontext)) {
+                transactionManager.afterCommit(xcontext, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        observationManagerProvider.get().notify(event, doc, xcontext);
+                    }
+                });
             }
         } catch (XWikiException e) {
-            logger.warn(
-                "Could not find out if the document is a workflow document to generate publishing event for document "
-                    + doc.getDocumentReference(), e);
+            logger.warn("Could not find out if the document is a workflow document to generate "
+                + event.getClass().getSimpleName() + " for document " + doc.getDocumentReference(), e);
         }
     }
 }
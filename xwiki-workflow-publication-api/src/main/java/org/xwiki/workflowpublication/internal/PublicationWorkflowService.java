@@ -19,6 +19,11 @@
  */
 package org.xwiki.workflowpublication.internal;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -27,12 +32,17 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
+import org.xwiki.job.Job;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.script.service.ScriptService;
+import org.xwiki.workflowpublication.BulkTransitionRequest;
+import org.xwiki.workflowpublication.BulkTransitionStatus;
 import org.xwiki.workflowpublication.PublicationRoles;
 import org.xwiki.workflowpublication.PublicationWorkflow;
+import org.xwiki.workflowpublication.WorkflowInbox;
+import org.xwiki.workflowpublication.WorkflowTransitionEvent;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -52,6 +62,12 @@ public class PublicationWorkflowService implements ScriptService
     @Inject
     protected PublicationRoles publicationRoles;
 
+    /**
+     * To list the documents a user can act on.
+     */
+    @Inject
+    protected WorkflowInbox workflowInbox;
+
     /**
      * The execution, to get the context from it.
      */
@@ -180,13 +196,58 @@ public class PublicationWorkflowService implements ScriptService
         }
     }
 
+    /**
+     * Gets the drafts of all the passed targets at once, to be used instead of calling
+     * {@link #getDraftDocument(DocumentReference, String)} for each target, e.g. when displaying a list of published
+     * documents.
+     * 
+     * @param targets the references of the published documents to get the drafts of
+     * @param wiki the wiki where the drafts are expected to be
+     * @return the draft document of each target which has a draft, by target
+     */
+    public Map<DocumentReference, DocumentReference> getDraftDocuments(Collection<DocumentReference> targets,
+        String wiki)
+    {
+        XWikiContext xcontext = getXContext();
+        try {
+            return this.publicationWorkflow.getDraftDocuments(targets, wiki, xcontext);
+        } catch (XWikiException e) {
+            logger.warn("Could not query for workflow drafts on wiki " + wiki);
+            // TODO: put error on context
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Gets a page of the draft documents of the current wiki in the passed status, which the passed user can advance to
+     * the next status. See {@link WorkflowInbox#getInbox(DocumentReference, String, int, int, XWikiContext)}.
+     * 
+     * @param user the user to get the inbox of
+     * @param status the status of the documents to return
+     * @param offset the number of documents to skip
+     * @param limit the maximum number of documents to return, 0 to return all of them
+     * @return the references of the draft documents, ordered by name
+     */
+    public List<DocumentReference> getInbox(String user, String status, int offset, int limit)
+    {
+        XWikiContext xcontext = getXContext();
+        try {
+            DocumentReference userRef = referenceResolver.resolve(user);
+            return this.workflowInbox.getInbox(userRef, status, offset, limit, xcontext);
+        } catch (XWikiException e) {
+            logger.warn("Could not query for the workflow inbox of user " + user + " for status " + status);
+            // TODO: put error on context
+            return Collections.emptyList();
+        }
+    }
+
     public DocumentReference createDraftDocument(DocumentReference target)
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canContribute(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(target, xcontext), xcontext)) {
-                return this.publicationWorkflow.createDraftDocument(target, xcontext);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(target, xcontext);
+            if (this.publicationRoles.canContribute(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.createDraftDocument(documentObject, xcontext);
             } else {
                 return null;
             }
@@ -201,9 +262,9 @@ public class PublicationWorkflowService implements ScriptService
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canContribute(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(document, xcontext), xcontext)) {
-                return this.publicationWorkflow.submitForModeration(document);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+            if (this.publicationRoles.canContribute(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.submitForModeration(documentObject);
             } else {
                 return false;
             }
@@ -218,9 +279,9 @@ public class PublicationWorkflowService implements ScriptService
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canModerate(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(document, xcontext), xcontext)) {
-                return this.publicationWorkflow.refuseModeration(document, reason);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+            if (this.publicationRoles.canModerate(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.refuseModeration(documentObject, reason);
             } else {
                 return false;
             }
@@ -235,9 +296,9 @@ public class PublicationWorkflowService implements ScriptService
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canModerate(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(document, xcontext), xcontext)) {
-                return this.publicationWorkflow.submitForValidation(document);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+            if (this.publicationRoles.canModerate(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.submitForValidation(documentObject);
             } else {
                 return false;
             }
@@ -252,9 +313,9 @@ public class PublicationWorkflowService implements ScriptService
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canValidate(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(document, xcontext), xcontext)) {
-                return this.publicationWorkflow.refuseValidation(document, reason);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+            if (this.publicationRoles.canValidate(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.refuseValidation(documentObject, reason);
             } else {
                 return false;
             }
@@ -269,9 +330,9 @@ public class PublicationWorkflowService implements ScriptService
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canValidate(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(document, xcontext), xcontext)) {
-                return this.publicationWorkflow.validate(document);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+            if (this.publicationRoles.canValidate(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.validate(documentObject);
             } else {
                 return false;
             }
@@ -286,9 +347,9 @@ public class PublicationWorkflowService implements ScriptService
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canValidate(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(document, xcontext), xcontext)) {
-                return this.publicationWorkflow.publish(document);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+            if (this.publicationRoles.canValidate(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.publish(documentObject);
             } else {
                 return null;
             }
@@ -303,9 +364,9 @@ public class PublicationWorkflowService implements ScriptService
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canContribute(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(document, xcontext), xcontext)) {
-                return this.publicationWorkflow.unpublish(document, forceToDraft);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+            if (this.publicationRoles.canContribute(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.unpublish(documentObject, forceToDraft);
             } else {
                 return null;
             }
@@ -320,9 +381,9 @@ public class PublicationWorkflowService implements ScriptService
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canContribute(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(document, xcontext), xcontext)) {
-                return this.publicationWorkflow.editDraft(document);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+            if (this.publicationRoles.canContribute(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.editDraft(documentObject);
             } else {
                 return false;
             }
@@ -337,9 +398,9 @@ public class PublicationWorkflowService implements ScriptService
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canContribute(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(document, xcontext), xcontext)) {
-                return this.publicationWorkflow.archive(document);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+            if (this.publicationRoles.canContribute(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.archive(documentObject);
             } else {
                 return false;
             }
@@ -354,9 +415,9 @@ public class PublicationWorkflowService implements ScriptService
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canContribute(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(document, xcontext), xcontext)) {
-                return this.publicationWorkflow.unarchive(document, forceToDraft);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+            if (this.publicationRoles.canContribute(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.unarchive(documentObject, forceToDraft);
             } else {
                 return null;
             }
@@ -371,9 +432,9 @@ public class PublicationWorkflowService implements ScriptService
     {
         XWikiContext xcontext = getXContext();
         try {
-            if (this.publicationRoles.canValidate(xcontext.getUserReference(),
-                xcontext.getWiki().getDocument(document, xcontext), xcontext)) {
-                return this.publicationWorkflow.publishFromArchive(document);
+            XWikiDocument documentObject = xcontext.getWiki().getDocument(document, xcontext);
+            if (this.publicationRoles.canValidate(xcontext.getUserReference(), documentObject, xcontext)) {
+                return this.publicationWorkflow.publishFromArchive(documentObject);
             } else {
                 return false;
             }
@@ -384,6 +445,76 @@ public class PublicationWorkflowService implements ScriptService
         }
     }
 
+    /**
+     * Publishes all the passed drafts in a background job, checking that the current user can validate each of them.
+     * 
+     * @param documents the drafts to publish
+     * @return the started job, to follow its progress, or {@code null} if the job could not be started
+     */
+    public Job publishAll(Collection<DocumentReference> documents)
+    {
+        return startBulkTransition(WorkflowTransitionEvent.PUBLISH, documents);
+    }
+
+    /**
+     * Marks all the passed drafts as valid in a background job, checking that the current user can validate each of
+     * them.
+     * 
+     * @param documents the drafts to validate
+     * @return the started job, to follow its progress, or {@code null} if the job could not be started
+     */
+    public Job validateAll(Collection<DocumentReference> documents)
+    {
+        return startBulkTransition(WorkflowTransitionEvent.VALIDATE, documents);
+    }
+
+    /**
+     * Submits all the passed drafts for validation in a background job, checking that the current user can moderate
+     * each of them.
+     * 
+     * @param documents the drafts to submit for validation
+     * @return the started job, to follow its progress, or {@code null} if the job could not be started
+     */
+    public Job submitForValidationAll(Collection<DocumentReference> documents)
+    {
+        return startBulkTransition(WorkflowTransitionEvent.SUBMIT_FOR_VALIDATION, documents);
+    }
+
+    /**
+     * Submits all the passed drafts for moderation in a background job, checking that the current user can contribute
+     * to each of them.
+     * 
+     * @param documents the drafts to submit for moderation
+     * @return the started job, to follow its progress, or {@code null} if the job could not be started
+     */
+    public Job submitForModerationAll(Collection<DocumentReference> documents)
+    {
+        return startBulkTransition(WorkflowTransitionEvent.SUBMIT_FOR_MODERATION, documents);
+    }
+
+    /**
+     * @param transition the transition
+     * @return the status of the last bulk job of the current user for the transition, {@code null} if there is none
+     */
+    public BulkTransitionStatus getBulkTransitionStatus(String transition)
+    {
+        return this.publicationWorkflow.getBulkTransitionStatus(transition, getXContext().getUserReference());
+    }
+
+    private Job startBulkTransition(String transition, Collection<DocumentReference> documents)
+    {
+        BulkTransitionRequest request =
+            new BulkTransitionRequest(transition, documents, getXContext().getUserReference());
+        // the roles are checked by the job for each document, like the transitions of this service do one by one
+        request.setCheckRights(true);
+        try {
+            return this.publicationWorkflow.startBulkTransition(request);
+        } catch (XWikiException e) {
+            logger.warn("Could not start the bulk " + transition + " of " + documents.size() + " documents", e);
+            return null;
+        }
+    }
+
     /**
      * @return the xwiki context from the execution context
      */
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Collection;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Resolves the emails of the users of a group and of its subgroups, to send the workflow notifications to, caching the
+ * members of the groups and the emails of the users.
+ *
+ * @version $Id$
+ */
+@Role
+public interface RecipientResolver
+{
+    /**
+     * Gets the emails of the users of the passed group and of all its subgroups, on all levels. The group can also be a
+     * user, in which case its own email is returned.
+     *
+     * @param groupOrUser the group or user to get the emails of
+     * @param xcontext the context of the current request
+     * @return the emails of the users of the group, without duplicates, empty if none of them has an email
+     * @throws XWikiException in case the members or the emails cannot be loaded
+     */
+    Collection<String> getEmails(DocumentReference groupOrUser, XWikiContext xcontext) throws XWikiException;
+
+    /**
+     * Forgets all the members of the groups, to be called when any group changes, since the members are computed
+     * transitively and across wikis.
+     */
+    void invalidateGroups();
+
+    /**
+     * Forgets the email of the passed user, to be called when the user changes.
+     *
+     * @param user the user whose profile changed
+     */
+    void invalidateUser(DocumentReference user);
+}
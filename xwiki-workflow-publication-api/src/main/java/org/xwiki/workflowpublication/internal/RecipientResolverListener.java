@@ -0,0 +1,103 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Invalidates the caches of the {@link RecipientResolver} when a group or a user is created, changed or deleted.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(RecipientResolverListener.NAME)
+@Singleton
+public class RecipientResolverListener implements EventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "publicationworkflowrecipients";
+
+    @Inject
+    protected RecipientResolver recipientResolver;
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<EntityReference> explicitReferenceDocRefResolver;
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event> asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        DocumentReference documentRef = document.getDocumentReference();
+        // check the previous version as well, in case the objects were removed or the document was deleted
+        if (hasObject(document, GroupMembershipCacheListener.GROUPS_CLASS)) {
+            this.recipientResolver.invalidateGroups();
+        }
+        if (hasObject(document, DefaultRecipientResolver.USERS_CLASS)) {
+            this.recipientResolver.invalidateUser(documentRef);
+        }
+    }
+
+    /**
+     * @param document a document which was created, changed or deleted
+     * @param classReference the class to look for, relative to the wiki of the document
+     * @return whether the document or its previous version has an object of the passed class
+     */
+    private boolean hasObject(XWikiDocument document, EntityReference classReference)
+    {
+        DocumentReference classRef =
+            explicitReferenceDocRefResolver.resolve(classReference, document.getDocumentReference());
+        XWikiDocument originalDocument = document.getOriginalDocument();
+        return document.getXObject(classRef) != null
+            || (originalDocument != null && originalDocument.getXObject(classRef) != null);
+    }
+}
@@ -27,25 +27,29 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang.ObjectUtils;
 import org.slf4j.Logger;
 import org.xwiki.bridge.event.DocumentUpdatingEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.Event;
-import org.xwiki.workflowpublication.PublicationRoles;
 import org.xwiki.workflowpublication.PublicationWorkflow;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.objects.ObjectDiff;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
 
 /**
  * Event listener to listen to documents updating events and prevent changing the status by unauthorized users for
- * notion/question documents.
+ * workflow documents. Only the properties of the workflow object that drive the workflow are compared, so saves which
+ * don't touch the workflow object cost two object lookups. Changes made by the workflow transitions themselves or by
+ * wiki administrators are let through, all others are reverted to the values of the previous version.
  * 
  * @version $Id$
  */
@@ -66,6 +70,15 @@ public class RolesEnforcerListener implements EventListener
 
     public final static String STATUS_ARCHIVED = "archived";
 
+    /**
+     * The properties of the workflow object which can only be changed through the workflow transitions. The status
+     * author, the fingerprint and the scheduling dates are not protected.
+     */
+    public static final List<String> PROTECTED_PROPERTIES = Arrays.asList(
+        DefaultPublicationWorkflow.WF_STATUS_FIELDNAME, DefaultPublicationWorkflow.WF_IS_TARGET_FIELDNAME,
+        DefaultPublicationWorkflow.WF_TARGET_FIELDNAME,
+        DefaultPublicationWorkflow.WF_CONFIG_REF_FIELDNAME);
+
     /**
      * The logger to log.
      */
@@ -73,11 +86,11 @@ public class RolesEnforcerListener implements EventListener
     private Logger logger;
 
     /**
-     * The current entity reference resolver, to resolve the notions class reference.
+     * To resolve the workflow class reference relative to the wiki of the saved document.
      */
     @Inject
-    @Named("current/reference")
-    protected DocumentReferenceResolver<EntityReference> currentReferenceEntityResolver;
+    @Named("explicit")
+    protected DocumentReferenceResolver<EntityReference> explicitReferenceDocRefResolver;
 
     /**
      * Reference string serializer.
@@ -85,13 +98,6 @@ public class RolesEnforcerListener implements EventListener
     @Inject
     protected EntityReferenceSerializer<String> stringSerializer;
 
-    @Inject
-    @Named("publicationroles")
-    protected PublicationRoles publicationRoles;
-
-    @Inject
-    protected PublicationWorkflow publicationWorkflow;
-
     /**
      * The events observed by this observation manager.
      */
@@ -126,37 +132,86 @@ public class RolesEnforcerListener implements EventListener
     public void onEvent(Event event, Object source, Object data)
     {
         XWikiDocument currentDocument = (XWikiDocument) source;
-
         XWikiDocument previousDocument = currentDocument.getOriginalDocument();
-
         XWikiContext context = (XWikiContext) data;
 
-        // check if the old document is a workflow document, if it is, we need to handle moderation protection
+        // the workflow is making this change itself
+        if (previousDocument == null || context.get(DefaultPublicationWorkflow.CONTEXTKEY_TRANSITION) != null
+            || context.get(DefaultPublicationWorkflow.CONTEXTKEY_PUBLISHING) != null) {
+            return;
+        }
+
+        // resolve the class once and only look at the workflow object, in the old document and in the new one
+        DocumentReference workflowClass =
+            explicitReferenceDocRefResolver.resolve(PublicationWorkflow.PUBLICATION_WORKFLOW_CLASS,
+                currentDocument.getDocumentReference());
+        BaseObject previousWorkflow = previousDocument.getXObject(workflowClass);
+        if (previousWorkflow == null) {
+            // not a workflow document before this save, starting a workflow is not protected
+            return;
+        }
+        BaseObject currentWorkflow = currentDocument.getXObject(workflowClass);
+
+        List<String> changedProperties = getChangedProperties(previousWorkflow, currentWorkflow);
+        if (changedProperties.isEmpty()) {
+            return;
+        }
+
+        String serializedDocument = stringSerializer.serialize(currentDocument.getDocumentReference());
         try {
-            if (!publicationWorkflow.isWorkflowDocument(previousDocument, context)) {
+            if (context.getWiki().getRightService()
+                .hasAccessLevel("admin", context.getUser(), currentDocument.getPrefixedFullName(), context)) {
                 return;
             }
-        } catch (XWikiException exc) {
-            logger.warn("Could not get workflow config document for document "
-                + stringSerializer.serialize(previousDocument.getDocumentReference()));
-            return;
+        } catch (XWikiException e) {
+            logger.warn("Could not check the admin right of " + context.getUser() + " on " + serializedDocument, e);
         }
 
-        // get the workflow object and get the state, in the new document and in the old document
-        boolean isOtherWorkflowChange = false;
-        List<List<ObjectDiff>> objectDiffs = currentDocument.getObjectDiff(previousDocument, currentDocument, context);
-        for (List<ObjectDiff> objectChanges : objectDiffs) {
-            for (ObjectDiff diff : objectChanges) {
-                // if a change is in a workflow object, it's a workflow change
-                if (diff.getXClassReference().equals(
-                    currentReferenceEntityResolver.resolve(PublicationWorkflow.PUBLICATION_WORKFLOW_CLASS))) {
-                    isOtherWorkflowChange = true;
+        logger.warn("User " + context.getUser() + " is not allowed to change the workflow properties "
+            + changedProperties + " of document " + serializedDocument + ", restoring the previous values");
+        if (currentWorkflow == null) {
+            // the workflow object was removed, put a copy of the previous one back
+            currentDocument.addXObject(previousWorkflow.duplicate(currentDocument.getDocumentReference()));
+        } else {
+            for (String property : changedProperties) {
+                Object previousValue = getValue(previousWorkflow, property);
+                if (previousValue == null) {
+                    currentWorkflow.removeField(property);
+                } else {
+                    currentWorkflow.set(property, previousValue, context);
                 }
             }
         }
+    }
 
-        if (isOtherWorkflowChange) {
-            // TODO: restore workflow object besides the status prop
+    /**
+     * @param previousWorkflow the workflow object of the previous version of the document
+     * @param currentWorkflow the workflow object of the document being saved, {@code null} if it was removed
+     * @return the protected properties whose value differs between the two objects
+     */
+    private List<String> getChangedProperties(BaseObject previousWorkflow, BaseObject currentWorkflow)
+    {
+        if (currentWorkflow == null) {
+            return PROTECTED_PROPERTIES;
         }
+
+        List<String> changedProperties = new ArrayList<String>();
+        for (String property : PROTECTED_PROPERTIES) {
+            if (!ObjectUtils.equals(getValue(previousWorkflow, property), getValue(currentWorkflow, property))) {
+                changedProperties.add(property);
+            }
+        }
+        return changedProperties;
+    }
+
+    /**
+     * @param object the object to read from
+     * @param property the name of the property
+     * @return the value of the property, or {@code null} if it's not set on the object
+     */
+    private Object getValue(BaseObject object, String property)
+    {
+        BaseProperty field = (BaseProperty) object.safeget(property);
+        return field != null ? field.getValue() : null;
     }
 }
@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Propagates the translations of a document to another document, the part of publish, unpublish and draft creation
+ * which is not handled by the copy of the default locale. The translations of both documents are listed once, each
+ * translation of the source document is copied over the translation of the target document in the same locale and the
+ * translations of the target document which don't exist anymore in the source document are deleted. The locales are
+ * independent, so they can be copied concurrently.
+ *
+ * @version $Id$
+ */
+@Role
+public interface TranslationCopier
+{
+    /**
+     * Makes the translations of the second document the same as the translations of the first document. Only the
+     * content, title and syntax are copied, the objects and attachments being shared by all the translations of a
+     * document. Translations which are already identical are not saved.
+     *
+     * @param fromDocument the document to copy the translations of, in its default locale
+     * @param toDocument the document to copy the translations to, in its default locale
+     * @param message the comment of the saved translations
+     * @param xcontext the context of the current request
+     * @return the number of translations which were saved or deleted
+     * @throws XWikiException in case a translation cannot be loaded, saved or deleted, thrown once all the other
+     *             locales are done
+     */
+    int copyTranslations(XWikiDocument fromDocument, XWikiDocument toDocument, String message, XWikiContext xcontext)
+        throws XWikiException;
+}
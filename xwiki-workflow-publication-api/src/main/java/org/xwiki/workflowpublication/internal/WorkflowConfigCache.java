@@ -0,0 +1,52 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Size bounded cache of the workflow config objects, by the reference of the config document. The cached objects are
+ * snapshots of the config objects, they should not be modified by the callers.
+ *
+ * @version $Id$
+ */
+@Role
+public interface WorkflowConfigCache
+{
+    /**
+     * @param configRef the reference of the workflow config document
+     * @return the cached config object, or {@code null} if it is not in the cache
+     */
+    BaseObject get(DocumentReference configRef);
+
+    /**
+     * @param configRef the reference of the workflow config document
+     * @param config the config object read from the config document
+     */
+    void set(DocumentReference configRef, BaseObject config);
+
+    /**
+     * @param configRef the reference of the workflow config document to remove from the cache
+     */
+    void remove(DocumentReference configRef);
+}
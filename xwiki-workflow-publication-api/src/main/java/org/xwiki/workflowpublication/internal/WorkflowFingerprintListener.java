@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentCreatingEvent;
+import org.xwiki.bridge.event.DocumentUpdatingEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.workflowpublication.PublicationWorkflow;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Stores the fingerprint of the workflow documents in their workflow object when they are saved, so that
+ * {@link PublicationWorkflow#isModified} can compare the draft and the published document without loading them
+ * entirely.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(WorkflowFingerprintListener.NAME)
+@Singleton
+public class WorkflowFingerprintListener implements EventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "publicationworkflowfingerprint";
+
+    @Inject
+    protected DocumentFingerprinter fingerprinter;
+
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<EntityReference> explicitReferenceDocRefResolver;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event> asList(new DocumentCreatingEvent(), new DocumentUpdatingEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        XWikiContext xcontext = (XWikiContext) data;
+        // the workflow object is only on the default language document
+        if (document.getTranslation() != 0) {
+            return;
+        }
+        BaseObject workflow =
+            document.getXObject(explicitReferenceDocRefResolver.resolve(PublicationWorkflow.PUBLICATION_WORKFLOW_CLASS,
+                document.getDocumentReference()));
+        if (workflow == null) {
+            return;
+        }
+
+        try {
+            // the stored fingerprint is the one of the previous version, only recompute the parts which changed since
+            String previousFingerprint = workflow.getStringValue(DefaultPublicationWorkflow.WF_FINGERPRINT_FIELDNAME);
+            String fingerprint =
+                fingerprinter.updateFingerprint(document, document.isNew() ? null : document.getOriginalDocument(),
+                    previousFingerprint, xcontext);
+            // only touch the object if the fingerprint changed
+            if (!StringUtils.equals(fingerprint, previousFingerprint)) {
+                workflow.setStringValue(DefaultPublicationWorkflow.WF_FINGERPRINT_FIELDNAME, fingerprint);
+            }
+        } catch (XWikiException e) {
+            // don't prevent the save, remove the fingerprint so that the document is compared entirely
+            logger.warn("Could not compute the fingerprint of document " + document.getDocumentReference(), e);
+            workflow.setStringValue(DefaultPublicationWorkflow.WF_FINGERPRINT_FIELDNAME, "");
+        }
+    }
+}
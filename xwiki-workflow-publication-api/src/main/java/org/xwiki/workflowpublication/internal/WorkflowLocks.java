@@ -0,0 +1,51 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Serializes the workflow transitions on the same draft and published document pair, identified by the reference of
+ * the published document, while the transitions on other documents proceed in parallel. A transition which finds the
+ * same pair already in a transition in another thread, typically a duplicate click, doesn't wait for it.
+ *
+ * @version $Id$
+ */
+@Role
+public interface WorkflowLocks
+{
+    /**
+     * Acquires the lock of a published document, unless it is held by another thread for the same document. The lock
+     * is reentrant, so a transition started from another transition on the same document in the same thread gets it.
+     *
+     * @param target the reference of the published document of the transition
+     * @return {@code true} if the lock was acquired and must be released with {@link #unlock(DocumentReference)},
+     *         {@code false} if a transition on the same document is in progress in another thread
+     */
+    boolean tryLock(DocumentReference target);
+
+    /**
+     * Releases the lock acquired by {@link #tryLock(DocumentReference)}.
+     *
+     * @param target the reference of the published document of the transition
+     */
+    void unlock(DocumentReference target);
+}
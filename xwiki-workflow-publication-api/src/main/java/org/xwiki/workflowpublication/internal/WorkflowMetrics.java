@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Records how long the workflow operations take, how often they fail, how many attachment bytes they copy and how
+ * often the workflow caches are hit, per operation and per wiki. The collected values are exposed as JMX MXBeans and
+ * through the {@code workflowmetrics} script service, so that a slow publication can be attributed to the merge, the
+ * save or the role resolution.
+ * 
+ * @version $Id$
+ */
+@Role
+public interface WorkflowMetrics
+{
+    String SUBMIT_FOR_MODERATION = "submitForModeration";
+
+    String REFUSE_MODERATION = "refuseModeration";
+
+    String SUBMIT_FOR_VALIDATION = "submitForValidation";
+
+    String REFUSE_VALIDATION = "refuseValidation";
+
+    String VALIDATE = "validate";
+
+    String PUBLISH = "publish";
+
+    String UNPUBLISH = "unpublish";
+
+    String EDIT_DRAFT = "editDraft";
+
+    String ARCHIVE = "archive";
+
+    String UNARCHIVE = "unarchive";
+
+    String PUBLISH_FROM_ARCHIVE = "publishFromArchive";
+
+    /**
+     * The copy of the contents of a document over another, the merge part of publish and unpublish.
+     */
+    String COPY_CONTENTS = "copyContentsToNewVersion";
+
+    /**
+     * The copy of the changes of a draft over its published document, the incremental part of publish.
+     */
+    String COPY_CHANGES = "copyChangesToNewVersion";
+
+    /**
+     * The copy of the translations of a document over the translations of another, in publish and unpublish.
+     */
+    String COPY_TRANSLATIONS = "copyTranslations";
+
+    String IS_MODIFIED = "isModified";
+
+    String GET_DRAFT_DOCUMENT = "getDraftDocument";
+
+    /**
+     * The save of a document by a workflow transition.
+     */
+    String SAVE = "save";
+
+    /**
+     * The resolution of the roles of a user on a workflow document.
+     */
+    String ROLES = "roles";
+
+    /**
+     * Measures one execution of an operation. The execution is recorded as failed unless {@link #succeeded(Object)} or
+     * {@link #succeeded()} is called before {@link #stop()}, so that exceptions are counted as errors without catching
+     * them.
+     */
+    interface Timer
+    {
+        /**
+         * Marks the execution as successful.
+         */
+        void succeeded();
+
+        /**
+         * Marks the execution as successful.
+         * 
+         * @param result the result of the operation
+         * @param <T> the type of the result
+         * @return the passed result, to be returned by the caller
+         */
+        <T> T succeeded(T result);
+
+        /**
+         * Records the execution, only the first call has an effect.
+         */
+        void stop();
+    }
+
+    /**
+     * @param operation the name of the operation
+     * @param wiki the wiki on which the operation is executed
+     * @return the timer measuring this execution of the operation, to be stopped in a finally block
+     */
+    Timer start(String operation, String wiki);
+
+    /**
+     * @param operation the name of the operation
+     * @param reference the reference of the document on which the operation is executed, for its wiki
+     * @return the timer measuring this execution of the operation, to be stopped in a finally block
+     */
+    Timer start(String operation, EntityReference reference);
+
+    /**
+     * @param wiki the wiki of the document to which the attachments were copied
+     * @param bytes the number of attachment bytes copied
+     */
+    void addAttachmentBytesCopied(String wiki, long bytes);
+
+    /**
+     * @param cache the identifier of the cache
+     * @param hit whether the value was found in the cache
+     */
+    void recordCacheAccess(String cache, boolean hit);
+
+    /**
+     * Counts a transition which was not run because the same document was already in a transition in another thread.
+     * It is not recorded as an execution of the operation, so that it doesn't change its error rate and durations.
+     * 
+     * @param operation the name of the refused transition
+     */
+    void recordLockRefusal(String operation);
+
+    /**
+     * @return the metrics of all the operations executed since the last reset, per operation and wiki
+     */
+    Collection<OperationMetricsMXBean> getOperations();
+
+    /**
+     * @return the metrics of all the caches accessed since the last reset
+     */
+    Collection<CacheMetricsMXBean> getCaches();
+
+    /**
+     * @return the number of attachment bytes copied since the last reset, by wiki
+     */
+    Map<String, Long> getAttachmentBytesCopied();
+
+    /**
+     * @return the number of transitions refused because the document was already in a transition, by operation
+     */
+    Map<String, Long> getLockRefusals();
+
+    /**
+     * Resets all the collected values.
+     */
+    void reset();
+}
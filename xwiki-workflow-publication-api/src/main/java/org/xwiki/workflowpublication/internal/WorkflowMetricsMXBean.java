@@ -0,0 +1,45 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Map;
+
+/**
+ * The global metrics of the workflow, as exposed through JMX.
+ * 
+ * @version $Id$
+ */
+public interface WorkflowMetricsMXBean
+{
+    /**
+     * @return the number of attachment bytes copied by the workflow, by wiki
+     */
+    Map<String, Long> getAttachmentBytesCopied();
+
+    /**
+     * @return the number of transitions refused because the document was already in a transition, by operation
+     */
+    Map<String, Long> getLockRefusals();
+
+    /**
+     * Resets all the collected values.
+     */
+    void reset();
+}
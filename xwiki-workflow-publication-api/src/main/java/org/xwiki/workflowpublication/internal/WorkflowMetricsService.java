@@ -0,0 +1,136 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.script.service.ScriptService;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Script service to read the metrics of the publication workflow, e.g. to display them in an administration page
+ * without a JMX client.
+ * 
+ * @version $Id$
+ */
+@Component
+@Named("workflowmetrics")
+@Singleton
+public class WorkflowMetricsService implements ScriptService
+{
+    @Inject
+    protected WorkflowMetrics metrics;
+
+    /**
+     * The execution, to get the context from it.
+     */
+    @Inject
+    protected Execution execution;
+
+    /**
+     * @return the metrics of all the operations, sorted by total time spent, the most expensive first
+     */
+    public List<OperationMetricsMXBean> getOperations()
+    {
+        List<OperationMetricsMXBean> operations = new ArrayList<OperationMetricsMXBean>(this.metrics.getOperations());
+        Collections.sort(operations, new Comparator<OperationMetricsMXBean>()
+        {
+            @Override
+            public int compare(OperationMetricsMXBean o1, OperationMetricsMXBean o2)
+            {
+                return Double.compare(o2.getMeanMillis() * o2.getCount(), o1.getMeanMillis() * o1.getCount());
+            }
+        });
+        return operations;
+    }
+
+    /**
+     * @param operation the name of an operation, one of the constants of {@link WorkflowMetrics}
+     * @param wiki the wiki on which the operation was executed
+     * @return the metrics of the operation on the passed wiki, or {@code null} if it was never executed there
+     */
+    public OperationMetricsMXBean getOperation(String operation, String wiki)
+    {
+        for (OperationMetricsMXBean operationMetrics : this.metrics.getOperations()) {
+            if (operationMetrics.getOperation().equals(operation) && operationMetrics.getWiki().equals(wiki)) {
+                return operationMetrics;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the metrics of the caches used by the workflow
+     */
+    public List<CacheMetricsMXBean> getCaches()
+    {
+        return new ArrayList<CacheMetricsMXBean>(this.metrics.getCaches());
+    }
+
+    /**
+     * @return the number of attachment bytes copied by the workflow, by wiki
+     */
+    public Map<String, Long> getAttachmentBytesCopied()
+    {
+        return this.metrics.getAttachmentBytesCopied();
+    }
+
+    /**
+     * @return the number of transitions refused because the document was already in a transition, by operation
+     */
+    public Map<String, Long> getLockRefusals()
+    {
+        return this.metrics.getLockRefusals();
+    }
+
+    /**
+     * Resets all the collected values, only for users with programming rights.
+     * 
+     * @return {@code true} if the values were reset, {@code false} if the current user is not allowed to
+     */
+    public boolean reset()
+    {
+        XWikiContext xcontext = getXContext();
+        if (!xcontext.getWiki().getRightService().hasProgrammingRights(xcontext)) {
+            return false;
+        }
+        this.metrics.reset();
+        return true;
+    }
+
+    /**
+     * @return the xwiki context from the execution context
+     */
+    private XWikiContext getXContext()
+    {
+        return (XWikiContext) execution.getContext().getProperty("xwikicontext");
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Map;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * A mail to send about a workflow transition: everything that is needed to send it outside of the request which did
+ * the transition. The recipients are kept as the group they are resolved from, so that they are only resolved when the
+ * mail is sent.
+ *
+ * @version $Id$
+ */
+public class WorkflowNotification
+{
+    /**
+     * The document on which the transition happened.
+     */
+    private final DocumentReference document;
+
+    /**
+     * The full name of the mail template document, in the wiki of the document.
+     */
+    private final String template;
+
+    /**
+     * The group of the recipients, relative to the document.
+     */
+    private final String recipientsGroup;
+
+    /**
+     * The sender of the mail.
+     */
+    private final String from;
+
+    /**
+     * The language in which to send the mail.
+     */
+    private final String language;
+
+    /**
+     * The user who did the transition, as whom the template is evaluated.
+     */
+    private final DocumentReference user;
+
+    /**
+     * The parameters of the template.
+     */
+    private final Map<String, Object> parameters;
+
+    /**
+     * @param document the document on which the transition happened
+     * @param template the full name of the mail template document, in the wiki of the document
+     * @param recipientsGroup the group of the recipients, relative to the document
+     * @param from the sender of the mail
+     * @param language the language in which to send the mail
+     * @param user the user who did the transition, as whom the template is evaluated, {@code null} to evaluate it as
+     *            the user of the context which sends the mail
+     * @param parameters the parameters of the template
+     */
+    public WorkflowNotification(DocumentReference document, String template, String recipientsGroup, String from,
+        String language, DocumentReference user, Map<String, Object> parameters)
+    {
+        this.document = document;
+        this.template = template;
+        this.recipientsGroup = recipientsGroup;
+        this.from = from;
+        this.language = language;
+        this.user = user;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return the document on which the transition happened
+     */
+    public DocumentReference getDocument()
+    {
+        return this.document;
+    }
+
+    /**
+     * @return the full name of the mail template document, in the wiki of the document
+     */
+    public String getTemplate()
+    {
+        return this.template;
+    }
+
+    /**
+     * @return the group of the recipients, relative to the document
+     */
+    public String getRecipientsGroup()
+    {
+        return this.recipientsGroup;
+    }
+
+    /**
+     * @return the sender of the mail
+     */
+    public String getFrom()
+    {
+        return this.from;
+    }
+
+    /**
+     * @return the language in which to send the mail
+     */
+    public String getLanguage()
+    {
+        return this.language;
+    }
+
+    /**
+     * @return the user who did the transition, as whom the template is evaluated, {@code null} to evaluate it as the
+     *         user of the context which sends the mail
+     */
+    public DocumentReference getUser()
+    {
+        return this.user;
+    }
+
+    /**
+     * @return the parameters of the template
+     */
+    public Map<String, Object> getParameters()
+    {
+        return this.parameters;
+    }
+}
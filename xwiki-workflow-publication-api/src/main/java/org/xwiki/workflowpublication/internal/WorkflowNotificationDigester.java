@@ -0,0 +1,40 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Coalesces the workflow notifications sent to the same recipients over a time window, and sends them as a single
+ * digest mail listing all the documents when the window is over.
+ *
+ * @version $Id$
+ */
+@Role
+public interface WorkflowNotificationDigester
+{
+    /**
+     * Adds the passed notification to the digest of its recipients, starting a new digest if none is pending.
+     *
+     * @param notification the notification to add to the digest
+     * @param window the number of minutes to wait for other notifications, when a new digest is started
+     */
+    void add(WorkflowNotification notification, int window);
+}
@@ -0,0 +1,198 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.workflowpublication.WorkflowConfigManager;
+import org.xwiki.workflowpublication.WorkflowTransitionEvent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Sends the mails to the contributors, moderators and validators of a workflow when a document is submitted or
+ * refused, with the same recipients and templates as the workflow script used to. The notification is prepared in the
+ * thread of the transition and handed to the {@link WorkflowNotificationQueue}, or sent right away when the queue
+ * cannot take it. The parameters of the template are computed in the transition, but a queued template is evaluated
+ * by the queue, as the user who did the transition and in its language, but without the request of the transition.
+ * If the workflow config has a digest window, the notification is handed to the {@link WorkflowNotificationDigester}
+ * instead.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(WorkflowNotificationListener.NAME)
+@Singleton
+public class WorkflowNotificationListener implements EventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "publicationworkflownotification";
+
+    /**
+     * The field of the workflow config holding the number of minutes over which the notifications are gathered in a
+     * digest, 0 or empty to send each notification on its own.
+     */
+    public static final String WF_CONFIG_DIGEST_WINDOW = "digestWindow";
+
+    /**
+     * The space of the mail templates.
+     */
+    private static final String TEMPLATES_SPACE = "PublicationWorkflow.";
+
+    private static final String PARAM_DOCUMENT = "document";
+
+    private static final String PARAM_URL = "url";
+
+    private static final String PARAM_REASON = "reason";
+
+    @Inject
+    protected WorkflowConfigManager configManager;
+
+    @Inject
+    protected WorkflowNotificationQueue queue;
+
+    @Inject
+    protected WorkflowNotificationSender sender;
+
+    @Inject
+    protected WorkflowNotificationDigester digester;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event> asList(new WorkflowTransitionEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        WorkflowTransitionEvent transitionEvent = (WorkflowTransitionEvent) event;
+        XWikiDocument document = (XWikiDocument) source;
+        XWikiContext xcontext = (XWikiContext) data;
+
+        try {
+            BaseObject config = configManager.getWorkflowConfigForWorkflowDoc(document, xcontext);
+            if (config == null) {
+                return;
+            }
+            WorkflowNotification notification = getNotification(transitionEvent, document, config, xcontext);
+            if (notification == null) {
+                return;
+            }
+            int window = config.getIntValue(WF_CONFIG_DIGEST_WINDOW, 0);
+            if (window > 0) {
+                this.digester.add(notification, window);
+            } else if (!this.queue.offer(notification)) {
+                this.sender.send(notification, xcontext);
+            }
+        } catch (XWikiException e) {
+            logger.error("Failed to notify the " + transitionEvent.getTransition() + " of document "
+                + document.getDocumentReference(), e);
+        }
+    }
+
+    /**
+     * Builds the notification to send for the passed transition, choosing the recipients and the template like the
+     * workflow script used to.
+     *
+     * @param event the transition
+     * @param document the workflow document on which the transition happened
+     * @param config the workflow config of the document
+     * @param xcontext the context of the transition
+     * @return the notification to send, or {@code null} if this transition is not notified
+     */
+    protected WorkflowNotification getNotification(WorkflowTransitionEvent event, XWikiDocument document,
+        BaseObject config, XWikiContext xcontext)
+    {
+        String transition = event.getTransition();
+        if (!WorkflowTransitionEvent.SUBMIT_FOR_MODERATION.equals(transition)
+            && !WorkflowTransitionEvent.SUBMIT_FOR_VALIDATION.equals(transition)
+            && !WorkflowTransitionEvent.REFUSE_MODERATION.equals(transition)
+            && !WorkflowTransitionEvent.REFUSE_VALIDATION.equals(transition)) {
+            return null;
+        }
+
+        String contributors = config.getStringValue(DefaultPublicationRoles.WF_CONFIG_CONTRIBUTOR);
+        String moderators = config.getStringValue(DefaultPublicationRoles.WF_CONFIG_MODERATOR);
+        String validators = config.getStringValue(DefaultPublicationRoles.WF_CONFIG_VALIDATOR);
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        // the display title of the script API is this same title, rendered in the syntax of the current request
+        parameters.put(PARAM_DOCUMENT, document.getRenderedTitle(xcontext));
+        parameters.put(PARAM_URL, document.getExternalURL("view", xcontext));
+
+        // same recipients and templates as the workflow script used to send the mails with
+        String recipients;
+        String template;
+        if (WorkflowTransitionEvent.SUBMIT_FOR_MODERATION.equals(transition)
+            || xcontext.get(DefaultPublicationWorkflow.CONTEXTKEY_SUBMITTING_FOR_MODERATION) != null) {
+            // without moderators, a draft submitted for moderation goes straight to the validators
+            recipients = StringUtils.isEmpty(moderators) ? validators : moderators;
+            template = "ValidationRequestMailTemplate";
+        } else if (WorkflowTransitionEvent.SUBMIT_FOR_VALIDATION.equals(transition)) {
+            recipients = validators;
+            template = "PublicationRequestMailTemplate";
+        } else if (WorkflowTransitionEvent.REFUSE_VALIDATION.equals(transition)) {
+            recipients = StringUtils.isEmpty(moderators) ? contributors : moderators;
+            template = "PublicationRefusalMailTemplate";
+            parameters.put(PARAM_REASON, StringUtils.defaultString(event.getReason()));
+        } else {
+            recipients = contributors;
+            template = "ValidationRefusalMailTemplate";
+            parameters.put(PARAM_REASON, StringUtils.defaultString(event.getReason()));
+        }
+        if (StringUtils.isEmpty(recipients)) {
+            return null;
+        }
+
+        String from = xcontext.getWiki().getXWikiPreference("admin_email", "mailer@xwiki.localdomain.com", xcontext);
+        return new WorkflowNotification(document.getDocumentReference(), TEMPLATES_SPACE + template, recipients, from,
+            xcontext.getLanguage(), xcontext.getUserReference(), parameters);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Bounded queue of workflow notifications, sent in the background by a pool of workers so that the transitions don't
+ * wait for the mail server.
+ *
+ * @version $Id$
+ */
+@Role
+public interface WorkflowNotificationQueue
+{
+    /**
+     * Queues the passed notification to be sent in the background.
+     *
+     * @param notification the notification to send
+     * @return {@code true} if the notification was queued, {@code false} if the queue is full or disabled, in which
+     *         case the caller is responsible of sending the notification
+     */
+    boolean offer(WorkflowNotification notification);
+}
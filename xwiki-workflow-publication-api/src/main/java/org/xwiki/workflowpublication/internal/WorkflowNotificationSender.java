@@ -0,0 +1,43 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Sends the workflow notifications, in the thread of the caller.
+ *
+ * @version $Id$
+ */
+@Role
+public interface WorkflowNotificationSender
+{
+    /**
+     * Resolves the recipients of the passed notification and sends it. Errors are logged, not thrown, so that a failing
+     * mail doesn't prevent the others from being sent.
+     *
+     * @param notification the notification to send
+     * @param xcontext the context to send the notification in
+     * @return {@code true} if the mail was sent or if there was nobody to send it to, {@code false} if sending failed
+     */
+    boolean send(WorkflowNotification notification, XWikiContext xcontext);
+}
@@ -0,0 +1,50 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Runs the publications and archivings scheduled with the {@value DefaultPublicationWorkflow#WF_PUBLISH_AT_FIELDNAME}
+ * and {@value DefaultPublicationWorkflow#WF_ARCHIVE_AT_FIELDNAME} fields of the workflow documents, at their time.
+ *
+ * @version $Id$
+ */
+@Role
+public interface WorkflowScheduler
+{
+    /**
+     * Schedules the transitions of the passed document according to its workflow object, replacing the ones which were
+     * scheduled before for this document.
+     *
+     * @param document a workflow document which was created or changed
+     */
+    void update(XWikiDocument document);
+
+    /**
+     * Cancels the transitions scheduled for the passed document.
+     *
+     * @param document a workflow document which was deleted
+     */
+    void remove(DocumentReference document);
+}
@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Groups the saves of a workflow transition which changes several documents, so that they are all kept or all undone.
+ * When the store is a database store, the saves are done in a single store transaction. Otherwise, the state of each
+ * document before the transition is recorded in a journal and restored when the transition fails.
+ * <p>
+ * The document events of XWiki are sent by each save, before the transaction is committed: their listeners see changes
+ * which can still be rolled back. The workflow events reporting a done change are sent after the commit, with
+ * {@link #afterCommit(XWikiContext, Runnable)}.
+ *
+ * @version $Id$
+ */
+@Role
+public interface WorkflowTransactionManager
+{
+    /**
+     * Starts a transaction in the passed context, the saves done in this context until the transaction is committed or
+     * rolled back are part of it.
+     *
+     * @param xcontext the context of the current request
+     * @return the started transaction
+     * @throws XWikiException in case the store transaction cannot be started
+     */
+    WorkflowTransaction begin(XWikiContext xcontext) throws XWikiException;
+
+    /**
+     * Runs the passed action once the transaction open in the passed context is committed, or right away if there is
+     * no transaction open. The action is dropped if the transaction is rolled back.
+     *
+     * @param xcontext the context of the current request
+     * @param action the action to run after the commit
+     */
+    void afterCommit(XWikiContext xcontext, Runnable action);
+
+    /**
+     * The saves of a workflow transition, to be either committed or rolled back, once.
+     */
+    interface WorkflowTransaction
+    {
+        /**
+         * @return {@code true} if the saves are done in a store transaction, {@code false} if they are compensated
+         *         from the journal on rollback
+         */
+        boolean isStoreTransaction();
+
+        /**
+         * Records the state of a document and of its translations before they are changed by the transaction, to
+         * restore them on rollback when there is no store transaction. Must be called before the document is saved.
+         *
+         * @param document the document about to be saved, in its default locale
+         */
+        void journal(XWikiDocument document);
+
+        /**
+         * Keeps the saves done in the transaction.
+         *
+         * @throws XWikiException in case the store transaction cannot be committed, in which case it is rolled back
+         */
+        void commit() throws XWikiException;
+
+        /**
+         * Undoes the saves done in the transaction, does nothing if the transaction was already committed or rolled
+         * back. The failures to restore a document are logged, since this is called when the transition has already
+         * failed.
+         */
+        void rollback();
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.LoggerFactory;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.job.JobManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.workflowpublication.PublicationWorkflow;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+import com.xpn.xwiki.web.Utils;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Sets up what the benchmarks need to run the workflow code outside of a wiki: a component manager loaded from the
+ * classpath, in which the configuration and the caches are replaced by in-memory mocks, an xwiki context with a mocked
+ * {@link XWiki} (no store, no database). The workflow is looked up from the component manager, with all its
+ * components, and the roles are wired by hand with a groups cache which never hits. Also builds the synthetic documents
+ * the benchmarks run on.
+ * 
+ * @version $Id$
+ */
+public class BenchmarkEnvironment
+{
+    /**
+     * The wiki of the synthetic documents.
+     */
+    public static final String WIKI = "xwiki";
+
+    /**
+     * The space of the synthetic documents.
+     */
+    public static final String SPACE = "Benchmark";
+
+    /**
+     * The class of the synthetic objects added to the documents.
+     */
+    public static final DocumentReference SYNTHETIC_CLASS = new DocumentReference(WIKI, SPACE, "SyntheticClass");
+
+    /**
+     * The author of the synthetic documents.
+     */
+    public static final DocumentReference AUTHOR = new DocumentReference(WIKI, "XWiki", "BenchmarkUser");
+
+    /**
+     * The hints of the configuration sources replaced by a mock which returns the default values.
+     */
+    private static final String[] CONFIGURATION_HINTS = {"default", "xwikiproperties", "xwikicfg", "wiki", "space",
+        "documents", "user", "all"};
+
+    /**
+     * The length of the lines of the synthetic contents.
+     */
+    private static final int LINE_LENGTH = 80;
+
+    private final EmbeddableComponentManager componentManager;
+
+    private final XWiki xwiki;
+
+    private final XWikiContext xcontext;
+
+    private final XWikiGroupService groupService;
+
+    /**
+     * The classes returned by the mocked wiki, by reference.
+     */
+    private final Map<DocumentReference, BaseClass> classes = new ConcurrentHashMap<DocumentReference, BaseClass>();
+
+    /**
+     * Creates the component manager, the mocks and the context, and sets them up as the current ones.
+     * 
+     * @throws Exception in case the components cannot be set up
+     */
+    public BenchmarkEnvironment() throws Exception
+    {
+        this.componentManager = new EmbeddableComponentManager();
+        this.componentManager.initialize(getClass().getClassLoader());
+        ConfigurationSource configuration =
+            mock(ConfigurationSource.class, withSettings().stubOnly().defaultAnswer(new DefaultValueAnswer()));
+        for (String hint : CONFIGURATION_HINTS) {
+            this.componentManager.registerComponent(ConfigurationSource.class, hint, configuration);
+        }
+        this.componentManager.registerComponent(CacheManager.class, mockCacheManager());
+        // the benchmarks don't run bulk transitions, don't start the job thread
+        this.componentManager.registerComponent(JobManager.class, mockStubOnly(JobManager.class));
+        Utils.setComponentManager(this.componentManager);
+
+        // the context needs to be in the execution before the wiki is set, to update the model context
+        Execution execution = this.componentManager.getInstance(Execution.class);
+        ExecutionContext executionContext = new ExecutionContext();
+        execution.setContext(executionContext);
+
+        this.xwiki = mockStubOnly(XWiki.class);
+        this.groupService = mockStubOnly(XWikiGroupService.class);
+        when(this.xwiki.getGroupService(any(XWikiContext.class))).thenReturn(this.groupService);
+        when(this.xwiki.getXClass(any(DocumentReference.class), any(XWikiContext.class))).thenAnswer(
+            new Answer<BaseClass>()
+            {
+                @Override
+                public BaseClass answer(InvocationOnMock invocation)
+                {
+                    return getXClass((DocumentReference) invocation.getArguments()[0]);
+                }
+            });
+
+        this.xcontext = new XWikiContext();
+        executionContext.setProperty("xwikicontext", this.xcontext);
+        this.xcontext.setWiki(this.xwiki);
+        this.xcontext.setMainXWiki(WIKI);
+        this.xcontext.setDatabase(WIKI);
+        this.xcontext.setUserReference(AUTHOR);
+    }
+
+    /**
+     * @return the context the workflow code runs in
+     */
+    public XWikiContext getContext()
+    {
+        return this.xcontext;
+    }
+
+    /**
+     * @return the mocked group service, to set up synthetic group hierarchies
+     */
+    public XWikiGroupService getGroupService()
+    {
+        return this.groupService;
+    }
+
+    /**
+     * @return the workflow component, the one running the transitions without locking and measuring them, so that the
+     *         benchmarks can call its helpers directly
+     * @throws Exception in case the components cannot be looked up
+     */
+    public DefaultPublicationWorkflow createPublicationWorkflow() throws Exception
+    {
+        return (DefaultPublicationWorkflow) this.componentManager.getInstance(PublicationWorkflow.class,
+            DefaultPublicationWorkflow.HINT);
+    }
+
+    /**
+     * @return a roles instance wired with a groups cache which never hits, so that the groups are always resolved
+     * @throws Exception in case the components cannot be looked up
+     */
+    public DefaultPublicationRoles createPublicationRoles() throws Exception
+    {
+        DefaultPublicationRoles roles = new DefaultPublicationRoles();
+        inject(roles, "logger", LoggerFactory.getLogger(DefaultPublicationRoles.class));
+        inject(roles, "localStringSerializer",
+            this.componentManager.getInstance(EntityReferenceSerializer.TYPE_STRING, "local"));
+        inject(roles, "stringSerializer", this.componentManager.getInstance(EntityReferenceSerializer.TYPE_STRING));
+        inject(roles, "explicitStringDocRefResolver",
+            this.componentManager.getInstance(DocumentReferenceResolver.TYPE_STRING, "explicit"));
+        inject(roles, "defaultStringDocRefResolver",
+            this.componentManager.getInstance(DocumentReferenceResolver.TYPE_STRING));
+        inject(roles, "groupsCache", mockStubOnly(GroupMembershipCache.class));
+        inject(roles, "metrics", this.componentManager.getInstance(WorkflowMetrics.class));
+        return roles;
+    }
+
+    /**
+     * Builds a document as if it was loaded from the store: nothing is dirty and the attachments are loaded. Documents
+     * built with the same seed and sizes have the same contents, objects and attachments.
+     * 
+     * @param name the name of the document, in the benchmark space
+     * @param seed the seed of the random generator of the contents
+     * @param contentLength the number of characters of the content
+     * @param objectCount the number of synthetic objects
+     * @param attachmentCount the number of attachments
+     * @param attachmentSize the number of bytes of each attachment
+     * @return the synthetic document
+     * @throws Exception in case the document cannot be built
+     */
+    public XWikiDocument createDocument(String name, long seed, int contentLength, int objectCount,
+        int attachmentCount, int attachmentSize) throws Exception
+    {
+        Random random = new Random(seed);
+        XWikiDocument document = new XWikiDocument(new DocumentReference(WIKI, SPACE, name));
+        document.setSyntax(Syntax.XWIKI_2_1);
+        document.setTitle(name);
+        document.setContent(randomText(random, contentLength));
+        document.setCreatorReference(AUTHOR);
+        document.setAuthorReference(AUTHOR);
+        document.setContentAuthorReference(AUTHOR);
+
+        for (int i = 0; i < objectCount; i++) {
+            BaseObject object = document.newXObject(SYNTHETIC_CLASS, this.xcontext);
+            object.setStringValue("title", randomText(random, LINE_LENGTH));
+            object.setIntValue("rank", i);
+            object.setLargeStringValue("description", randomText(random, LINE_LENGTH * 10));
+        }
+
+        for (int i = 0; i < attachmentCount; i++) {
+            byte[] bytes = new byte[attachmentSize];
+            random.nextBytes(bytes);
+            addAttachment(document, "attachment" + i + ".bin", bytes);
+        }
+
+        document.setContentDirty(false);
+        document.setMetaDataDirty(false);
+        document.setNew(false);
+        return document;
+    }
+
+    /**
+     * Adds an attachment to the passed document, loaded and with an empty history as if it was read from the store.
+     * 
+     * @param document the document to add the attachment to
+     * @param filename the name of the attachment
+     * @param bytes the content of the attachment
+     * @return the attachment
+     * @throws IOException in case the content cannot be set
+     */
+    public XWikiAttachment addAttachment(XWikiDocument document, String filename, byte[] bytes) throws IOException
+    {
+        XWikiAttachment attachment = document.getAttachment(filename);
+        if (attachment == null) {
+            attachment = new XWikiAttachment(document, filename);
+            document.getAttachmentList().add(attachment);
+        }
+        attachment.setContent(new ByteArrayInputStream(bytes));
+        attachment.setFilesize(bytes.length);
+        attachment.setVersion("1.1");
+        attachment.setDate(new Date(0));
+        attachment.setAuthor("XWiki.BenchmarkUser");
+        XWikiAttachmentArchive archive = new XWikiAttachmentArchive();
+        archive.setAttachment(attachment);
+        attachment.setAttachment_archive(archive);
+        attachment.getAttachment_content().setContentDirty(false);
+        return attachment;
+    }
+
+    /**
+     * @param reference the reference of a class
+     * @return the class, with the properties of the rights class for the rights and of the synthetic class otherwise
+     */
+    private BaseClass getXClass(DocumentReference reference)
+    {
+        BaseClass xclass = this.classes.get(reference);
+        if (xclass == null) {
+            xclass = new BaseClass();
+            xclass.setDocumentReference(reference);
+            if ("XWikiRights".equals(reference.getName())) {
+                xclass.addGroupsField(DefaultPublicationWorkflow.RIGHTS_GROUPS, "Groups");
+                xclass.addLevelsField(DefaultPublicationWorkflow.RIGHTS_LEVELS, "Levels");
+                xclass.addUsersField(DefaultPublicationWorkflow.RIGHTS_USERS, "Users");
+                xclass.addBooleanField(DefaultPublicationWorkflow.RIGHTS_ALLOWDENY, "Allow/Deny", "allow");
+            } else {
+                xclass.addTextField("title", "Title", 30);
+                xclass.addNumberField("rank", "Rank", 5, "integer");
+                xclass.addTextAreaField("description", "Description", 40, 5);
+            }
+            this.classes.put(reference, xclass);
+        }
+        return xclass;
+    }
+
+    /**
+     * @param random the random generator
+     * @param length the number of characters
+     * @return random lines of words
+     */
+    private String randomText(Random random, int length)
+    {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            if (text.length() % LINE_LENGTH == LINE_LENGTH - 1) {
+                text.append('\n');
+            } else if (random.nextInt(7) == 0) {
+                text.append(' ');
+            } else {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param type the type to mock
+     * @param <T> the type to mock
+     * @return a mock which doesn't record its invocations, since the benchmarks call the mocks millions of times
+     */
+    private <T> T mockStubOnly(Class<T> type)
+    {
+        return mock(type, withSettings().stubOnly());
+    }
+
+    /**
+     * Sets a field of a component, as the component manager would inject it.
+     * 
+     * @param component the component to set the field of
+     * @param field the name of the field
+     * @param value the value to set
+     */
+    private void inject(Object component, String field, Object value)
+    {
+        ReflectionUtils.setFieldValue(component, field, value);
+    }
+
+    /**
+     * @return a cache manager creating map based caches, without eviction
+     * @throws Exception never, declared by the mocked method
+     */
+    @SuppressWarnings("unchecked")
+    private CacheManager mockCacheManager() throws Exception
+    {
+        CacheManager cacheManager = mockStubOnly(CacheManager.class);
+        Answer<Cache<Object>> newCache = new Answer<Cache<Object>>()
+        {
+            @Override
+            public Cache<Object> answer(InvocationOnMock invocation)
+            {
+                return mockCache();
+            }
+        };
+        when(cacheManager.createNewCache(any(CacheConfiguration.class))).thenAnswer(newCache);
+        when(cacheManager.createNewLocalCache(any(CacheConfiguration.class))).thenAnswer(newCache);
+        return cacheManager;
+    }
+
+    /**
+     * @return a cache storing its values in a map
+     */
+    @SuppressWarnings("unchecked")
+    private Cache<Object> mockCache()
+    {
+        final Map<String, Object> values = new ConcurrentHashMap<String, Object>();
+        Cache<Object> cache = mockStubOnly(Cache.class);
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                values.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(cache).set(any(String.class), any());
+        when(cache.get(any(String.class))).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return values.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                values.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(cache).remove(any(String.class));
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                values.clear();
+                return null;
+            }
+        }).when(cache).removeAll();
+        return cache;
+    }
+
+    /**
+     * Answers the configuration lookups with the default value passed by the caller, if any.
+     */
+    private static class DefaultValueAnswer implements Answer<Object>
+    {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable
+        {
+            Object[] arguments = invocation.getArguments();
+            if ("getProperty".equals(invocation.getMethod().getName()) && arguments.length == 2
+                && !(arguments[1] instanceof Class)) {
+                return arguments[1];
+            }
+            return RETURNS_DEFAULTS.answer(invocation);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmark of the recursive resolution of the groups of a user, done for every role check, on a synthetic hierarchy
+ * of nested groups served by a mocked group service. The groups cache is disabled, so that every call walks the whole
+ * hierarchy.
+ * 
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GroupsBenchmark
+{
+    private static final String GROUP_PREFIX = "BenchmarkGroup_";
+
+    /**
+     * The number of levels of nested groups above the user.
+     */
+    @Param({"1", "5", "10"})
+    public int depth;
+
+    /**
+     * The number of groups on each level.
+     */
+    @Param({"10", "100"})
+    public int groupsPerLevel;
+
+    /**
+     * The number of groups of the next level each member is in.
+     */
+    @Param({"1", "3"})
+    public int fanout;
+
+    private BenchmarkEnvironment environment;
+
+    private DefaultPublicationRoles roles;
+
+    private DocumentReference user;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.environment = new BenchmarkEnvironment();
+        this.roles = this.environment.createPublicationRoles();
+        this.user = BenchmarkEnvironment.AUTHOR;
+
+        when(
+            this.environment.getGroupService().getAllGroupsReferencesForMember(any(DocumentReference.class), anyInt(),
+                anyInt(), any(XWikiContext.class))).thenAnswer(new Answer<Collection<DocumentReference>>()
+        {
+            @Override
+            public Collection<DocumentReference> answer(InvocationOnMock invocation)
+            {
+                return getParentGroups((DocumentReference) invocation.getArguments()[0]);
+            }
+        });
+    }
+
+    @Benchmark
+    public Collection<String> getGroups() throws Exception
+    {
+        XWikiContext xcontext = this.environment.getContext();
+        // the groups are also cached on the context for the request, start each call as a new request
+        xcontext.remove("grouplist");
+        return this.roles.getGroups(this.user, true, true, true, xcontext);
+    }
+
+    /**
+     * The user is in the first groups of level 0 and each group of a level is in {@link #fanout} groups of the level
+     * above, wrapping around, so that the hierarchy widens up to {@link #groupsPerLevel} groups per level, with shared
+     * parents but no cycles.
+     * 
+     * @param member the user or group to get the groups of
+     * @return the direct groups of the member
+     */
+    private Collection<DocumentReference> getParentGroups(DocumentReference member)
+    {
+        int level;
+        int index;
+        if (member.equals(this.user)) {
+            level = 0;
+            index = 0;
+        } else {
+            String[] position = member.getName().substring(GROUP_PREFIX.length()).split("_");
+            level = Integer.parseInt(position[0]) + 1;
+            index = Integer.parseInt(position[1]);
+        }
+
+        List<DocumentReference> groups = new ArrayList<DocumentReference>();
+        if (level < this.depth) {
+            for (int i = 0; i < this.fanout; i++) {
+                groups.add(new DocumentReference(member.getWikiReference().getName(), "XWiki", GROUP_PREFIX + level
+                    + '_' + ((index * this.fanout + i) % this.groupsPerLevel)));
+            }
+        }
+        return groups;
+    }
+}
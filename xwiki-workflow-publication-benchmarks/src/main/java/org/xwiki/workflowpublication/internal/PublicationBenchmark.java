@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Benchmarks of the comparison and of the copy of a draft and its published document (full merge or only the changes),
+ * the costly steps of publish and unpublish, on synthetic documents of configurable size.
+ * 
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PublicationBenchmark
+{
+    @Param({"1000", "100000"})
+    public int contentLength;
+
+    @Param({"0", "50"})
+    public int objectCount;
+
+    @Param({"0", "10"})
+    public int attachmentCount;
+
+    @Param({"10240", "1048576"})
+    public int attachmentSize;
+
+    /**
+     * Whether the copy skips the attachments which are identical in both documents.
+     */
+    @Param({"true", "false"})
+    public boolean skipIdenticalAttachments;
+
+    private BenchmarkEnvironment environment;
+
+    private DefaultPublicationWorkflow workflow;
+
+    /**
+     * The published document.
+     */
+    private XWikiDocument published;
+
+    /**
+     * A document identical to the published one, so that the comparison has to go through everything.
+     */
+    private XWikiDocument identical;
+
+    /**
+     * The draft, which differs from the published document by its content and its first attachment.
+     */
+    private XWikiDocument draft;
+
+    /**
+     * The document the draft is copied to, a fresh copy of the published document for each invocation.
+     */
+    private XWikiDocument copyTarget;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.environment = new BenchmarkEnvironment();
+        this.workflow = this.environment.createPublicationWorkflow();
+
+        this.published =
+            this.environment.createDocument("Published", 1, this.contentLength, this.objectCount,
+                this.attachmentCount, this.attachmentSize);
+        this.identical =
+            this.environment.createDocument("Identical", 1, this.contentLength, this.objectCount,
+                this.attachmentCount, this.attachmentSize);
+        this.draft =
+            this.environment.createDocument("Draft", 1, this.contentLength, this.objectCount, this.attachmentCount,
+                this.attachmentSize);
+        this.draft.setContent(this.draft.getContent() + "\nChanged in the draft.");
+        if (this.attachmentCount > 0) {
+            this.environment.addAttachment(this.draft, "attachment0.bin", new byte[this.attachmentSize]);
+        }
+        this.draft.setContentDirty(false);
+        this.draft.setMetaDataDirty(false);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpCopyTarget()
+    {
+        this.copyTarget = this.published.clone();
+    }
+
+    @Benchmark
+    public boolean isModifiedIdentical() throws Exception
+    {
+        return this.workflow.isModified(this.identical, this.published, getContext());
+    }
+
+    @Benchmark
+    public boolean isModifiedDraft() throws Exception
+    {
+        return this.workflow.isModified(this.draft, this.published, getContext());
+    }
+
+    @Benchmark
+    public CopyContentsResult copyContentsToNewVersion() throws Exception
+    {
+        return this.workflow.copyContentsToNewVersion(this.draft, this.copyTarget, this.skipIdenticalAttachments,
+            getContext());
+    }
+
+    /**
+     * The incremental copy done when publishing a draft over the document it was published to before.
+     */
+    @Benchmark
+    public CopyContentsResult copyChangesToNewVersion() throws Exception
+    {
+        return this.workflow.copyChangesToNewVersion(this.draft, this.copyTarget, getContext());
+    }
+
+    private XWikiContext getContext()
+    {
+        return this.environment.getContext();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Benchmark of the setup of the rights of a workflow document, done by every transition, with a configurable number of
+ * groups and of rights objects already in the document.
+ * 
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RightsBenchmark
+{
+    private static final List<String> LEVELS = Arrays.asList("edit", "comment", "view");
+
+    @Param({"1", "20"})
+    public int groupCount;
+
+    @Param({"0", "10"})
+    public int existingRightsObjects;
+
+    private BenchmarkEnvironment environment;
+
+    private DefaultPublicationWorkflow workflow;
+
+    private List<String> groups;
+
+    /**
+     * The document with the existing rights objects, copied for each invocation.
+     */
+    private XWikiDocument template;
+
+    private XWikiDocument document;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.environment = new BenchmarkEnvironment();
+        this.workflow = this.environment.createPublicationWorkflow();
+
+        this.groups = new ArrayList<String>();
+        for (int i = 0; i < this.groupCount; i++) {
+            this.groups.add("XWiki.BenchmarkGroup" + i);
+        }
+
+        this.template = this.environment.createDocument("Rights", 1, 100, 0, 0, 0);
+        for (int i = 0; i < this.existingRightsObjects; i++) {
+            this.workflow.fillRightsObject(this.template, LEVELS, this.groups, Arrays.<String> asList(), true, i,
+                this.environment.getContext());
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpDocument()
+    {
+        this.document = this.template.clone();
+    }
+
+    @Benchmark
+    public XWikiDocument fillRightsObject() throws Exception
+    {
+        // the first objects are reused, one more is created, as when a draft is submitted for moderation
+        this.workflow.fillRightsObject(this.document, LEVELS, this.groups, Arrays.<String> asList(), true,
+            this.existingRightsObjects, this.environment.getContext());
+        this.workflow.removeRestOfRights(this.document, this.existingRightsObjects + 1, this.environment.getContext());
+        return this.document;
+    }
+}
@@ -0,0 +1,549 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.workflowpublication.PublicationWorkflow;
+import org.xwiki.workflowpublication.internal.DefaultDraftDocumentIndex;
+import org.xwiki.workflowpublication.internal.DefaultPublicationWorkflow;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.store.AttachmentVersioningStore;
+import com.xpn.xwiki.store.XWikiAttachmentStoreInterface;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Stand-in for the document and attachment stores, keeping the documents and the attachment contents in memory. The
+ * documents are stored as copies and each load returns a new copy, so that concurrent transitions don't share
+ * instances, and the attachment contents are only loaded on demand, like from the database.
+ * <p>
+ * There is no HQL: the queries are answered by the handlers registered for their exact text. The query of the drafts
+ * index is handled by default, the other queries return no results.
+ * 
+ * @version $Id$
+ */
+public class InMemoryXWikiStore
+{
+    /**
+     * Answers a query, in place of the database.
+     */
+    public interface QueryHandler
+    {
+        /**
+         * @param parameters the values of the parameters of the query
+         * @param xcontext the context, its database is the wiki to search
+         * @return the rows of the results
+         * @throws XWikiException in case the query fails
+         */
+        List<Object[]> search(List< ? > parameters, XWikiContext xcontext) throws XWikiException;
+    }
+
+    /**
+     * The stored documents, by reference and locale. They are never modified once stored.
+     */
+    private final ConcurrentMap<String, XWikiDocument> documents = new ConcurrentHashMap<String, XWikiDocument>();
+
+    /**
+     * The contents of the stored attachments, by document and file name.
+     */
+    private final ConcurrentMap<String, byte[]> attachments = new ConcurrentHashMap<String, byte[]>();
+
+    /**
+     * The query handlers, by query.
+     */
+    private final Map<String, QueryHandler> queries = new ConcurrentHashMap<String, QueryHandler>();
+
+    private final XWikiStoreInterface store;
+
+    private final XWikiAttachmentStoreInterface attachmentStore;
+
+    private final AttachmentVersioningStore attachmentVersioningStore;
+
+    /**
+     * Creates an empty store.
+     * 
+     * @throws XWikiException never, declared by the mocked store methods
+     */
+    public InMemoryXWikiStore() throws XWikiException
+    {
+        this.store = createStore();
+        this.attachmentStore = createAttachmentStore();
+        this.attachmentVersioningStore = createAttachmentVersioningStore();
+        registerQuery(DefaultDraftDocumentIndex.DRAFTS_QUERY, new DraftsQueryHandler());
+    }
+
+    /**
+     * @return the document store, to be returned by the wiki
+     */
+    public XWikiStoreInterface getStore()
+    {
+        return this.store;
+    }
+
+    /**
+     * @return the attachment content store, to be returned by the wiki
+     */
+    public XWikiAttachmentStoreInterface getAttachmentStore()
+    {
+        return this.attachmentStore;
+    }
+
+    /**
+     * @return the attachment history store, to be returned by the wiki
+     */
+    public AttachmentVersioningStore getAttachmentVersioningStore()
+    {
+        return this.attachmentVersioningStore;
+    }
+
+    /**
+     * Registers the handler of a query, replacing the previous one if any.
+     * 
+     * @param query the exact text of the query, as passed to the store
+     * @param handler the handler answering it
+     */
+    public void registerQuery(String query, QueryHandler handler)
+    {
+        this.queries.put(query, handler);
+    }
+
+    /**
+     * @return the stored documents, in no particular order. They are the stored instances, not to be modified
+     */
+    public Collection<XWikiDocument> getDocuments()
+    {
+        return Collections.unmodifiableCollection(this.documents.values());
+    }
+
+    /**
+     * Removes all the documents and attachments.
+     */
+    public void clear()
+    {
+        this.documents.clear();
+        this.attachments.clear();
+    }
+
+    /**
+     * Loads the passed document, as the database store does.
+     * 
+     * @param document the document to load, only its reference and locale are used
+     * @return a copy of the stored document, or the passed document marked as new if it was not stored
+     */
+    public XWikiDocument loadDocument(XWikiDocument document)
+    {
+        XWikiDocument storedDocument = this.documents.get(getKey(document));
+        if (storedDocument == null) {
+            document.setNew(true);
+            document.setOriginalDocument(new XWikiDocument(document.getDocumentReference()));
+            return document;
+        }
+
+        XWikiDocument loadedDocument = storedDocument.clone();
+        loadedDocument.setNew(false);
+        loadedDocument.setOriginalDocument(storedDocument);
+        return loadedDocument;
+    }
+
+    /**
+     * Saves the passed document, as the database store does: the version is incremented if the document changed, the
+     * attachments which changed are saved and the document is not dirty anymore.
+     * 
+     * @param document the document to save
+     */
+    public void saveDocument(XWikiDocument document)
+    {
+        if (document.isContentDirty() || document.isMetaDataDirty()) {
+            Date date = new Date();
+            document.setDate(date);
+            if (document.isContentDirty()) {
+                document.setContentUpdateDate(date);
+            }
+            document.incrementVersion();
+        }
+        for (XWikiAttachment attachment : document.getAttachmentList()) {
+            if (attachment.isContentDirty()) {
+                saveAttachmentContent(attachment);
+            }
+        }
+        document.setContentDirty(false);
+        document.setMetaDataDirty(false);
+        document.setNew(false);
+
+        XWikiDocument storedDocument = document.clone();
+        storedDocument.setOriginalDocument(null);
+        // the contents are loaded on demand, from the attachments map
+        for (XWikiAttachment attachment : storedDocument.getAttachmentList()) {
+            attachment.setAttachment_content(null);
+        }
+        this.documents.put(getKey(document), storedDocument);
+        document.setOriginalDocument(storedDocument);
+    }
+
+    /**
+     * Deletes the passed document and its attachments, and its translations if it's the default locale.
+     * 
+     * @param document the document to delete
+     */
+    public void deleteDocument(XWikiDocument document)
+    {
+        String key = getKey(document);
+        this.documents.remove(key);
+        removeAttachments(key);
+        if (StringUtils.isEmpty(document.getLanguage())) {
+            String translationsPrefix = getReferenceKey(document) + '/';
+            for (String translationKey : new ArrayList<String>(this.documents.keySet())) {
+                if (translationKey.startsWith(translationsPrefix)) {
+                    this.documents.remove(translationKey);
+                    removeAttachments(translationKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param document the document, only its reference is used
+     * @return the languages of the stored translations of the document
+     */
+    public List<String> getTranslationList(XWikiDocument document)
+    {
+        String translationsPrefix = getReferenceKey(document) + '/';
+        List<String> languages = new ArrayList<String>();
+        for (String key : this.documents.keySet()) {
+            if (key.startsWith(translationsPrefix)) {
+                languages.add(key.substring(translationsPrefix.length()));
+            }
+        }
+        return languages;
+    }
+
+    /**
+     * @param document the document, only its reference and locale are used
+     * @return whether the document is stored
+     */
+    public boolean exists(XWikiDocument document)
+    {
+        return this.documents.containsKey(getKey(document));
+    }
+
+    /**
+     * Answers a query with its registered handler.
+     * 
+     * @param query the text of the query
+     * @param parameters the values of its parameters
+     * @param xcontext the context, its database is the wiki to search
+     * @return the rows of the results, empty if no handler is registered for the query
+     * @throws XWikiException in case the handler fails
+     */
+    public List<Object[]> search(String query, List< ? > parameters, XWikiContext xcontext) throws XWikiException
+    {
+        QueryHandler handler = this.queries.get(query);
+        if (handler == null) {
+            return new ArrayList<Object[]>();
+        }
+        return handler.search(parameters, xcontext);
+    }
+
+    /**
+     * Stores the content of the passed attachment.
+     * 
+     * @param attachment the attachment, its content needs to be loaded
+     */
+    public void saveAttachmentContent(XWikiAttachment attachment)
+    {
+        XWikiAttachmentContent content = attachment.getAttachment_content();
+        if (content != null) {
+            this.attachments.put(getAttachmentKey(attachment), content.getContent());
+            content.setContentDirty(false);
+        }
+    }
+
+    /**
+     * Sets the stored content on the passed attachment.
+     * 
+     * @param attachment the attachment to load the content of
+     * @throws XWikiException in case the attachment content was never stored
+     */
+    public void loadAttachmentContent(XWikiAttachment attachment) throws XWikiException
+    {
+        byte[] bytes = this.attachments.get(getAttachmentKey(attachment));
+        if (bytes == null) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_ATTACHMENT, "No content stored for attachment "
+                    + attachment.getFilename() + " of document " + attachment.getDoc().getDocumentReference());
+        }
+        XWikiAttachmentContent content = new XWikiAttachmentContent(attachment);
+        content.setContent(bytes);
+        content.setContentDirty(false);
+        attachment.setAttachment_content(content);
+    }
+
+    /**
+     * @param attachment the attachment to delete the content of
+     */
+    public void deleteAttachmentContent(XWikiAttachment attachment)
+    {
+        this.attachments.remove(getAttachmentKey(attachment));
+    }
+
+    /**
+     * @param documentKey the key of a document
+     */
+    private void removeAttachments(String documentKey)
+    {
+        String prefix = documentKey + '@';
+        for (String attachmentKey : new ArrayList<String>(this.attachments.keySet())) {
+            if (attachmentKey.startsWith(prefix)) {
+                this.attachments.remove(attachmentKey);
+            }
+        }
+    }
+
+    /**
+     * @param document a document
+     * @return the key of the document, without its locale
+     */
+    private String getReferenceKey(XWikiDocument document)
+    {
+        return document.getDocumentReference().toString();
+    }
+
+    /**
+     * @param document a document
+     * @return the key of the document in the store
+     */
+    private String getKey(XWikiDocument document)
+    {
+        String language = document.getLanguage();
+        return StringUtils.isEmpty(language) ? getReferenceKey(document) : getReferenceKey(document) + '/' + language;
+    }
+
+    /**
+     * @param attachment an attachment
+     * @return the key of the content of the attachment
+     */
+    private String getAttachmentKey(XWikiAttachment attachment)
+    {
+        return getKey(attachment.getDoc()) + '@' + attachment.getFilename();
+    }
+
+    /**
+     * @return the document store, delegating to this store
+     * @throws XWikiException never, declared by the mocked methods
+     */
+    @SuppressWarnings("unchecked")
+    private XWikiStoreInterface createStore() throws XWikiException
+    {
+        XWikiStoreInterface documentStore = mockStubOnly(XWikiStoreInterface.class);
+        Answer<Object> save = new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                saveDocument((XWikiDocument) invocation.getArguments()[0]);
+                return null;
+            }
+        };
+        doAnswer(save).when(documentStore).saveXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+        doAnswer(save).when(documentStore).saveXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class),
+            anyBoolean());
+        when(documentStore.loadXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class))).thenAnswer(
+            new Answer<XWikiDocument>()
+            {
+                @Override
+                public XWikiDocument answer(InvocationOnMock invocation)
+                {
+                    return loadDocument((XWikiDocument) invocation.getArguments()[0]);
+                }
+            });
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                deleteDocument((XWikiDocument) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(documentStore).deleteXWikiDoc(any(XWikiDocument.class), any(XWikiContext.class));
+        when(documentStore.exists(any(XWikiDocument.class), any(XWikiContext.class))).thenAnswer(new Answer<Boolean>()
+        {
+            @Override
+            public Boolean answer(InvocationOnMock invocation)
+            {
+                return exists((XWikiDocument) invocation.getArguments()[0]);
+            }
+        });
+        when(documentStore.getTranslationList(any(XWikiDocument.class), any(XWikiContext.class))).thenAnswer(
+            new Answer<List<String>>()
+            {
+                @Override
+                public List<String> answer(InvocationOnMock invocation)
+                {
+                    return getTranslationList((XWikiDocument) invocation.getArguments()[0]);
+                }
+            });
+        Answer<List<Object[]>> search = new Answer<List<Object[]>>()
+        {
+            @Override
+            public List<Object[]> answer(InvocationOnMock invocation) throws XWikiException
+            {
+                Object[] arguments = invocation.getArguments();
+                List< ? > parameters =
+                    arguments.length > 4 ? (List< ? >) arguments[3] : Collections.<Object> emptyList();
+                return search((String) arguments[0], parameters, (XWikiContext) arguments[arguments.length - 1]);
+            }
+        };
+        when(documentStore.search(anyString(), anyInt(), anyInt(), any(XWikiContext.class))).thenAnswer(search);
+        when(documentStore.search(anyString(), anyInt(), anyInt(), anyList(), any(XWikiContext.class))).thenAnswer(
+            search);
+        return documentStore;
+    }
+
+    /**
+     * @return the attachment content store, delegating to this store
+     * @throws XWikiException never, declared by the mocked methods
+     */
+    private XWikiAttachmentStoreInterface createAttachmentStore() throws XWikiException
+    {
+        XWikiAttachmentStoreInterface contentStore = mockStubOnly(XWikiAttachmentStoreInterface.class);
+        Answer<Object> save = new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                saveAttachmentContent((XWikiAttachment) invocation.getArguments()[0]);
+                return null;
+            }
+        };
+        doAnswer(save).when(contentStore).saveAttachmentContent(any(XWikiAttachment.class),
+            any(XWikiContext.class), anyBoolean());
+        doAnswer(save).when(contentStore).saveAttachmentContent(any(XWikiAttachment.class), anyBoolean(),
+            any(XWikiContext.class), anyBoolean());
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws XWikiException
+            {
+                loadAttachmentContent((XWikiAttachment) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(contentStore).loadAttachmentContent(any(XWikiAttachment.class), any(XWikiContext.class),
+            anyBoolean());
+        Answer<Object> delete = new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                deleteAttachmentContent((XWikiAttachment) invocation.getArguments()[0]);
+                return null;
+            }
+        };
+        doAnswer(delete).when(contentStore).deleteXWikiAttachment(any(XWikiAttachment.class),
+            any(XWikiContext.class), anyBoolean());
+        doAnswer(delete).when(contentStore).deleteXWikiAttachment(any(XWikiAttachment.class), anyBoolean(),
+            any(XWikiContext.class), anyBoolean());
+        return contentStore;
+    }
+
+    /**
+     * @return an attachment history store which keeps no history: each attachment starts with an empty archive
+     * @throws XWikiException never, declared by the mocked methods
+     */
+    private AttachmentVersioningStore createAttachmentVersioningStore() throws XWikiException
+    {
+        AttachmentVersioningStore versioningStore = mockStubOnly(AttachmentVersioningStore.class);
+        when(versioningStore.loadArchive(any(XWikiAttachment.class), any(XWikiContext.class), anyBoolean()))
+            .thenAnswer(new Answer<XWikiAttachmentArchive>()
+            {
+                @Override
+                public XWikiAttachmentArchive answer(InvocationOnMock invocation)
+                {
+                    XWikiAttachment attachment = (XWikiAttachment) invocation.getArguments()[0];
+                    XWikiAttachmentArchive archive = new XWikiAttachmentArchive();
+                    archive.setAttachment(attachment);
+                    attachment.setAttachment_archive(archive);
+                    return archive;
+                }
+            });
+        return versioningStore;
+    }
+
+    /**
+     * @param type the type to mock
+     * @param <T> the type to mock
+     * @return a mock which doesn't record its invocations, since the load driver calls the stores millions of times
+     */
+    private <T> T mockStubOnly(Class<T> type)
+    {
+        return mock(type, withSettings().stubOnly());
+    }
+
+    /**
+     * Answers the query of the drafts index: the name and target of the workflow documents which are not targets, in
+     * the wiki of the context.
+     */
+    private class DraftsQueryHandler implements QueryHandler
+    {
+        @Override
+        public List<Object[]> search(List< ? > parameters, XWikiContext xcontext)
+        {
+            List<Object[]> results = new ArrayList<Object[]>();
+            for (XWikiDocument document : documents.values()) {
+                if (!StringUtils.isEmpty(document.getLanguage())
+                    || !xcontext.getDatabase().equals(document.getDocumentReference().getWikiReference().getName())) {
+                    continue;
+                }
+                BaseObject workflow = document.getXObject(PublicationWorkflow.PUBLICATION_WORKFLOW_CLASS);
+                if (workflow != null && workflow.getIntValue(DefaultPublicationWorkflow.WF_IS_TARGET_FIELDNAME) == 0) {
+                    results.add(new Object[] {document.getFullName(),
+                        workflow.getStringValue(DefaultPublicationWorkflow.WF_TARGET_FIELDNAME)});
+                }
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.workflowpublication.PublicationWorkflow;
+import org.xwiki.workflowpublication.internal.CacheMetricsMXBean;
+import org.xwiki.workflowpublication.internal.OperationMetricsMXBean;
+import org.xwiki.workflowpublication.internal.WorkflowMetrics;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Pushes documents through the whole workflow concurrently (start, moderation, submission for validation, validation,
+ * publication and unpublication), on a {@link WorkflowTestFixture}, and reports the throughput and the workflow
+ * metrics. Meant to find the contention and the regressions of the transitions locally, without a wiki:
+ * 
+ * <pre>
+ * java org.xwiki.workflowpublication.test.WorkflowLoadDriver [documents] [threads] [attachments] [attachmentSize]
+ * </pre>
+ * 
+ * @version $Id$
+ */
+public class WorkflowLoadDriver
+{
+    /**
+     * The space of the documents.
+     */
+    public static final String SPACE = "LoadTest";
+
+    /**
+     * The number of transitions each document goes through.
+     */
+    public static final int TRANSITIONS = 6;
+
+    private static final String CONFIG_NAME = "Workflow";
+
+    private static final DocumentReference CONFIG = new DocumentReference(WorkflowTestFixture.WIKI, SPACE, CONFIG_NAME);
+
+    private static final String GROUP_PREFIX = "XWiki.LoadTest";
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final WorkflowTestFixture fixture;
+
+    private final int documents;
+
+    private final int threads;
+
+    private final int attachments;
+
+    private final int attachmentSize;
+
+    /**
+     * The number of documents which went through the whole workflow.
+     */
+    private final AtomicInteger completed = new AtomicInteger();
+
+    /**
+     * The number of documents which stopped on a refused or failed transition.
+     */
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * The first exception thrown by a transition, if any.
+     */
+    private final AtomicReference<Exception> firstError = new AtomicReference<Exception>();
+
+    private PublicationWorkflow workflow;
+
+    /**
+     * @param fixture the fixture to run the workflow on
+     * @param documents the number of documents to push through the workflow
+     * @param threads the number of threads doing the transitions
+     * @param attachments the number of attachments of each document
+     * @param attachmentSize the size in bytes of each attachment
+     */
+    public WorkflowLoadDriver(WorkflowTestFixture fixture, int documents, int threads, int attachments,
+        int attachmentSize)
+    {
+        this.fixture = fixture;
+        this.documents = documents;
+        this.threads = threads;
+        this.attachments = attachments;
+        this.attachmentSize = attachmentSize;
+    }
+
+    /**
+     * Saves the workflow configuration and the drafts, in the calling thread.
+     * 
+     * @throws Exception in case the documents cannot be saved
+     */
+    public void setUp() throws Exception
+    {
+        this.workflow = this.fixture.getInstance(PublicationWorkflow.class);
+        XWikiContext xcontext = this.fixture.newContext();
+        try {
+            this.fixture.saveWorkflowConfig(CONFIG, GROUP_PREFIX + "Contributors", GROUP_PREFIX + "Moderators",
+                GROUP_PREFIX + "Validators", SPACE + "Drafts");
+            Random random = new Random(0);
+            for (int i = 0; i < this.documents; i++) {
+                XWikiDocument draft = xcontext.getWiki().getDocument(getDraft(i), xcontext);
+                draft.setContent("Content of the document " + i);
+                for (int j = 0; j < this.attachments; j++) {
+                    byte[] bytes = new byte[this.attachmentSize];
+                    random.nextBytes(bytes);
+                    addAttachment(draft, "attachment" + j + ".bin", bytes);
+                }
+                xcontext.getWiki().saveDocument(draft, "Load test", xcontext);
+            }
+        } finally {
+            this.fixture.removeContext();
+        }
+    }
+
+    /**
+     * Pushes all the documents through the workflow, each thread taking the next document when it's done with one.
+     * 
+     * @return the time it took, in nanoseconds
+     * @throws Exception in case a thread was interrupted or failed outside of the transitions
+     */
+    public long run() throws Exception
+    {
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < this.threads; i++) {
+                results.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        XWikiContext xcontext = fixture.newContext();
+                        try {
+                            start.await();
+                            for (int index = next.getAndIncrement(); index < documents; index =
+                                next.getAndIncrement()) {
+                                runWorkflow(index, xcontext);
+                            }
+                        } finally {
+                            fixture.removeContext();
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            long startTime = System.nanoTime();
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get();
+            }
+            return System.nanoTime() - startTime;
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Prints the results of a run and the workflow metrics.
+     * 
+     * @param elapsed the time the run took, in nanoseconds
+     * @throws Exception in case the metrics cannot be looked up
+     */
+    public void report(long elapsed) throws Exception
+    {
+        double seconds = (double) elapsed / (NANOS_PER_MILLI * 1000);
+        System.out.println(String.format("%d documents, %d threads: %d completed, %d failed in %.2f s", this.documents,
+            this.threads, getCompleted(), getFailed(), seconds));
+        System.out.println(String.format("%.1f documents/s, %.1f transitions/s", getCompleted() / seconds,
+            getCompleted() * TRANSITIONS / seconds));
+        if (getFirstError() != null) {
+            System.out.println("First error:");
+            getFirstError().printStackTrace(System.out);
+        }
+
+        WorkflowMetrics metrics = this.fixture.getInstance(WorkflowMetrics.class);
+        System.out.println();
+        System.out.println(String.format("%-28s %10s %8s %10s %10s", "operation", "count", "errors", "mean ms",
+            "max ms"));
+        for (OperationMetricsMXBean operation : metrics.getOperations()) {
+            System.out.println(String.format("%-28s %10d %8d %10.3f %10.3f", operation.getOperation(),
+                operation.getCount(), operation.getErrorCount(), operation.getMeanMillis(),
+                operation.getMaxMillis()));
+        }
+        System.out.println();
+        for (CacheMetricsMXBean cache : metrics.getCaches()) {
+            System.out.println(String.format("cache %-22s %10d hits %10d misses", cache.getName(), cache.getHits(),
+                cache.getMisses()));
+        }
+    }
+
+    /**
+     * @return the number of documents which went through the whole workflow
+     */
+    public int getCompleted()
+    {
+        return this.completed.get();
+    }
+
+    /**
+     * @return the number of documents which stopped on a refused or failed transition
+     */
+    public int getFailed()
+    {
+        return this.failed.get();
+    }
+
+    /**
+     * @return the first exception thrown by a transition, or {@code null}
+     */
+    public Exception getFirstError()
+    {
+        return this.firstError.get();
+    }
+
+    /**
+     * Pushes one document through the workflow, stopping at the first refused or failed transition.
+     * 
+     * @param index the index of the document
+     * @param xcontext the context of the current thread
+     */
+    protected void runWorkflow(int index, XWikiContext xcontext)
+    {
+        DocumentReference draft = getDraft(index);
+        DocumentReference target = new DocumentReference(WorkflowTestFixture.WIKI, SPACE, "Page" + index);
+        try {
+            if (this.workflow.startWorkflow(draft, SPACE + '.' + CONFIG_NAME, target, xcontext)
+                && this.workflow.submitForModeration(draft)
+                && this.workflow.submitForValidation(draft)
+                && this.workflow.validate(draft)
+                && this.workflow.publish(draft) != null
+                && this.workflow.unpublish(target, false) != null) {
+                this.completed.incrementAndGet();
+                return;
+            }
+        } catch (XWikiException e) {
+            this.firstError.compareAndSet(null, e);
+        }
+        this.failed.incrementAndGet();
+    }
+
+    /**
+     * @param index the index of a document
+     * @return the reference of its draft
+     */
+    private DocumentReference getDraft(int index)
+    {
+        return new DocumentReference(WorkflowTestFixture.WIKI, SPACE, "Draft" + index);
+    }
+
+    /**
+     * @param document the document to add the attachment to
+     * @param filename the name of the attachment
+     * @param bytes the content of the attachment
+     * @throws IOException in case the content cannot be set
+     */
+    private void addAttachment(XWikiDocument document, String filename, byte[] bytes) throws IOException
+    {
+        XWikiAttachment attachment = new XWikiAttachment(document, filename);
+        document.getAttachmentList().add(attachment);
+        attachment.setContent(new ByteArrayInputStream(bytes));
+        attachment.setAuthor(WorkflowTestFixture.USER.toString());
+    }
+
+    /**
+     * Runs the load test with the passed sizes.
+     * 
+     * @param args the number of documents (10000 by default), of threads (the number of processors by default), of
+     *            attachments per document (1 by default) and the size of the attachments (4096 by default)
+     * @throws Exception in case the fixture cannot be set up
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int attachments = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int attachmentSize = args.length > 3 ? Integer.parseInt(args[3]) : 4096;
+
+        WorkflowTestFixture fixture = new WorkflowTestFixture();
+        try {
+            WorkflowLoadDriver driver =
+                new WorkflowLoadDriver(fixture, documents, threads, attachments, attachmentSize);
+            driver.setUp();
+            // only the concurrent transitions are measured
+            fixture.<WorkflowMetrics> getInstance(WorkflowMetrics.class).reset();
+            driver.report(driver.run());
+        } finally {
+            fixture.dispose();
+        }
+    }
+}
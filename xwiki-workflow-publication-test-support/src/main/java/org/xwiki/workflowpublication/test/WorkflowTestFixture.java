@@ -0,0 +1,723 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentCreatingEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentDeletingEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.DocumentUpdatingEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.job.JobManager;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.workflowpublication.PublicationWorkflow;
+import org.xwiki.workflowpublication.WorkflowConfigManager;
+import org.xwiki.workflowpublication.internal.DefaultPublicationRoles;
+import org.xwiki.workflowpublication.internal.DefaultPublicationWorkflow;
+import org.xwiki.workflowpublication.internal.DefaultRecipientResolver;
+import org.xwiki.workflowpublication.internal.DefaultTranslationCopier;
+import org.xwiki.workflowpublication.internal.DefaultWorkflowNotificationQueue;
+import org.xwiki.workflowpublication.internal.GroupMembershipCacheListener;
+import org.xwiki.workflowpublication.internal.WorkflowNotificationListener;
+import org.xwiki.workflowpublication.internal.WorkflowScheduler;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+import com.xpn.xwiki.user.api.XWikiRightService;
+import com.xpn.xwiki.web.Utils;
+import com.xpn.xwiki.web.XWikiMessageTool;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Runs the publication workflow outside of a wiki: all the components are loaded from the {@code components.txt} files
+ * of the classpath, the wiki is a mock backed by an {@link InMemoryXWikiStore} which sends the document events like
+ * the real one, and the workflow classes are defined in code, as in the application pages.
+ * <p>
+ * What needs a running wiki is replaced: the configuration returns the default values (or the ones passed to the
+ * constructor), the caches are maps, the jobs and the scheduler do nothing, the right service allows everything, the
+ * group service knows no groups and the translations return their keys. Only the event listeners of the workflow are
+ * kept, and the notifications are sent synchronously, by the thread doing the transition.
+ * <p>
+ * The components are shared, the contexts are not: each thread needs to call {@link #newContext()} before using the
+ * workflow and {@link #removeContext()} when it's done.
+ * 
+ * @version $Id$
+ */
+public class WorkflowTestFixture
+{
+    /**
+     * The wiki of the documents.
+     */
+    public static final String WIKI = "xwiki";
+
+    /**
+     * The user of the contexts.
+     */
+    public static final DocumentReference USER = new DocumentReference(WIKI, "XWiki", "Admin");
+
+    /**
+     * The package of the workflow implementation, only its event listeners are kept.
+     */
+    private static final String WORKFLOW_PACKAGE = "org.xwiki.workflowpublication.";
+
+    /**
+     * The hints of the configuration sources replaced by the fixture configuration.
+     */
+    private static final String[] CONFIGURATION_HINTS = {"default", "xwikiproperties", "xwikicfg", "wiki", "space",
+        "documents", "user", "all"};
+
+    /**
+     * The key of the xwiki context in the execution context.
+     */
+    private static final String XWIKICONTEXT_KEY = "xwikicontext";
+
+    /**
+     * The key of the translations in the xwiki context.
+     */
+    private static final String MESSAGE_TOOL_KEY = "msg";
+
+    private static final String XWIKI_SPACE = "XWiki";
+
+    private final EmbeddableComponentManager componentManager;
+
+    /**
+     * The configuration properties overriding the defaults.
+     */
+    private final Map<String, Object> configuration = new ConcurrentHashMap<String, Object>();
+
+    private final InMemoryXWikiStore store;
+
+    private final XWiki xwiki;
+
+    private final XWikiGroupService groupService;
+
+    private final XWikiMessageTool messageTool;
+
+    /**
+     * The classes returned by the mocked wiki, by local serialized reference.
+     */
+    private final Map<String, BaseClass> classes = new ConcurrentHashMap<String, BaseClass>();
+
+    private final Execution execution;
+
+    private final DocumentReferenceResolver<String> currentMixedStringDocRefResolver;
+
+    private final ObservationManager observationManager;
+
+    /**
+     * Creates a fixture with the default configuration.
+     * 
+     * @throws Exception in case the components cannot be set up
+     */
+    public WorkflowTestFixture() throws Exception
+    {
+        this(Collections.<String, Object> emptyMap());
+    }
+
+    /**
+     * Creates a fixture, the configuration being read when the components are initialized.
+     * 
+     * @param configuration the configuration properties overriding the defaults, e.g.
+     *            {@link DefaultWorkflowNotificationQueue#CONFIG_THREADS}
+     * @throws Exception in case the components cannot be set up
+     */
+    public WorkflowTestFixture(Map<String, Object> configuration) throws Exception
+    {
+        // the asynchronous notifications need a stub context, which needs a request
+        this.configuration.put(DefaultWorkflowNotificationQueue.CONFIG_ASYNC, Boolean.FALSE);
+        // the locales are copied by the caller, the workers would need a stub context as well
+        this.configuration.put(DefaultTranslationCopier.CONFIG_THREADS, 1);
+        this.configuration.putAll(configuration);
+
+        this.componentManager = new EmbeddableComponentManager();
+        this.componentManager.initialize(getClass().getClassLoader());
+        // the other listeners need a real wiki, and they are all instantiated with the observation manager
+        List<ComponentDescriptor<EventListener>> listeners =
+            this.componentManager.getComponentDescriptorList((Type) EventListener.class);
+        for (ComponentDescriptor<EventListener> listener
+            : new ArrayList<ComponentDescriptor<EventListener>>(listeners)) {
+            if (!listener.getImplementation().getName().startsWith(WORKFLOW_PACKAGE)) {
+                this.componentManager.unregisterComponent(EventListener.class, listener.getRoleHint());
+            }
+        }
+        ConfigurationSource configurationSource =
+            mock(ConfigurationSource.class, withSettings().stubOnly().defaultAnswer(new ConfigurationAnswer()));
+        for (String hint : CONFIGURATION_HINTS) {
+            this.componentManager.registerComponent(ConfigurationSource.class, hint, configurationSource);
+        }
+        this.componentManager.registerComponent(CacheManager.class, mockCacheManager());
+        this.componentManager.registerComponent(JobManager.class, mockStubOnly(JobManager.class));
+        // the scheduler thread needs a stub context as well, and the driver doesn't schedule anything
+        this.componentManager.registerComponent(WorkflowScheduler.class, mockStubOnly(WorkflowScheduler.class));
+        Utils.setComponentManager(this.componentManager);
+
+        this.execution = this.componentManager.getInstance(Execution.class);
+        this.currentMixedStringDocRefResolver =
+            this.componentManager.getInstance(DocumentReferenceResolver.TYPE_STRING, "currentmixed");
+        this.store = new InMemoryXWikiStore();
+        this.groupService = mockStubOnly(XWikiGroupService.class);
+        this.messageTool = mock(XWikiMessageTool.class, withSettings().stubOnly().defaultAnswer(new KeyAnswer()));
+        this.xwiki = mockXWiki();
+        registerClasses();
+
+        // the listeners are instantiated with the observation manager, some of them need a context
+        newContext();
+        try {
+            this.observationManager = this.componentManager.getInstance(ObservationManager.class);
+        } finally {
+            removeContext();
+        }
+    }
+
+    /**
+     * @return the component manager holding all the components
+     */
+    public EmbeddableComponentManager getComponentManager()
+    {
+        return this.componentManager;
+    }
+
+    /**
+     * @param role the role of the component
+     * @param <T> the role of the component
+     * @return the default implementation of the role
+     * @throws ComponentLookupException in case the component cannot be instantiated
+     */
+    public <T> T getInstance(Type role) throws ComponentLookupException
+    {
+        return this.componentManager.getInstance(role);
+    }
+
+    /**
+     * @return the store behind the mocked wiki
+     */
+    public InMemoryXWikiStore getStore()
+    {
+        return this.store;
+    }
+
+    /**
+     * @return the mocked wiki
+     */
+    public XWiki getXWiki()
+    {
+        return this.xwiki;
+    }
+
+    /**
+     * @return the mocked group service, which knows no groups unless stubbed
+     */
+    public XWikiGroupService getGroupService()
+    {
+        return this.groupService;
+    }
+
+    /**
+     * Sets up a new execution context, with a new xwiki context on the main wiki, for the current thread.
+     * 
+     * @return the xwiki context
+     */
+    public XWikiContext newContext()
+    {
+        // the context needs to be in the execution before the wiki is set, to update the model context
+        ExecutionContext executionContext = new ExecutionContext();
+        XWikiContext xcontext = new XWikiContext();
+        executionContext.setProperty(XWIKICONTEXT_KEY, xcontext);
+        this.execution.setContext(executionContext);
+
+        xcontext.setWiki(this.xwiki);
+        xcontext.setMainXWiki(WIKI);
+        xcontext.setDatabase(WIKI);
+        xcontext.setUserReference(USER);
+        xcontext.put(MESSAGE_TOOL_KEY, this.messageTool);
+        return xcontext;
+    }
+
+    /**
+     * Removes the execution context of the current thread.
+     */
+    public void removeContext()
+    {
+        this.execution.removeContext();
+    }
+
+    /**
+     * Saves a workflow configuration document, in the context of the current thread.
+     * 
+     * @param reference the reference of the configuration document
+     * @param contributors the group of the contributors
+     * @param moderators the group of the moderators, empty to skip the moderation
+     * @param validators the group of the validators
+     * @param draftsSpace the space of the drafts created when unpublishing
+     * @throws XWikiException in case the document cannot be saved
+     */
+    public void saveWorkflowConfig(DocumentReference reference, String contributors, String moderators,
+        String validators, String draftsSpace) throws XWikiException
+    {
+        XWikiContext xcontext = getXContext();
+        XWikiDocument document = this.xwiki.getDocument(reference, xcontext);
+        BaseObject config = document.newXObject(WorkflowConfigManager.PUBLICATION_WORKFLOW_CONFIG_CLASS, xcontext);
+        config.set(DefaultPublicationRoles.WF_CONFIG_CONTRIBUTOR, contributors, xcontext);
+        config.set(DefaultPublicationRoles.WF_CONFIG_MODERATOR, moderators, xcontext);
+        config.set(DefaultPublicationRoles.WF_CONFIG_VALIDATOR, validators, xcontext);
+        config.set(DefaultPublicationWorkflow.WF_IS_DRAFTSPACE_FIELDNAME, draftsSpace, xcontext);
+        this.xwiki.saveDocument(document, "Workflow configuration", xcontext);
+    }
+
+    /**
+     * Disposes the components, which stops their threads, and clears the store.
+     * 
+     * @throws Exception in case a component cannot be disposed
+     */
+    public void dispose() throws Exception
+    {
+        this.componentManager.dispose();
+        this.store.clear();
+    }
+
+    /**
+     * @return the xwiki context of the current thread
+     */
+    private XWikiContext getXContext()
+    {
+        return (XWikiContext) this.execution.getContext().getProperty(XWIKICONTEXT_KEY);
+    }
+
+    /**
+     * Saves a document as the wiki does: the creating or updating event is sent before the document is stored, the
+     * created or updated event after, with the previous version as original document.
+     * 
+     * @param document the document to save
+     * @param comment the version comment
+     * @param isMinorEdit whether the change is minor
+     * @param xcontext the context
+     */
+    private void saveDocument(XWikiDocument document, String comment, boolean isMinorEdit, XWikiContext xcontext)
+    {
+        DocumentReference reference = document.getDocumentReference();
+        boolean isNew = document.isNew();
+        XWikiDocument originalDocument = document.getOriginalDocument();
+        if (originalDocument == null) {
+            originalDocument = new XWikiDocument(reference);
+        }
+        document.setComment(StringUtils.defaultString(comment));
+        document.setMinorEdit(isMinorEdit);
+
+        this.observationManager.notify(isNew ? new DocumentCreatingEvent(reference)
+            : new DocumentUpdatingEvent(reference), document, xcontext);
+        this.store.saveDocument(document);
+        // the listeners expect the previous version as original document
+        XWikiDocument savedDocument = document.getOriginalDocument();
+        document.setOriginalDocument(originalDocument);
+        try {
+            this.observationManager.notify(isNew ? new DocumentCreatedEvent(reference) : new DocumentUpdatedEvent(
+                reference), document, xcontext);
+        } finally {
+            document.setOriginalDocument(savedDocument);
+        }
+    }
+
+    /**
+     * Deletes a document as the wiki does: the events are sent with a blank document, whose original document is the
+     * deleted one.
+     * 
+     * @param document the document to delete
+     * @param xcontext the context
+     */
+    private void deleteDocument(XWikiDocument document, XWikiContext xcontext)
+    {
+        DocumentReference reference = document.getDocumentReference();
+        XWikiDocument blankDocument = new XWikiDocument(reference);
+        blankDocument.setOriginalDocument(document.getOriginalDocument() != null ? document.getOriginalDocument()
+            : document);
+
+        this.observationManager.notify(new DocumentDeletingEvent(reference), blankDocument, xcontext);
+        this.store.deleteDocument(document);
+        this.observationManager.notify(new DocumentDeletedEvent(reference), blankDocument, xcontext);
+    }
+
+    /**
+     * @param space the space of the page
+     * @param name the wanted name of the page
+     * @param xcontext the context, its database is the wiki of the page
+     * @return the passed name, or the passed name followed by a number if it's taken
+     */
+    private String getUniquePageName(String space, String name, XWikiContext xcontext)
+    {
+        String pageName = name;
+        for (int i = 1; this.store.exists(new XWikiDocument(new DocumentReference(xcontext.getDatabase(), space,
+            pageName))); i++) {
+            pageName = name + '_' + i;
+        }
+        return pageName;
+    }
+
+    /**
+     * @param reference the reference of a class
+     * @return the class registered for the reference, or an empty class
+     */
+    private BaseClass getXClass(DocumentReference reference)
+    {
+        String key = reference.getLastSpaceReference().getName() + '.' + reference.getName();
+        BaseClass xclass = this.classes.get(key);
+        if (xclass == null) {
+            xclass = new BaseClass();
+            xclass.setDocumentReference(reference);
+            this.classes.put(key, xclass);
+        }
+        return xclass;
+    }
+
+    /**
+     * @param reference the reference of a class, relative to the wiki
+     * @return a new class, registered for the reference
+     */
+    private BaseClass newXClass(EntityReference reference)
+    {
+        BaseClass xclass = new BaseClass();
+        xclass.setDocumentReference(new DocumentReference(WIKI, reference.extractReference(EntityType.SPACE)
+            .getName(), reference.getName()));
+        this.classes.put(reference.extractReference(EntityType.SPACE).getName() + '.' + reference.getName(), xclass);
+        return xclass;
+    }
+
+    /**
+     * Defines the classes used by the workflow, with the properties of the application pages. The list properties are
+     * single valued, so they are defined as strings, which is how they are stored.
+     */
+    private void registerClasses()
+    {
+        BaseClass workflowClass = newXClass(PublicationWorkflow.PUBLICATION_WORKFLOW_CLASS);
+        workflowClass.addStaticListField(DefaultPublicationWorkflow.WF_STATUS_FIELDNAME, "Status",
+            StringUtils.join(new String[] {DefaultPublicationWorkflow.STATUS_DRAFT,
+                DefaultPublicationWorkflow.STATUS_MODERATING, DefaultPublicationWorkflow.STATUS_VALIDATING,
+                DefaultPublicationWorkflow.STATUS_VALID, DefaultPublicationWorkflow.STATUS_PUBLISHED,
+                DefaultPublicationWorkflow.STATUS_ARCHIVED}, '|'));
+        workflowClass.addTextField(DefaultPublicationWorkflow.WF_CONFIG_REF_FIELDNAME, "Workflow", 30);
+        workflowClass.addTextField(DefaultPublicationWorkflow.WF_TARGET_FIELDNAME, "Target", 30);
+        workflowClass.addBooleanField(DefaultPublicationWorkflow.WF_IS_TARGET_FIELDNAME, "Is target", "yesno");
+        workflowClass.addUsersField(DefaultPublicationWorkflow.WF_STATUS_AUTHOR_FIELDNAME, "Status author");
+        workflowClass.addTextField(DefaultPublicationWorkflow.WF_FINGERPRINT_FIELDNAME, "Fingerprint", 30);
+        workflowClass.addTextField(DefaultPublicationWorkflow.WF_PUBLISHED_VERSION_FIELDNAME, "Published version", 30);
+        workflowClass.addTextField(DefaultPublicationWorkflow.WF_PUBLISHED_FROM_FIELDNAME, "Published from", 30);
+        workflowClass.addDateField(DefaultPublicationWorkflow.WF_PUBLISH_AT_FIELDNAME, "Publish at");
+        workflowClass.addDateField(DefaultPublicationWorkflow.WF_ARCHIVE_AT_FIELDNAME, "Archive at");
+
+        BaseClass configClass = newXClass(WorkflowConfigManager.PUBLICATION_WORKFLOW_CONFIG_CLASS);
+        configClass.addTextField(DefaultPublicationRoles.WF_CONFIG_CONTRIBUTOR, "Contributors", 30);
+        configClass.addTextField(DefaultPublicationRoles.WF_CONFIG_MODERATOR, "Moderators", 30);
+        configClass.addTextField(DefaultPublicationRoles.WF_CONFIG_VALIDATOR, "Validators", 30);
+        configClass.addTextField(DefaultPublicationWorkflow.WF_IS_DRAFTSPACE_FIELDNAME, "Default draft space", 30);
+        configClass.addNumberField(WorkflowNotificationListener.WF_CONFIG_DIGEST_WINDOW, "Digest window", 5,
+            "integer");
+
+        BaseClass rightsClass = newXClass(DefaultPublicationWorkflow.RIGHTS_CLASS);
+        rightsClass.addGroupsField(DefaultPublicationWorkflow.RIGHTS_GROUPS, "Groups");
+        rightsClass.addLevelsField(DefaultPublicationWorkflow.RIGHTS_LEVELS, "Levels");
+        rightsClass.addUsersField(DefaultPublicationWorkflow.RIGHTS_USERS, "Users");
+        rightsClass.addBooleanField(DefaultPublicationWorkflow.RIGHTS_ALLOWDENY, "Allow/Deny", "allow");
+
+        BaseClass commentsClass = newXClass(DefaultPublicationWorkflow.COMMENTS_CLASS);
+        commentsClass.addTextField("author", "Author", 30);
+        commentsClass.addDateField("date", "Date");
+        commentsClass.addTextAreaField("comment", "Comment", 40, 5);
+
+        newXClass(GroupMembershipCacheListener.GROUPS_CLASS).addTextField("member", "Member", 30);
+        newXClass(DefaultRecipientResolver.USERS_CLASS).addTextField("email", "e-Mail", 30);
+    }
+
+    /**
+     * @return a wiki storing its documents in the in-memory store
+     * @throws XWikiException never, declared by the mocked methods
+     */
+    private XWiki mockXWiki() throws XWikiException
+    {
+        XWiki mockedXWiki = mockStubOnly(XWiki.class);
+
+        Answer<XWikiDocument> getDocument = new Answer<XWikiDocument>()
+        {
+            @Override
+            public XWikiDocument answer(InvocationOnMock invocation)
+            {
+                Object reference = invocation.getArguments()[0];
+                DocumentReference documentReference =
+                    reference instanceof DocumentReference ? (DocumentReference) reference
+                        : currentMixedStringDocRefResolver.resolve((String) reference);
+                return store.loadDocument(new XWikiDocument(documentReference));
+            }
+        };
+        when(mockedXWiki.getDocument(any(DocumentReference.class), any(XWikiContext.class))).thenAnswer(getDocument);
+        when(mockedXWiki.getDocument(anyString(), any(XWikiContext.class))).thenAnswer(getDocument);
+        when(mockedXWiki.getDocument(any(XWikiDocument.class), any(XWikiContext.class))).thenAnswer(
+            new Answer<XWikiDocument>()
+            {
+                @Override
+                public XWikiDocument answer(InvocationOnMock invocation)
+                {
+                    XWikiDocument document = (XWikiDocument) invocation.getArguments()[0];
+                    XWikiDocument translation = new XWikiDocument(document.getDocumentReference());
+                    translation.setLanguage(document.getLanguage());
+                    return store.loadDocument(translation);
+                }
+            });
+        Answer<Boolean> exists = new Answer<Boolean>()
+        {
+            @Override
+            public Boolean answer(InvocationOnMock invocation)
+            {
+                Object reference = invocation.getArguments()[0];
+                DocumentReference documentReference =
+                    reference instanceof DocumentReference ? (DocumentReference) reference
+                        : currentMixedStringDocRefResolver.resolve((String) reference);
+                return store.exists(new XWikiDocument(documentReference));
+            }
+        };
+        when(mockedXWiki.exists(any(DocumentReference.class), any(XWikiContext.class))).thenAnswer(exists);
+        when(mockedXWiki.exists(anyString(), any(XWikiContext.class))).thenAnswer(exists);
+
+        Answer<Object> save = new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                Object[] arguments = invocation.getArguments();
+                String comment = arguments.length > 2 ? (String) arguments[1] : null;
+                boolean isMinorEdit = arguments.length > 3 && (Boolean) arguments[2];
+                saveDocument((XWikiDocument) arguments[0], comment, isMinorEdit,
+                    (XWikiContext) arguments[arguments.length - 1]);
+                return null;
+            }
+        };
+        doAnswer(save).when(mockedXWiki).saveDocument(any(XWikiDocument.class), any(XWikiContext.class));
+        doAnswer(save).when(mockedXWiki).saveDocument(any(XWikiDocument.class), anyString(), any(XWikiContext.class));
+        doAnswer(save).when(mockedXWiki).saveDocument(any(XWikiDocument.class), anyString(), anyBoolean(),
+            any(XWikiContext.class));
+        Answer<Object> delete = new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                Object[] arguments = invocation.getArguments();
+                deleteDocument((XWikiDocument) arguments[0], (XWikiContext) arguments[arguments.length - 1]);
+                return null;
+            }
+        };
+        doAnswer(delete).when(mockedXWiki).deleteDocument(any(XWikiDocument.class), any(XWikiContext.class));
+        doAnswer(delete).when(mockedXWiki).deleteDocument(any(XWikiDocument.class), anyBoolean(),
+            any(XWikiContext.class));
+        when(mockedXWiki.getUniquePageName(anyString(), anyString(), any(XWikiContext.class))).thenAnswer(
+            new Answer<String>()
+            {
+                @Override
+                public String answer(InvocationOnMock invocation)
+                {
+                    Object[] arguments = invocation.getArguments();
+                    return getUniquePageName((String) arguments[0], (String) arguments[1],
+                        (XWikiContext) arguments[2]);
+                }
+            });
+        when(mockedXWiki.getXClass(any(DocumentReference.class), any(XWikiContext.class))).thenAnswer(
+            new Answer<BaseClass>()
+            {
+                @Override
+                public BaseClass answer(InvocationOnMock invocation)
+                {
+                    return getXClass((DocumentReference) invocation.getArguments()[0]);
+                }
+            });
+        when(mockedXWiki.getXWikiPreference(anyString(), anyString(), any(XWikiContext.class))).thenAnswer(
+            new Answer<String>()
+            {
+                @Override
+                public String answer(InvocationOnMock invocation)
+                {
+                    return (String) invocation.getArguments()[1];
+                }
+            });
+        when(mockedXWiki.getXWikiPreference(anyString(), any(XWikiContext.class))).thenReturn("");
+        when(mockedXWiki.getVirtualWikisDatabaseNames(any(XWikiContext.class))).thenReturn(
+            Collections.singletonList(WIKI));
+
+        XWikiRightService rightService = mockStubOnly(XWikiRightService.class);
+        when(rightService.hasAccessLevel(anyString(), anyString(), anyString(), any(XWikiContext.class))).thenReturn(
+            true);
+        when(rightService.checkAccess(anyString(), any(XWikiDocument.class), any(XWikiContext.class)))
+            .thenReturn(true);
+        when(mockedXWiki.getRightService()).thenReturn(rightService);
+        when(mockedXWiki.getGroupService(any(XWikiContext.class))).thenReturn(this.groupService);
+        when(mockedXWiki.getStore()).thenReturn(this.store.getStore());
+        when(mockedXWiki.getAttachmentStore()).thenReturn(this.store.getAttachmentStore());
+        when(mockedXWiki.getAttachmentVersioningStore()).thenReturn(this.store.getAttachmentVersioningStore());
+        return mockedXWiki;
+    }
+
+    /**
+     * @param type the type to mock
+     * @param <T> the type to mock
+     * @return a mock which doesn't record its invocations, since the load driver calls the mocks millions of times
+     */
+    private <T> T mockStubOnly(Class<T> type)
+    {
+        return mock(type, withSettings().stubOnly());
+    }
+
+    /**
+     * @return a cache manager creating map based caches, without eviction
+     * @throws Exception never, declared by the mocked method
+     */
+    private CacheManager mockCacheManager() throws Exception
+    {
+        CacheManager cacheManager = mockStubOnly(CacheManager.class);
+        Answer<Cache<Object>> newCache = new Answer<Cache<Object>>()
+        {
+            @Override
+            public Cache<Object> answer(InvocationOnMock invocation)
+            {
+                return mockCache();
+            }
+        };
+        when(cacheManager.createNewCache(any(CacheConfiguration.class))).thenAnswer(newCache);
+        when(cacheManager.createNewLocalCache(any(CacheConfiguration.class))).thenAnswer(newCache);
+        return cacheManager;
+    }
+
+    /**
+     * @return a cache storing its values in a map
+     */
+    @SuppressWarnings("unchecked")
+    private Cache<Object> mockCache()
+    {
+        final Map<String, Object> values = new ConcurrentHashMap<String, Object>();
+        Cache<Object> cache = mockStubOnly(Cache.class);
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                values.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(cache).set(any(String.class), any());
+        when(cache.get(any(String.class))).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return values.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                values.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(cache).remove(any(String.class));
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                values.clear();
+                return null;
+            }
+        }).when(cache).removeAll();
+        return cache;
+    }
+
+    /**
+     * Answers the configuration lookups with the fixture configuration, or with the default value passed by the caller.
+     */
+    private class ConfigurationAnswer implements Answer<Object>
+    {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable
+        {
+            Object[] arguments = invocation.getArguments();
+            String method = invocation.getMethod().getName();
+            if ("getProperty".equals(method)) {
+                Object value = configuration.get(arguments[0]);
+                if (value != null) {
+                    return value;
+                }
+                if (arguments.length == 2 && !(arguments[1] instanceof Class)) {
+                    return arguments[1];
+                }
+            } else if ("containsKey".equals(method)) {
+                return configuration.containsKey(arguments[0]);
+            }
+            return RETURNS_DEFAULTS.answer(invocation);
+        }
+    }
+
+    /**
+     * Answers the translation lookups with the translation key.
+     */
+    private static class KeyAnswer implements Answer<Object>
+    {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable
+        {
+            if ("get".equals(invocation.getMethod().getName()) && invocation.getArguments().length > 0) {
+                return invocation.getArguments()[0];
+            }
+            return RETURNS_DEFAULTS.answer(invocation);
+        }
+    }
+}
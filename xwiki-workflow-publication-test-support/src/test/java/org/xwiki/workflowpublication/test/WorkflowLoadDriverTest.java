@@ -0,0 +1,159 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.workflowpublication.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.workflowpublication.PublicationWorkflow;
+import org.xwiki.workflowpublication.internal.OperationMetricsMXBean;
+import org.xwiki.workflowpublication.internal.WorkflowMetrics;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Smoke tests of {@link WorkflowLoadDriver} and {@link WorkflowTestFixture}: the whole workflow runs on the fixture,
+ * and concurrent transitions on the same document are done once.
+ * 
+ * @version $Id$
+ */
+public class WorkflowLoadDriverTest
+{
+    private static final String SPACE = "SmokeTest";
+
+    private static final DocumentReference CONFIG = new DocumentReference(WorkflowTestFixture.WIKI, SPACE, "Workflow");
+
+    private static final DocumentReference DRAFT = new DocumentReference(WorkflowTestFixture.WIKI, SPACE, "Draft");
+
+    private static final DocumentReference TARGET = new DocumentReference(WorkflowTestFixture.WIKI, SPACE, "Page");
+
+    private WorkflowTestFixture fixture;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.fixture = new WorkflowTestFixture();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.fixture.dispose();
+    }
+
+    @Test
+    public void runWorkflow() throws Exception
+    {
+        int documents = 10;
+        WorkflowLoadDriver driver = new WorkflowLoadDriver(this.fixture, documents, 2, 1, 16);
+        driver.setUp();
+        driver.run();
+
+        assertNull(driver.getFirstError());
+        assertEquals(0, driver.getFailed());
+        assertEquals(documents, driver.getCompleted());
+        // every document went through the validation
+        WorkflowMetrics metrics = this.fixture.getInstance(WorkflowMetrics.class);
+        long validations = 0;
+        for (OperationMetricsMXBean operation : metrics.getOperations()) {
+            if (WorkflowMetrics.VALIDATE.equals(operation.getOperation())) {
+                validations += operation.getCount() - operation.getErrorCount();
+            }
+        }
+        assertEquals(documents, validations);
+    }
+
+    @Test
+    public void publishSameDraftConcurrently() throws Exception
+    {
+        final PublicationWorkflow workflow = this.fixture.getInstance(PublicationWorkflow.class);
+        XWikiContext xcontext = this.fixture.newContext();
+        try {
+            this.fixture.saveWorkflowConfig(CONFIG, "XWiki.SmokeTestContributors", "",
+                "XWiki.SmokeTestValidators", SPACE + "Drafts");
+            XWikiDocument draft = xcontext.getWiki().getDocument(DRAFT, xcontext);
+            draft.setContent("Content");
+            xcontext.getWiki().saveDocument(draft, "Smoke test", xcontext);
+            workflow.startWorkflow(DRAFT, SPACE + ".Workflow", TARGET, xcontext);
+            workflow.submitForValidation(DRAFT);
+        } finally {
+            this.fixture.removeContext();
+        }
+
+        // both threads load the draft before any of them publishes it
+        final CyclicBarrier loaded = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<DocumentReference>> results = new ArrayList<Future<DocumentReference>>();
+            for (int i = 0; i < 2; i++) {
+                results.add(executor.submit(new Callable<DocumentReference>()
+                {
+                    @Override
+                    public DocumentReference call() throws Exception
+                    {
+                        XWikiContext threadContext = fixture.newContext();
+                        try {
+                            XWikiDocument threadDraft = threadContext.getWiki().getDocument(DRAFT, threadContext);
+                            loaded.await();
+                            return workflow.publish(threadDraft);
+                        } finally {
+                            fixture.removeContext();
+                        }
+                    }
+                }));
+            }
+
+            int published = 0;
+            for (Future<DocumentReference> result : results) {
+                DocumentReference target = result.get();
+                if (target != null) {
+                    assertEquals(TARGET, target);
+                    published++;
+                }
+            }
+            assertEquals(1, published);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        xcontext = this.fixture.newContext();
+        try {
+            assertFalse(xcontext.getWiki().getDocument(TARGET, xcontext).isNew());
+        } finally {
+            this.fixture.removeContext();
+        }
+    }
+}